@@ -0,0 +1,131 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codes for builder and tile actions and their outcomes, shared by
+ * everything which records, replays or sends actions.
+ *
+ * <p> An outcome is {@link #OK} or the exception the action threw, so
+ * outcomes can be compared and stored without keeping exceptions.
+ */
+public final class Action {
+
+    /** A builder joining, with its name, tile and inventory. */
+    public static final int BUILDER = 0;
+    /** {@link Builder#moveTo(Tile)}. */
+    public static final int MOVE_TO = 1;
+    /** {@link Builder#digOnCurrentTile()}. */
+    public static final int DIG = 2;
+    /** {@link Builder#dropFromInventory(int)}. */
+    public static final int DROP = 3;
+    /** {@link Tile#moveBlock(String)}. */
+    public static final int MOVE_BLOCK = 4;
+    /** Definition of an exit name used by later actions. */
+    public static final int NAME = 5;
+    /** A hash of the whole state, to check replays against. */
+    public static final int CHECKPOINT = 6;
+
+    /** The action succeeded. */
+    public static final int OK = 0;
+    /** The action threw {@link TooLowException}. */
+    public static final int TOO_LOW = 1;
+    /** The action threw {@link TooHighException}. */
+    public static final int TOO_HIGH = 2;
+    /** The action threw {@link InvalidBlockException}. */
+    public static final int INVALID_BLOCK = 3;
+    /** The action threw {@link NoExitException}. */
+    public static final int NO_EXIT = 4;
+
+    private Action() {}
+
+    /**
+     * Gets the outcome code for an exception thrown by an action.
+     *
+     * @param e the exception.
+     * @return the outcome code.
+     */
+    public static int outcomeOf(BlockWorldException e) {
+        if (e instanceof TooLowException) {
+            return TOO_LOW;
+        }
+        if (e instanceof TooHighException) {
+            return TOO_HIGH;
+        }
+        if (e instanceof NoExitException) {
+            return NO_EXIT;
+        }
+        return INVALID_BLOCK;
+    }
+
+    /**
+     * Gets a short name for an outcome code.
+     *
+     * @param outcome the outcome code.
+     * @return the name, e.g. "ok" or "too_high".
+     */
+    public static String outcomeName(int outcome) {
+        switch (outcome) {
+            case OK:
+                return "ok";
+            case TOO_LOW:
+                return "too_low";
+            case TOO_HIGH:
+                return "too_high";
+            case INVALID_BLOCK:
+                return "invalid_block";
+            case NO_EXIT:
+                return "no_exit";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Hashes the blocks and exits of every tile in a world and the position
+     * and inventory of some builders. Equal states give equal hashes
+     * whatever order their exits were added in.
+     *
+     * @param world    the world.
+     * @param builders builders on the world's tiles, in a fixed order.
+     * @return the hash.
+     */
+    public static long stateHash(World world, List<Builder> builders) {
+        long hash = world.size();
+        for (int id = 0; id < world.size(); id++) {
+            Tile tile = world.getTile(id);
+            if (tile == null) {
+                hash = mix(hash, -1);
+                continue;
+            }
+            Column column = tile.getColumn();
+            hash = mix(hash, column.height());
+            for (int layer = 0; layer < column.height(); layer++) {
+                hash = mix(hash, BlockTypes.of(column.get(layer)).getId());
+            }
+            long exits = 0; // Summed so exit order does not matter.
+            for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+                exits += mix(exit.getKey().hashCode(),
+                    world.getId(exit.getValue()));
+            }
+            hash = mix(hash, exits);
+        }
+        for (Builder builder : builders) {
+            hash = mix(hash, world.getId(builder.getCurrentTile()));
+            for (Block block : builder.getInventory()) {
+                hash = mix(hash, BlockTypes.of(block).getId());
+            }
+            hash = mix(hash, builder.getInventory().size());
+        }
+        return hash;
+    }
+
+    /**
+     * Helper method to mix a value into a hash.
+     */
+    private static long mix(long hash, long value) {
+        long z = (hash ^ value) * 0x9E3779B97F4A7C15L + value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records builder and tile actions on a {@link World} into a compact
+ * binary trace, which {@link ActionReplayer} can play back.
+ *
+ * <p> Every {@link Tile#moveBlock(String)} on a tile in the world is
+ * recorded, as is every moveTo, digOnCurrentTile and dropFromInventory of
+ * builders passed to {@link #attach(Builder)}. Each record is one byte
+ * holding the {@link Action} code in the low four bits and the outcome in
+ * the high four, followed by unsigned varints: builders are numbered in
+ * the order they were attached, tiles by id plus one (0 for a tile not in
+ * the world), and exit names by index into a table defined by NAME records
+ * as names are first used.
+ *
+ * <p> Not thread safe. Write errors during an action are held and thrown
+ * from the next call to {@link #checkpoint()}, {@link #flush()} or
+ * {@link #close()}.
+ */
+public class ActionRecorder {
+
+    /** Bytes at the start of every trace. */
+    static final byte[] MAGIC = {'B', 'W', 'T', 1};
+    /** Most bytes a record other than NAME and BUILDER can take. */
+    static final int MAX_RECORD = 16;
+
+    /** The recorded world. */
+    private final World world;
+    /** Where the trace goes. */
+    private final WritableByteChannel out;
+    /** Records not yet written to out. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    /** Index of each attached builder. */
+    private final Map<Builder, Integer> builderIndex =
+        new IdentityHashMap<Builder, Integer>();
+    /** Attached builders in order. */
+    private final List<Builder> builders = new ArrayList<Builder>();
+    /** Index of each exit name defined so far. */
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+    /** Write error held until the next public call. */
+    private IOException failure;
+
+    /**
+     * Starts recording actions on a world's tiles.
+     *
+     * @param world the world, which must not already be recorded.
+     * @param out   channel to write the trace to.
+     * @throws IOException if the header cannot be written.
+     */
+    public ActionRecorder(World world, WritableByteChannel out)
+            throws IOException {
+        if (world.recorder != null) {
+            throw new IllegalStateException("World is already recorded");
+        }
+        this.world = world;
+        this.out = out;
+        this.buffer.put(MAGIC);
+        this.flush();
+        world.recorder = this;
+    }
+
+    /**
+     * Starts recording a builder's actions, recording its name, tile and
+     * inventory as they are now.
+     *
+     * @param builder builder on one of the world's tiles.
+     * @throws IOException if the trace could not be written.
+     */
+    public void attach(Builder builder) throws IOException {
+        if (builder.recorder != null) {
+            throw new IllegalStateException("Builder is already recorded");
+        }
+        this.throwFailure();
+        byte[] name = builder.getName().getBytes(StandardCharsets.UTF_8);
+        List<Block> inventory = builder.getInventory();
+        this.ensure(MAX_RECORD + name.length + 5 * inventory.size());
+        this.buffer.put((byte) Action.BUILDER);
+        this.putTile(builder.getCurrentTile());
+        putVarint(this.buffer, name.length);
+        this.buffer.put(name);
+        putVarint(this.buffer, inventory.size());
+        for (Block block : inventory) {
+            putVarint(this.buffer, BlockTypes.of(block).getId());
+        }
+        this.builderIndex.put(builder, this.builders.size());
+        this.builders.add(builder);
+        builder.recorder = this;
+    }
+
+    /**
+     * Records a hash of the world and every attached builder, which replays
+     * can be checked against.
+     *
+     * @throws IOException if the trace could not be written.
+     */
+    public void checkpoint() throws IOException {
+        this.throwFailure();
+        this.ensure(MAX_RECORD);
+        this.buffer.put((byte) Action.CHECKPOINT);
+        this.buffer.putLong(Action.stateHash(this.world, this.builders));
+    }
+
+    /**
+     * Writes all recorded actions to the channel.
+     *
+     * @throws IOException if the trace could not be written.
+     */
+    public void flush() throws IOException {
+        this.throwFailure();
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.out.write(this.buffer);
+            }
+        } finally {
+            this.buffer.compact();
+        }
+    }
+
+    /**
+     * Stops recording and writes all recorded actions. Does not close the
+     * channel.
+     *
+     * @throws IOException if the trace could not be written.
+     */
+    public void close() throws IOException {
+        if (this.world.recorder == this) {
+            this.world.recorder = null;
+        }
+        for (Builder builder : this.builders) {
+            builder.recorder = null;
+        }
+        this.flush();
+    }
+
+    /**
+     * Records a moveTo by an attached builder.
+     */
+    void moveTo(Builder builder, Tile target, int outcome) {
+        if (this.reserve()) {
+            this.buffer.put((byte) (Action.MOVE_TO | outcome << 4));
+            putVarint(this.buffer, this.builderIndex.get(builder));
+            this.putTile(target);
+        }
+    }
+
+    /**
+     * Records a digOnCurrentTile by an attached builder.
+     */
+    void dig(Builder builder, int outcome) {
+        if (this.reserve()) {
+            this.buffer.put((byte) (Action.DIG | outcome << 4));
+            putVarint(this.buffer, this.builderIndex.get(builder));
+        }
+    }
+
+    /**
+     * Records a dropFromInventory by an attached builder.
+     */
+    void drop(Builder builder, int inventoryIndex, int outcome) {
+        if (this.reserve()) {
+            this.buffer.put((byte) (Action.DROP | outcome << 4));
+            putVarint(this.buffer, this.builderIndex.get(builder));
+            // Shifted so out of range negative indexes replay too.
+            putVarint(this.buffer, inventoryIndex + 1);
+        }
+    }
+
+    /**
+     * Records a moveBlock on one of the world's tiles.
+     */
+    void moveBlock(Tile tile, String exitName, int outcome) {
+        int name = exitName == null ? 0 : this.nameIndex(exitName) + 1;
+        if (name >= 0 && this.reserve()) {
+            this.buffer.put((byte) (Action.MOVE_BLOCK | outcome << 4));
+            this.putTile(tile);
+            putVarint(this.buffer, name);
+        }
+    }
+
+    /**
+     * Gets the index of an exit name, defining it first if it is new.
+     *
+     * @return the index, or -2 if the definition could not be written.
+     */
+    private int nameIndex(String exitName) {
+        Integer index = this.names.get(exitName);
+        if (index != null) {
+            return index;
+        }
+        byte[] bytes = exitName.getBytes(StandardCharsets.UTF_8);
+        try {
+            this.ensure(MAX_RECORD + bytes.length);
+        } catch (IOException e) {
+            this.failure = e;
+            return -2;
+        }
+        this.buffer.put((byte) Action.NAME);
+        putVarint(this.buffer, bytes.length);
+        this.buffer.put(bytes);
+        this.names.put(exitName, this.names.size());
+        return this.names.size() - 1;
+    }
+
+    /**
+     * Writes a tile as its id plus one, or 0 if it is not in the world.
+     */
+    private void putTile(Tile tile) {
+        putVarint(this.buffer, this.world.getId(tile) + 1);
+    }
+
+    /**
+     * Makes room for one record from inside an action, holding any error.
+     *
+     * @return true if there is room.
+     */
+    private boolean reserve() {
+        if (this.failure != null) {
+            return false;
+        }
+        try {
+            this.ensure(MAX_RECORD);
+            return true;
+        } catch (IOException e) {
+            this.failure = e;
+            return false;
+        }
+    }
+
+    /**
+     * Flushes if there are fewer than length bytes free in the buffer.
+     */
+    private void ensure(int length) throws IOException {
+        if (length > this.buffer.capacity()) {
+            throw new IOException("Record too long");
+        }
+        if (this.buffer.remaining() < length) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Throws the held write error, if any.
+     */
+    private void throwFailure() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Writes an unsigned variable length integer, 7 bits per byte, least
+     * significant first.
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays a trace written by {@link ActionRecorder} back against a world in
+ * the state the recording started from.
+ *
+ * <p> Builders are recreated from the trace. Each action is done again,
+ * and by default its outcome and every checkpoint hash are compared with
+ * the recording, so the first point at which the replay differs is
+ * reported with a {@link ReplayException}. The trace is decoded straight
+ * from a reusable buffer, so replaying allocates nothing per action other
+ * than exceptions thrown by the actions themselves.
+ */
+public class ActionReplayer {
+
+    /** World the actions are done on. */
+    private final World world;
+    /** Builders created so far, by index. */
+    private final List<Builder> builders = new ArrayList<Builder>();
+    /** Exit names defined so far, by index. */
+    private final List<String> names = new ArrayList<String>();
+    /** Whether outcomes and checkpoints are compared. */
+    private boolean verify = true;
+
+    /** Bytes read from the trace and not yet decoded. */
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    /** Trace being read. */
+    private ReadableByteChannel in;
+    /** Whether the trace has been read to the end. */
+    private boolean ended;
+    /** Number of actions replayed. */
+    private long actions;
+
+    /**
+     * Creates a replayer for a world.
+     *
+     * @param world the world, in the state the recording started from.
+     */
+    public ActionReplayer(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Sets whether outcomes and checkpoint hashes are compared with the
+     * recording. Turning this off replays as fast as possible.
+     *
+     * @param verify true to compare, which is the default.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Gets the builders recreated from the trace.
+     *
+     * @return read-only list of builders, in the order they were attached.
+     */
+    public List<Builder> getBuilders() {
+        return Collections.unmodifiableList(this.builders);
+    }
+
+    /**
+     * Replays a whole trace.
+     *
+     * @param in channel to read the trace from.
+     * @return number of actions replayed, not counting builders, names and
+     *         checkpoints.
+     * @throws IOException     if the trace cannot be read or is malformed.
+     * @throws ReplayException if verifying and the replay differs from the
+     *                         recording.
+     */
+    public long replay(ReadableByteChannel in)
+            throws IOException, ReplayException {
+        this.in = in;
+        this.ended = false;
+        this.buffer.clear();
+        this.buffer.flip();
+        this.require(ActionRecorder.MAGIC.length);
+        byte[] magic = new byte[ActionRecorder.MAGIC.length];
+        this.buffer.get(magic);
+        if (!Arrays.equals(magic, ActionRecorder.MAGIC)) {
+            throw new IOException("Not an action trace");
+        }
+        long start = this.actions;
+        while (this.fill(ActionRecorder.MAX_RECORD)) {
+            int header = this.buffer.get() & 0xFF;
+            this.step(header & 0xF, header >>> 4);
+        }
+        return this.actions - start;
+    }
+
+    /**
+     * Decodes and does one record.
+     */
+    private void step(int action, int recorded)
+            throws IOException, ReplayException {
+        int outcome = Action.OK;
+        switch (action) {
+            case Action.BUILDER:
+                this.addBuilder();
+                return;
+            case Action.NAME:
+                int length = this.varint();
+                this.require(length);
+                byte[] bytes = new byte[length];
+                this.buffer.get(bytes);
+                this.names.add(new String(bytes, StandardCharsets.UTF_8));
+                return;
+            case Action.CHECKPOINT:
+                this.require(8);
+                long hash = this.buffer.getLong();
+                if (this.verify && hash
+                        != Action.stateHash(this.world, this.builders)) {
+                    throw new ReplayException(this.actions,
+                        "checkpoint hash differs");
+                }
+                return;
+            case Action.MOVE_TO:
+                Builder mover = this.builder();
+                Tile target = this.tile();
+                try {
+                    mover.moveTo(target);
+                } catch (NoExitException e) {
+                    outcome = Action.NO_EXIT;
+                }
+                break;
+            case Action.DIG:
+                Builder digger = this.builder();
+                try {
+                    digger.digOnCurrentTile();
+                } catch (BlockWorldException e) {
+                    outcome = Action.outcomeOf(e);
+                }
+                break;
+            case Action.DROP:
+                Builder dropper = this.builder();
+                int index = this.varint() - 1;
+                try {
+                    dropper.dropFromInventory(index);
+                } catch (BlockWorldException e) {
+                    outcome = Action.outcomeOf(e);
+                }
+                break;
+            case Action.MOVE_BLOCK:
+                Tile tile = this.tile();
+                int name = this.varint();
+                if (tile == null || name > this.names.size()) {
+                    throw new IOException("Bad tile or exit name");
+                }
+                try {
+                    tile.moveBlock(name == 0 ? null : this.names.get(name - 1));
+                } catch (BlockWorldException e) {
+                    outcome = Action.outcomeOf(e);
+                }
+                break;
+            default:
+                throw new IOException("Unknown action " + action);
+        }
+        this.actions++;
+        if (this.verify && outcome != recorded) {
+            throw new ReplayException(this.actions, "expected "
+                + Action.outcomeName(recorded) + " but was "
+                + Action.outcomeName(outcome));
+        }
+    }
+
+    /**
+     * Decodes a BUILDER record and creates the builder.
+     */
+    private void addBuilder() throws IOException {
+        Tile tile = this.tile();
+        int length = this.varint();
+        this.require(length);
+        byte[] name = new byte[length];
+        this.buffer.get(name);
+        this.fill(5);
+        int count = this.varint();
+        List<Block> inventory = new ArrayList<Block>();
+        for (int i = 0; i < count; i++) {
+            this.fill(5);
+            BlockType type = BlockTypes.byId(this.varint());
+            if (type == null) {
+                throw new IOException("Unknown block type");
+            }
+            inventory.add(type.getBlock());
+        }
+        try {
+            this.builders.add(new Builder(
+                new String(name, StandardCharsets.UTF_8), tile, inventory));
+        } catch (InvalidBlockException e) {
+            throw new IOException("Builder carries an uncarryable block");
+        }
+    }
+
+    /**
+     * Decodes a builder index.
+     */
+    private Builder builder() throws IOException {
+        int index = this.varint();
+        if (index >= this.builders.size()) {
+            throw new IOException("Unknown builder " + index);
+        }
+        return this.builders.get(index);
+    }
+
+    /**
+     * Decodes a tile, written as its id plus one.
+     */
+    private Tile tile() throws IOException {
+        int id = this.varint() - 1;
+        if (id >= this.world.size()) {
+            throw new IOException("Unknown tile " + id);
+        }
+        return id < 0 ? null : this.world.getTile(id);
+    }
+
+    /**
+     * Decodes an unsigned varint from the buffer.
+     */
+    private int varint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!this.buffer.hasRemaining()) {
+                throw new IOException("Truncated trace");
+            }
+            int b = this.buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    /**
+     * Reads until at least length bytes are buffered, throwing if the
+     * trace ends first.
+     */
+    private void require(int length) throws IOException {
+        if (!this.fill(length) || this.buffer.remaining() < length) {
+            throw new IOException("Truncated trace");
+        }
+    }
+
+    /**
+     * Reads until at least length bytes are buffered or the trace ends.
+     *
+     * @return false if nothing at all is left.
+     */
+    private boolean fill(int length) throws IOException {
+        if (this.buffer.remaining() >= length || this.ended) {
+            return this.buffer.hasRemaining();
+        }
+        if (length > this.buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(length);
+            grown.put(this.buffer);
+            this.buffer = grown;
+        } else {
+            this.buffer.compact();
+        }
+        while (this.buffer.position() < length) {
+            if (this.in.read(this.buffer) < 0) {
+                this.ended = true;
+                break;
+            }
+        }
+        this.buffer.flip();
+        return this.buffer.hasRemaining();
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Description of one kind of block: its id, name, colour, map code and
+ * capabilities.
+ *
+ * <p> Capabilities are packed into a bitmask so rules such as "is the top
+ * block diggable" are a single bit test rather than a call into whichever
+ * {@link Block} implementation happens to be on top.
+ *
+ * <p> Instances are created and numbered by {@link BlockTypes}.
+ */
+public final class BlockType {
+
+    /** Flag for ground blocks, which have a lower height limit. */
+    public static final int GROUND = 1;
+    /** Flag for blocks which can be dug. */
+    public static final int DIGGABLE = 1 << 1;
+    /** Flag for blocks which can be moved between tiles. */
+    public static final int MOVEABLE = 1 << 2;
+    /** Flag for blocks which can be carried in an inventory. */
+    public static final int CARRYABLE = 1 << 3;
+
+    /** Small dense id, unique among registered types. */
+    private final int id;
+    /** Name, as returned by {@link Block#getBlockType()}. */
+    private final String name;
+    /** Colour, as returned by {@link Block#getColour()}. */
+    private final String colour;
+    /** Character used in the text map format, or '?' for none. */
+    private final char code;
+    /** Capability flags. */
+    private final int flags;
+    /** Shared instance of this type of block. */
+    private Block block;
+
+    BlockType(int id, String name, String colour, char code, int flags) {
+        this.id = id;
+        this.name = name;
+        this.colour = colour;
+        this.code = code;
+        this.flags = flags;
+    }
+
+    /**
+     * Gets this type's id.
+     *
+     * @return id, from 0 up to the number of registered types.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets this type's name.
+     *
+     * @return name, e.g. "soil".
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the colour of blocks of this type.
+     *
+     * @return colour, e.g. "black".
+     */
+    public String getColour() {
+        return this.colour;
+    }
+
+    /**
+     * Gets the character representing this type in text maps.
+     *
+     * @return the code, or '?' if the type has none.
+     */
+    public char getCode() {
+        return this.code;
+    }
+
+    /**
+     * Gets all capability flags.
+     *
+     * @return bitwise or of GROUND, DIGGABLE, MOVEABLE and CARRYABLE.
+     */
+    public int getFlags() {
+        return this.flags;
+    }
+
+    /**
+     * Tests capability flags.
+     *
+     * @param flag one or more flags or-ed together.
+     * @return true if this type has every given flag.
+     */
+    public boolean is(int flag) {
+        return (this.flags & flag) == flag;
+    }
+
+    /**
+     * Whether blocks of this type are ground blocks.
+     *
+     * @return true for ground blocks.
+     */
+    public boolean isGround() {
+        return (this.flags & GROUND) != 0;
+    }
+
+    /**
+     * Gets a block of this type shared by everyone. Blocks have no state of
+     * their own, so bulk builders can place this instead of a new block.
+     *
+     * @return the shared block.
+     */
+    public Block getBlock() {
+        return this.block;
+    }
+
+    /**
+     * Sets the shared block, once, while registering.
+     */
+    void setBlock(Block block) {
+        this.block = block;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of every {@link BlockType}.
+ *
+ * <p> The four built-in types are always registered, with ids 0 to 3. More
+ * types can be registered in code or loaded from a configuration file with
+ * one type per line:
+ * <pre>
+ * # name   code  colour  flags...
+ * sand     a     yellow  ground diggable carryable
+ * </pre>
+ * where flags are any of ground, diggable, moveable and carryable. Blocks
+ * of loaded types are {@link DataBlock}s.
+ *
+ * <p> {@link #of(Block)} finds the type of any block. The built-in block
+ * classes are mapped to their type once per class, so the lookup never
+ * calls their methods. Blocks of other classes may behave differently
+ * from one instance to the next, so they are described by their own
+ * methods every time, and each distinct description gets its own type,
+ * without a code. Each class remembers the types it has had, so a lookup
+ * only registers anything the first time a description is seen.
+ */
+public final class BlockTypes {
+
+    /** Most types that can be registered, so ids fit in a byte. */
+    static final int MAX_TYPES = 256;
+
+    /** Lock for registering types. */
+    private static final Object LOCK = new Object();
+    /** Registered types by id, copied on write. */
+    private static volatile BlockType[] byId = new BlockType[0];
+    /** Registered types by map code, copied on write. */
+    private static volatile BlockType[] byCode = new BlockType[128];
+    /** Registered types by name. */
+    private static final ConcurrentHashMap<String, BlockType> BY_NAME =
+        new ConcurrentHashMap<String, BlockType>();
+
+    /** Types of each block class, fixed or as described so far. */
+    private static final ClassValue<TypeHolder> CLASS_TYPES =
+        new ClassValue<TypeHolder>() {
+            @Override
+            protected TypeHolder computeValue(Class<?> type) {
+                return new TypeHolder();
+            }
+        };
+
+    /** Soil: black, ground, diggable and carryable. */
+    public static final BlockType SOIL = builtIn("soil", "black", 's',
+        BlockType.GROUND | BlockType.DIGGABLE | BlockType.CARRYABLE,
+        new SoilBlock());
+    /** Grass: green, ground and diggable. */
+    public static final BlockType GRASS = builtIn("grass", "green", 'g',
+        BlockType.GROUND | BlockType.DIGGABLE, new GrassBlock());
+    /** Wood: brown, diggable, moveable and carryable. */
+    public static final BlockType WOOD = builtIn("wood", "brown", 'w',
+        BlockType.DIGGABLE | BlockType.MOVEABLE | BlockType.CARRYABLE,
+        new WoodBlock());
+    /** Stone: gray, with no capabilities. */
+    public static final BlockType STONE = builtIn("stone", "gray", 't', 0,
+        new StoneBlock());
+
+    /** Character used for tiles with no blocks in text maps. */
+    static final char EMPTY_CODE = '-';
+
+    private BlockTypes() {}
+
+    /**
+     * Gets the type of a block.
+     *
+     * @param block the block, cannot be null.
+     * @return the block's type.
+     * @throws IllegalStateException if the block needs a new type and no
+     *                               more can be registered.
+     */
+    public static BlockType of(Block block) {
+        if (block instanceof DataBlock) {
+            return ((DataBlock) block).getType();
+        }
+        TypeHolder holder = CLASS_TYPES.get(block.getClass());
+        BlockType type = holder.fixed;
+        return type != null ? type : describe(block, holder);
+    }
+
+    /**
+     * Gets the type of a block about to be placed or carried, failing as
+     * placing an invalid block does.
+     *
+     * @param block the block.
+     * @return the block's type.
+     * @throws InvalidBlockException if the block is null, or needs a new
+     *                               type and no more can be registered.
+     */
+    static BlockType checkedOf(Block block) throws InvalidBlockException {
+        if (block == null) {
+            throw new InvalidBlockException();
+        }
+        try {
+            return of(block);
+        } catch (IllegalStateException e) {
+            throw new InvalidBlockException();
+        }
+    }
+
+    /**
+     * Gets a registered type by id.
+     *
+     * @param id type id.
+     * @return the type, or null if there is none with that id.
+     */
+    public static BlockType byId(int id) {
+        BlockType[] types = byId;
+        return id >= 0 && id < types.length ? types[id] : null;
+    }
+
+    /**
+     * Gets a registered type by name.
+     *
+     * @param name type name.
+     * @return the type, or null if there is none with that name.
+     */
+    public static BlockType byName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /**
+     * Gets a registered type by its text map code.
+     *
+     * @param code the code.
+     * @return the type, or null if no type has that code.
+     */
+    public static BlockType byCode(char code) {
+        return code < 128 ? byCode[code] : null;
+    }
+
+    /**
+     * Number of registered types.
+     *
+     * @return type count, one more than the highest id.
+     */
+    public static int count() {
+        return byId.length;
+    }
+
+    /**
+     * Registers a new type whose blocks are {@link DataBlock}s.
+     *
+     * @param name   unique type name.
+     * @param colour colour of blocks of this type.
+     * @param code   unique printable ASCII character for text maps, or '?'
+     *               for none.
+     * @param flags  capability flags from {@link BlockType}.
+     * @return the new type.
+     * @throws IllegalArgumentException if the name or code is taken or
+     *                                  invalid, or there are too many types.
+     */
+    public static BlockType register(String name, String colour, char code,
+            int flags) {
+        synchronized (LOCK) {
+            BlockType type = add(name, colour, code, flags);
+            type.setBlock(new DataBlock(type));
+            return type;
+        }
+    }
+
+    /**
+     * Loads and registers types from a configuration file.
+     *
+     * @param path the file to read.
+     * @throws IOException if the file cannot be read or has a bad line.
+     */
+    public static void load(Path path) throws IOException {
+        try (Reader in = Files.newBufferedReader(path,
+                StandardCharsets.UTF_8)) {
+            load(in);
+        }
+    }
+
+    /**
+     * Loads and registers types from configuration text.
+     *
+     * @param in the configuration to read.
+     * @throws IOException if in cannot be read or has a bad line.
+     */
+    public static void load(Reader in) throws IOException {
+        BufferedReader lines = new BufferedReader(in);
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            if (fields.length < 3 || fields[1].length() != 1) {
+                throw new IOException("line " + number
+                    + ": expected name, code, colour and flags");
+            }
+            int flags = 0;
+            for (String flag : Arrays.asList(fields).subList(3,
+                    fields.length)) {
+                flags |= parseFlag(flag, number);
+            }
+            try {
+                register(fields[0], fields[2], fields[1].charAt(0), flags);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": "
+                    + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Converts a flag name from a configuration file to its bit.
+     */
+    private static int parseFlag(String flag, int line) throws IOException {
+        switch (flag.toLowerCase()) {
+            case "ground":
+                return BlockType.GROUND;
+            case "diggable":
+                return BlockType.DIGGABLE;
+            case "moveable":
+                return BlockType.MOVEABLE;
+            case "carryable":
+                return BlockType.CARRYABLE;
+            default:
+                throw new IOException("line " + line + ": unknown flag "
+                    + flag);
+        }
+    }
+
+    /**
+     * Registers one of the types implemented by a block class.
+     */
+    private static BlockType builtIn(String name, String colour, char code,
+            int flags, Block block) {
+        synchronized (LOCK) {
+            BlockType type = add(name, colour, code, flags);
+            type.setBlock(block);
+            CLASS_TYPES.get(block.getClass()).fixed = type;
+            return type;
+        }
+    }
+
+    /**
+     * Works out the type of a block of a class without a fixed type from
+     * what the block says about itself. Uses a type the class has had
+     * before or the registered type of the same name if either matches,
+     * otherwise registers a new type without a code.
+     */
+    private static BlockType describe(Block block, TypeHolder holder) {
+        int flags = (block instanceof GroundBlock ? BlockType.GROUND : 0)
+            | (block.isDiggable() ? BlockType.DIGGABLE : 0)
+            | (block.isMoveable() ? BlockType.MOVEABLE : 0)
+            | (block.isCarryable() ? BlockType.CARRYABLE : 0);
+        String name = block.getBlockType();
+        String colour = block.getColour();
+        for (BlockType seen : holder.described) {
+            if (matches(seen, name, colour, flags)) {
+                return seen;
+            }
+        }
+        synchronized (LOCK) {
+            for (BlockType seen : holder.described) {
+                if (matches(seen, name, colour, flags)) {
+                    return seen; // Added by another thread meanwhile.
+                }
+            }
+            BlockType type = BY_NAME.get(name);
+            if (type == null || !matches(type, name, colour, flags)) {
+                if (byId.length >= MAX_TYPES) {
+                    throw new IllegalStateException("too many block types");
+                }
+                type = new BlockType(byId.length, name, colour, '?', flags);
+                appendId(type);
+                type.setBlock(block);
+                if (!BY_NAME.containsKey(name)) {
+                    BY_NAME.put(name, type);
+                }
+            }
+            BlockType[] described = Arrays.copyOf(holder.described,
+                holder.described.length + 1);
+            described[described.length - 1] = type;
+            holder.described = described;
+            return type;
+        }
+    }
+
+    /**
+     * Whether a type fits a block's description.
+     */
+    private static boolean matches(BlockType type, String name,
+            String colour, int flags) {
+        return type.getFlags() == flags && type.getName().equals(name)
+            && type.getColour().equals(colour);
+    }
+
+    /**
+     * Creates and indexes a type. Must hold LOCK.
+     */
+    private static BlockType add(String name, String colour, char code,
+            int flags) {
+        if (name == null || colour == null || BY_NAME.containsKey(name)) {
+            throw new IllegalArgumentException("bad or duplicate name "
+                + name);
+        }
+        if (code != '?' && (code <= ' ' || code >= 127
+                || code == EMPTY_CODE || byCode[code] != null)) {
+            throw new IllegalArgumentException("bad or duplicate code "
+                + code);
+        }
+        BlockType type = new BlockType(byId.length, name, colour, code,
+            flags);
+        appendId(type);
+        BY_NAME.put(name, type);
+        if (code != '?') {
+            BlockType[] codes = byCode.clone();
+            codes[code] = type;
+            byCode = codes;
+        }
+        return type;
+    }
+
+    /**
+     * Adds a type to the id table. Must hold LOCK.
+     */
+    private static void appendId(BlockType type) {
+        if (byId.length >= MAX_TYPES) {
+            throw new IllegalArgumentException("too many block types");
+        }
+        BlockType[] ids = Arrays.copyOf(byId, byId.length + 1);
+        ids[type.getId()] = type;
+        byId = ids;
+    }
+
+    /** Types of one block class. */
+    private static final class TypeHolder {
+        /** Type of every block of a built-in class, otherwise null. */
+        private volatile BlockType fixed;
+        /** Types the class's blocks have been described as, copied on write. */
+        private volatile BlockType[] described = new BlockType[0];
+    }
+}
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -9,12 +11,32 @@ import java.util.List;
 public class Builder {
 
     /** Player's current inventory. All blocks should be carryable. */
-    private List<Block> inventory;
+    private final List<Block> inventory = new ArrayList<Block>();
+    /** Read-only view of inventory handed out by getInventory(). */
+    private final List<Block> inventoryView =
+        Collections.unmodifiableList(this.inventory);
     /** Tile the player is currently on. */
     private Tile currentTile;
     /** Player's name. */
     private String name;
 
+    /** Number of canEnter results remembered. */
+    private static final int CACHE_SIZE = 8;
+    /** Tile the remembered results are from. */
+    private Tile cacheFrom;
+    /** Modification count of cacheFrom when the results were worked out. */
+    private long cacheFromEpoch;
+    /** Tiles with a remembered result, or null for an empty entry. */
+    private final Tile[] cacheTargets = new Tile[CACHE_SIZE];
+    /** Modification count of each target when its result was worked out. */
+    private final long[] cacheEpochs = new long[CACHE_SIZE];
+    /** Remembered canEnter result for each target. */
+    private final boolean[] cacheResults = new boolean[CACHE_SIZE];
+    /** Entry to overwrite next. */
+    private int cacheNext;
+    /** Recorder of this builder's actions, or null if not recorded. */
+    ActionRecorder recorder;
+
     /**
      * Creates a builder with a given name and starting on the given tile.
      *
@@ -26,7 +48,6 @@ public class Builder {
         // can't chain the other one from here.
         this.name = name;
         this.currentTile = startingTile;
-        this.inventory = new ArrayList<Block>();
     }
 
     /**
@@ -37,17 +58,19 @@ public class Builder {
      * @param startingTile      tile the builder starts in, cannot be null.
      * @param startingInventory starting inventory, cannot be null.
      * @throws InvalidBlockException if any block in startingInventory is
-     *                               not carryable.
+     *                               not carryable, or is of a new type
+     *                               and no more types can be registered.
      */
     public Builder(String name, Tile startingTile,
             List<Block> startingInventory) throws InvalidBlockException {
         this(name, startingTile);
         for (Block b : startingInventory) {
-            if (!b.isCarryable()) {
+            if (!BlockTypes.checkedOf(b).is(BlockType.CARRYABLE)) {
                 throw new InvalidBlockException();
             }
         }
-        this.inventory = startingInventory;
+        // Copied so the caller cannot slip uncarryable blocks in later.
+        this.inventory.addAll(startingInventory);
     }
 
     /**
@@ -71,10 +94,10 @@ public class Builder {
     /**
      * Gets the builder's current inventory.
      *
-     * @return blocks in the inventory, as a list.
+     * @return read-only live view of the blocks in the inventory.
      */
     public List<Block> getInventory() {
-        return this.inventory;
+        return this.inventoryView;
     }
 
     /**
@@ -102,7 +125,25 @@ public class Builder {
      */
     public void dropFromInventory(int inventoryIndex)
             throws InvalidBlockException, TooHighException {
-        List<Block> inventory = this.getInventory();
+        if (this.recorder == null) {
+            this.drop(inventoryIndex);
+            return;
+        }
+        try {
+            this.drop(inventoryIndex);
+        } catch (BlockWorldException e) {
+            this.recorder.drop(this, inventoryIndex, Action.outcomeOf(e));
+            throw e;
+        }
+        this.recorder.drop(this, inventoryIndex, Action.OK);
+    }
+
+    /**
+     * Helper method doing the work of dropFromInventory.
+     */
+    private void drop(int inventoryIndex)
+            throws InvalidBlockException, TooHighException {
+        List<Block> inventory = this.inventory;
 
         // Check index is within bounds of inventory size.
         // Alternatively, we could try/catch around .get().
@@ -141,9 +182,26 @@ public class Builder {
      */
     public void digOnCurrentTile()
         throws TooLowException, InvalidBlockException {
+        if (this.recorder == null) {
+            this.dig();
+            return;
+        }
+        try {
+            this.dig();
+        } catch (BlockWorldException e) {
+            this.recorder.dig(this, Action.outcomeOf(e));
+            throw e;
+        }
+        this.recorder.dig(this, Action.OK);
+    }
+
+    /**
+     * Helper method doing the work of digOnCurrentTile.
+     */
+    private void dig() throws TooLowException, InvalidBlockException {
         // .dig() throws the required exceptions appropriately.
         Block dugBlock = this.currentTile.dig();
-        if (dugBlock.isCarryable()) {
+        if (BlockTypes.of(dugBlock).is(BlockType.CARRYABLE)) {
             this.inventory.add(dugBlock);
         }
     }
@@ -169,16 +227,67 @@ public class Builder {
             return false;
         }
 
+        // The result only depends on the exits and heights of the two
+        // tiles, so it stands while neither tile's modification count has
+        // moved. Counts never repeat, so an entry can never be stale.
+        Tile current = this.currentTile;
+        while (true) {
+            long currentEpoch = current.getEpoch();
+            if (this.cacheFrom != current
+                    || this.cacheFromEpoch != currentEpoch) {
+                Arrays.fill(this.cacheTargets, null);
+                this.cacheFrom = current;
+                this.cacheFromEpoch = currentEpoch;
+            }
+            long newEpoch = newTile.getEpoch();
+            for (int i = 0; i < CACHE_SIZE; i++) {
+                if (this.cacheTargets[i] == newTile
+                        && this.cacheEpochs[i] == newEpoch) {
+                    return this.cacheResults[i];
+                }
+            }
+            boolean result = decideCanEnter(current, newTile);
+            // Read without locking: if either tile changed meanwhile the
+            // result may be mixed up, so only a checked one is used.
+            if (current.validate(currentEpoch)
+                    && newTile.validate(newEpoch)) {
+                this.remember(newTile, newEpoch, result);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Helper method to remember a canEnter result from the current tile.
+     */
+    private void remember(Tile newTile, long newEpoch, boolean result) {
+        int slot = -1;
+        for (int i = 0; i < CACHE_SIZE && slot < 0; i++) {
+            if (this.cacheTargets[i] == newTile) {
+                slot = i; // Replace this tile's out of date entry.
+            }
+        }
+        if (slot < 0) {
+            slot = this.cacheNext;
+            this.cacheNext = (slot + 1) % CACHE_SIZE;
+        }
+        this.cacheTargets[slot] = newTile;
+        this.cacheEpochs[slot] = newEpoch;
+        this.cacheResults[slot] = result;
+    }
+
+    /**
+     * Helper method to work out canEnter between two non-null tiles.
+     */
+    private static boolean decideCanEnter(Tile current, Tile newTile) {
         // If there is no exit to newTile, it cannot be entered.
-        if (!this.currentTile.getExits().containsValue(newTile)) {
+        if (!current.hasExitTo(newTile)) {
             return false;
         }
 
         // There is an exit to newTile. In this case, it can be entered if
         // the height difference is <= 1.
-        int newHeight = newTile.getBlocks().size();
-        int currentHeight = this.currentTile.getBlocks().size();
-        return Math.abs(newHeight - currentHeight) <= 1;
+        return Math.abs(newTile.height() - current.height()) <= 1;
     }
 
     /**
@@ -192,7 +301,12 @@ public class Builder {
      * @throws NoExitException if moving to newTile is impossible.
      */
     public void moveTo(Tile newTile) throws NoExitException {
-        if (!this.canEnter(newTile)) {
+        boolean canEnter = this.canEnter(newTile);
+        if (this.recorder != null) {
+            this.recorder.moveTo(this, newTile,
+                canEnter ? Action.OK : Action.NO_EXIT);
+        }
+        if (!canEnter) {
             throw new NoExitException();
         } else {
             this.currentTile = newTile;
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Server letting remote clients each control a {@link Builder} in a world.
+ *
+ * <p> Every connection gets its own builder, starting on a tile chosen in
+ * turn from the world. Clients send requests, each one byte with an
+ * {@link Action} code followed by unsigned varint arguments:
+ * <ul>
+ * <li> MOVE_TO: id of the target tile plus one. </li>
+ * <li> DIG: nothing. </li>
+ * <li> DROP: inventory index plus one. </li>
+ * <li> MOVE_BLOCK: length of the exit name, then the name in UTF-8. </li>
+ * </ul>
+ * The server answers each request in order with one byte, the action's
+ * {@link Action} outcome code. Clients may send any number of requests
+ * without waiting for answers; all requests which have arrived are done
+ * together and their answers sent in one write.
+ *
+ * <p> One thread serves every connection with a {@link Selector}, and is
+ * the only thread which touches the world while the server runs.
+ * Connections sending unknown requests are closed.
+ */
+public class BuilderServer {
+
+    /** Size of each connection's request and answer buffers. */
+    static final int BUFFER_SIZE = 1 << 13;
+
+    /** The world builders act in. */
+    private final World world;
+    /** Waits for activity on every connection. */
+    private final Selector selector;
+    /** Accepts new connections. */
+    private final ServerSocketChannel server;
+    /** Number of connections accepted so far. */
+    private int accepted;
+    /** Number of requests done so far. */
+    private volatile long requests;
+    /** Set to stop the server. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a server and starts listening. Call {@link #run()} to serve.
+     *
+     * @param world   the world, which must have at least one tile and must
+     *                not be changed by other threads while serving.
+     * @param address address to listen on, port 0 for any free port.
+     * @throws IOException if the server cannot listen on the address.
+     */
+    public BuilderServer(World world, InetSocketAddress address)
+            throws IOException {
+        if (world.size() == 0) {
+            throw new IllegalArgumentException("World has no tiles");
+        }
+        this.world = world;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(address);
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     *
+     * @return the local port.
+     */
+    public int getPort() {
+        return this.server.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of requests done so far.
+     *
+     * @return request count.
+     */
+    public long getRequests() {
+        return this.requests;
+    }
+
+    /**
+     * Serves connections until {@link #close()} is called, then closes
+     * every connection.
+     *
+     * @throws IOException if the selector fails.
+     */
+    public void run() throws IOException {
+        try {
+            while (!this.closed) {
+                this.selector.select();
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        this.accept();
+                    } else {
+                        ((Connection) key.attachment()).ready(key);
+                    }
+                }
+                this.selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SelectionKey key : this.selector.keys()) {
+                key.channel().close();
+            }
+            this.selector.close();
+        }
+    }
+
+    /**
+     * Stops the server. Can be called from any thread.
+     */
+    public void close() {
+        this.closed = true;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Accepts a pending connection, if any, giving it a new builder.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        int number = this.accepted++;
+        Tile start = null;
+        for (int i = 0; start == null && i < this.world.size(); i++) {
+            start = this.world.getTile((number + i) % this.world.size());
+        }
+        Builder builder = new Builder("client-" + number, start);
+        channel.register(this.selector, SelectionKey.OP_READ,
+            new Connection(channel, builder));
+    }
+
+    /** One client connection and its builder. */
+    private final class Connection {
+
+        /** The client's channel. */
+        private final SocketChannel channel;
+        /** The client's builder. */
+        private final Builder builder;
+        /** Requests received and not yet done. */
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        /** Answers not yet sent. */
+        private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Connection(SocketChannel channel, Builder builder) {
+            this.channel = channel;
+            this.builder = builder;
+        }
+
+        /**
+         * Reads, does and answers whatever requests the channel is ready
+         * for.
+         */
+        void ready(SelectionKey key) throws IOException {
+            try {
+                if (key.isWritable()) {
+                    this.send();
+                }
+                if (key.isReadable()
+                        && this.channel.read(this.in) < 0) {
+                    this.channel.close();
+                    return;
+                }
+                if (!this.process()) {
+                    this.channel.close(); // Unknown request.
+                    return;
+                }
+                this.send();
+            } catch (IOException e) {
+                this.channel.close();
+                return;
+            }
+            // Stop reading while answers are backed up, so a client which
+            // never reads cannot make the server buffer without limit.
+            int interest = this.out.position() > 0
+                ? SelectionKey.OP_WRITE : 0;
+            if (this.out.hasRemaining()) {
+                interest |= SelectionKey.OP_READ;
+            }
+            key.interestOps(interest);
+        }
+
+        /**
+         * Does every whole request received, while there is room for the
+         * answers.
+         *
+         * @return false if a request was not understood.
+         */
+        private boolean process() {
+            this.in.flip();
+            try {
+                while (this.in.hasRemaining() && this.out.hasRemaining()) {
+                    this.in.mark();
+                    try {
+                        int outcome = this.execute(this.in.get());
+                        if (outcome < 0) {
+                            return false;
+                        }
+                        this.out.put((byte) outcome);
+                        BuilderServer.this.requests++;
+                    } catch (BufferUnderflowException e) {
+                        this.in.reset(); // Wait for the rest.
+                        break;
+                    }
+                }
+                // A request bigger than the buffer can never be done.
+                return !this.out.hasRemaining() || this.in.position() > 0
+                    || this.in.limit() < this.in.capacity();
+            } finally {
+                this.in.compact();
+            }
+        }
+
+        /**
+         * Decodes and does one request.
+         *
+         * @return the outcome, or -1 for an unknown request.
+         * @throws BufferUnderflowException if the request is incomplete.
+         */
+        private int execute(int action) {
+            try {
+                switch (action) {
+                    case Action.MOVE_TO:
+                        int id = readVarint(this.in) - 1;
+                        this.builder.moveTo(BuilderServer.this.world
+                            .getTile(id));
+                        return Action.OK;
+                    case Action.DIG:
+                        this.builder.digOnCurrentTile();
+                        return Action.OK;
+                    case Action.DROP:
+                        this.builder.dropFromInventory(
+                            readVarint(this.in) - 1);
+                        return Action.OK;
+                    case Action.MOVE_BLOCK:
+                        int length = readVarint(this.in);
+                        if (length < 0) {
+                            return -1;
+                        }
+                        if (length > this.in.remaining()) {
+                            throw new BufferUnderflowException();
+                        }
+                        String name = new String(this.in.array(),
+                            this.in.arrayOffset() + this.in.position(),
+                            length, StandardCharsets.UTF_8);
+                        this.in.position(this.in.position() + length);
+                        this.builder.getCurrentTile().moveBlock(name);
+                        return Action.OK;
+                    default:
+                        return -1;
+                }
+            } catch (BlockWorldException e) {
+                return Action.outcomeOf(e);
+            }
+        }
+
+        /**
+         * Writes as many answers as the channel will take.
+         */
+        private void send() throws IOException {
+            this.out.flip();
+            try {
+                this.channel.write(this.out);
+            } finally {
+                this.out.compact();
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned varint, 7 bits per byte, least significant first.
+     *
+     * @throws BufferUnderflowException if the buffer ends first.
+     */
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,439 @@
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, hash-consed stack of blocks.
+ *
+ * <p> A column is stored as runs: each column other than {@link #EMPTY} is
+ * some number of copies of one block on top of a shorter column whose top
+ * block is different, its base. Pushing the same block onto the same
+ * column always returns the same instance while it is still in use, so
+ * two columns hold the same blocks exactly when they are the same object.
+ * Tiles with identical stacks share one column and comparing columns is a
+ * reference comparison.
+ *
+ * <p> Each column takes the same small space however tall it is, and a
+ * thousand layers of stone are a single run. The height and the top block
+ * are kept in every column, and pushing or popping only looks up or makes
+ * one column. Reading a layer lower down walks the runs below, skipping
+ * most of them by jump pointers, so it takes time logarithmic in the
+ * number of runs. Each column also counts its blocks of each type, so
+ * questions about what a column is made of take constant time.
+ *
+ * <p> Children are held weakly, so columns no tile uses any more can be
+ * collected. The children with the first few distinct top blocks are kept
+ * in a small array, which is all the common shared blocks need; columns
+ * which get many distinct blocks pushed onto them switch to a map.
+ */
+final class Column {
+
+    /** Distinct child blocks kept in the small array before a map. */
+    private static final int SMALL_CHILDREN = 8;
+    /** Where references to collected children are queued for removal. */
+    private static final ReferenceQueue<Column> COLLECTED =
+        new ReferenceQueue<Column>();
+
+    /** The column with no blocks. */
+    static final Column EMPTY = new Column();
+
+    /** Column below the top run, or null for EMPTY. */
+    private final Column base;
+    /** Block repeated in the top run, or null for EMPTY. */
+    private final Block top;
+    /** Type of the top block, or null for EMPTY. */
+    private final BlockType topType;
+    /** Number of copies of the top block in the top run. */
+    private final int run;
+    /** Number of blocks in the column. */
+    private final int height;
+    /** Number of runs in the column. */
+    private final int runs;
+    /**
+     * Some column further down the chain of bases, for skipping runs when
+     * reading low layers. EMPTY's is itself.
+     */
+    private final Column jump;
+    /** Number of blocks of each type, indexed by type id. */
+    private final int[] counts;
+    /** Number of ground blocks. */
+    private final int groundCount;
+
+    /** Children of the first few distinct blocks, copied on write. */
+    private volatile Runs[] smallChildren = new Runs[0];
+    /** Children of further blocks, created when needed. */
+    private volatile ConcurrentHashMap<Block, Runs> largeChildren;
+
+    private Column() {
+        this.base = null;
+        this.top = null;
+        this.topType = null;
+        this.run = 0;
+        this.height = 0;
+        this.runs = 0;
+        this.jump = this;
+        this.counts = new int[0];
+        this.groundCount = 0;
+    }
+
+    private Column(Column base, Block top, int run) {
+        this.base = base;
+        this.top = top;
+        this.topType = BlockTypes.of(top);
+        this.run = run;
+        this.height = base.height + run;
+        this.runs = base.runs + 1;
+        // Skew binary jumps, as in Myers' random access lists: the jumps
+        // from any column reach any lower run in O(log runs) steps.
+        Column up = base.jump;
+        this.jump = base.runs - up.runs == up.runs - up.jump.runs
+            ? up.jump : base;
+        int type = this.topType.getId();
+        this.counts = Arrays.copyOf(base.counts,
+            Math.max(base.counts.length, type + 1));
+        this.counts[type] += run;
+        this.groundCount = base.groundCount
+            + (this.topType.isGround() ? run : 0);
+    }
+
+    /**
+     * Gets the column holding the given blocks.
+     *
+     * @param blocks blocks, bottom-most first.
+     * @return the shared column for those blocks.
+     */
+    static Column of(List<Block> blocks) {
+        Column column = EMPTY;
+        for (int i = 0; i < blocks.size(); i++) {
+            column = column.push(blocks.get(i));
+        }
+        return column;
+    }
+
+    /**
+     * Number of blocks in this column.
+     *
+     * @return height.
+     */
+    int height() {
+        return this.height;
+    }
+
+    /**
+     * Gets the block at a layer.
+     *
+     * @param layer layer index, 0 is the bottom.
+     * @return the block.
+     * @throws IndexOutOfBoundsException if layer is not below height().
+     */
+    Block get(int layer) {
+        return this.runAt(layer).top;
+    }
+
+    /**
+     * Gets the type of the block at a layer, without looking it up again.
+     *
+     * @param layer layer index, 0 is the bottom.
+     * @return the block's type.
+     * @throws IndexOutOfBoundsException if layer is not below height().
+     */
+    BlockType type(int layer) {
+        return this.runAt(layer).topType;
+    }
+
+    /**
+     * Finds the column whose top run holds a layer.
+     */
+    private Column runAt(int layer) {
+        if (layer < 0 || layer >= this.height) {
+            throw new IndexOutOfBoundsException("Layer: " + layer);
+        }
+        Column column = this;
+        while (column.base.height > layer) {
+            // The jump is still above the layer, or it is in a run between.
+            column = column.jump.height > layer ? column.jump : column.base;
+        }
+        return column;
+    }
+
+    /**
+     * Gets the top block.
+     *
+     * @return the top block, or null if the column is empty.
+     */
+    Block top() {
+        return this.top;
+    }
+
+    /**
+     * Gets the type of the top block, worked out once when the column was
+     * first made.
+     *
+     * @return the top block's type, or null if the column is empty.
+     */
+    BlockType topType() {
+        return this.topType;
+    }
+
+    /**
+     * Number of blocks of a type in this column.
+     *
+     * @param type the block type.
+     * @return the count, 0 if there are none.
+     */
+    int count(BlockType type) {
+        int id = type.getId();
+        return id < this.counts.length ? this.counts[id] : 0;
+    }
+
+    /**
+     * Number of ground blocks in this column.
+     *
+     * @return the count.
+     */
+    int groundCount() {
+        return this.groundCount;
+    }
+
+    /**
+     * Gets a read-only list view of the blocks.
+     *
+     * @return the blocks, bottom-most first.
+     */
+    List<Block> asList() {
+        return new BlockList(this);
+    }
+
+    /**
+     * Gets the column with the top block removed.
+     *
+     * @return the column below the top block.
+     * @throws IllegalStateException if this column is empty.
+     */
+    Column pop() {
+        if (this.base == null) {
+            throw new IllegalStateException("Empty column");
+        }
+        return this.run == 1
+            ? this.base : this.base.child(this.top, this.run - 1);
+    }
+
+    /**
+     * Gets the column with a block added on top.
+     *
+     * @param block the block to add, cannot be null.
+     * @return the shared column with block on top of this one.
+     */
+    Column push(Block block) {
+        if (block == null) {
+            throw new NullPointerException();
+        }
+        // Runs are kept as long as they go, so the same block extends the
+        // top run rather than starting a new one.
+        return block == this.top
+            ? this.base.child(block, this.run + 1) : this.child(block, 1);
+    }
+
+    /**
+     * Gets the shared column with a run of a block on top of this one.
+     */
+    private Column child(Block block, int run) {
+        Column child = this.findChild(block, run);
+        if (child != null) {
+            return child;
+        }
+        synchronized (this) {
+            child = this.findChild(block, run);
+            if (child == null) { // Another thread may have added it first.
+                child = new Column(this, block, run);
+                this.runsOf(block).set(run, new Child(this, block, run,
+                    child));
+            }
+        }
+        removeCollected();
+        return child;
+    }
+
+    /**
+     * Finds the live child with a run of the given block, or null.
+     */
+    private Column findChild(Block block, int run) {
+        Runs runs = this.findRuns(block);
+        if (runs == null) {
+            return null;
+        }
+        Child[] children = runs.children;
+        Child reference = run <= children.length ? children[run - 1] : null;
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Finds the children with runs of a block, or null.
+     */
+    private Runs findRuns(Block block) {
+        for (Runs runs : this.smallChildren) {
+            if (runs.block == block) {
+                return runs;
+            }
+        }
+        ConcurrentHashMap<Block, Runs> large = this.largeChildren;
+        return large == null ? null : large.get(block);
+    }
+
+    /**
+     * Gets the children with runs of a block, adding them if needed. Must
+     * hold this column's lock.
+     */
+    private Runs runsOf(Block block) {
+        Runs runs = this.findRuns(block);
+        if (runs != null) {
+            return runs;
+        }
+        runs = new Runs(block);
+        Runs[] small = this.smallChildren;
+        int live = 0;
+        for (Runs existing : small) {
+            if (!existing.isEmpty()) {
+                live++;
+            }
+        }
+        if (live < SMALL_CHILDREN) {
+            Runs[] next = new Runs[live + 1];
+            int i = 0;
+            for (Runs existing : small) {
+                if (!existing.isEmpty()) {
+                    next[i++] = existing;
+                }
+            }
+            next[i] = runs;
+            this.smallChildren = next;
+            return runs;
+        }
+        if (this.largeChildren == null) {
+            this.largeChildren = new ConcurrentHashMap<Block, Runs>();
+        }
+        this.largeChildren.put(block, runs);
+        return runs;
+    }
+
+    /**
+     * Forgets children which have been garbage collected, so their top
+     * blocks can be collected too.
+     */
+    private static void removeCollected() {
+        Reference<? extends Column> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            Child child = (Child) collected;
+            Column parent = child.parent;
+            synchronized (parent) {
+                Runs runs = parent.findRuns(child.block);
+                if (runs != null && runs.remove(child) && runs.isEmpty()
+                        && parent.largeChildren != null) {
+                    parent.largeChildren.remove(child.block, runs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Children of a column with runs of one block on top, indexed by the
+     * run length less one. Only changed under the parent's lock; a racy
+     * read may miss a new child, which the lock is then taken to find.
+     */
+    private static final class Runs {
+
+        /** Block on top of the children. */
+        private final Block block;
+        /** Child of each run length, or null if missing. */
+        private volatile Child[] children = new Child[1];
+
+        Runs(Block block) {
+            this.block = block;
+        }
+
+        /**
+         * Records the child with a run length, growing if needed.
+         */
+        void set(int run, Child child) {
+            Child[] children = this.children;
+            if (run > children.length) {
+                children = Arrays.copyOf(children,
+                    Math.max(run, children.length * 2));
+            }
+            children[run - 1] = child;
+            this.children = children; // Publishes the store above.
+        }
+
+        /**
+         * Forgets a collected child unless it has been replaced.
+         *
+         * @return true if it was forgotten.
+         */
+        boolean remove(Child child) {
+            Child[] children = this.children;
+            if (children[child.run - 1] != child) {
+                return false;
+            }
+            children[child.run - 1] = null;
+            this.children = children;
+            return true;
+        }
+
+        /**
+         * Whether no child is live.
+         */
+        boolean isEmpty() {
+            for (Child child : this.children) {
+                if (child != null && child.get() != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Weak reference from a column to one of its children. */
+    private static final class Child extends WeakReference<Column> {
+
+        /** Column the child's top run is on. */
+        private final Column parent;
+        /** Block of the child's top run. */
+        private final Block block;
+        /** Length of the child's top run. */
+        private final int run;
+
+        Child(Column parent, Block block, int run, Column child) {
+            super(child, COLLECTED);
+            this.parent = parent;
+            this.block = block;
+            this.run = run;
+        }
+    }
+
+    /** Read-only list view of a column's blocks. */
+    private static final class BlockList extends AbstractList<Block>
+            implements RandomAccess {
+
+        /** The column viewed. */
+        private final Column column;
+
+        BlockList(Column column) {
+            this.column = column;
+        }
+
+        @Override
+        public Block get(int index) {
+            return this.column.get(index);
+        }
+
+        @Override
+        public int size() {
+            return this.column.height;
+        }
+    }
+}
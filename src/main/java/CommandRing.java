@@ -0,0 +1,298 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of builder commands from many producer threads to one
+ * consumer thread, in a ring of slots allocated up front.
+ *
+ * <p> A command is a builder, an {@link Action} code and its argument: a
+ * tile id for MOVE_TO, an inventory index for DROP, an exit name for
+ * MOVE_BLOCK. Producers claim a sequence number by compare-and-set, fill
+ * in the slot it maps to and publish it by storing the sequence number in
+ * the slot's marker, so nothing is allocated or locked per command. The
+ * consumer takes published commands in sequence order, a batch at a time,
+ * and frees their slots for reuse once the batch is done.
+ *
+ * <p> When the ring is full, {@link #offer} refuses the command, leaving
+ * the caller to shed or slow down, while {@link #put} waits for room.
+ * How threads wait, for room or for commands, is set by a {@link Wait}.
+ */
+public class CommandRing {
+
+    /** Marker of a slot never published. */
+    private static final long UNPUBLISHED = -1;
+    /** Longest a parked thread sleeps between checks, in nanoseconds. */
+    private static final long MAX_PARK = 1000000;
+
+    /** How threads wait for room or for commands. */
+    public enum Wait {
+        /** Check again at once: least latency, burns a core. */
+        SPIN,
+        /** Give up the processor between checks. */
+        YIELD,
+        /** Sleep between checks, longer each time, up to a millisecond. */
+        PARK;
+
+        /**
+         * Waits once before checking again.
+         *
+         * @param round checks made so far.
+         */
+        void idle(int round) {
+            switch (this) {
+                case SPIN:
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                default:
+                    LockSupport.parkNanos(Math.min(MAX_PARK,
+                        1000L << Math.min(round, 10)));
+                    break;
+            }
+        }
+    }
+
+    /** Receives commands taken from the ring. */
+    public interface Handler {
+
+        /**
+         * Handles one command.
+         *
+         * @param builder    the builder.
+         * @param code       action code.
+         * @param argument   tile id or inventory index, or 0 if unused.
+         * @param name       exit name, or null if unused.
+         * @param endOfBatch true if no more commands are ready right now,
+         *                   a good time to flush anything batched up.
+         */
+        void handle(Builder builder, int code, int argument, String name,
+            boolean endOfBatch);
+    }
+
+    /** Slot index of a sequence number is its low bits. */
+    private final int mask;
+    /** How producers and the consumer wait. */
+    private final Wait wait;
+
+    /** Builder of each slot. */
+    private final Builder[] builders;
+    /** Action code of each slot. */
+    private final int[] codes;
+    /** Numeric argument of each slot. */
+    private final int[] arguments;
+    /** Exit name of each slot. */
+    private final String[] names;
+    /** Sequence number last published in each slot. */
+    private final AtomicLongArray published;
+
+    /** Next sequence number to claim. */
+    private final AtomicLong claimed = new AtomicLong();
+    /** Sequence numbers below this have been taken, their slots free. */
+    private final AtomicLong consumed = new AtomicLong();
+    /** Next sequence number to take. Only used by the consumer. */
+    private long next;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity most commands held at once, a power of two.
+     * @param wait     how to wait for room or for commands.
+     */
+    public CommandRing(int capacity, Wait wait) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1
+                || wait == null) {
+            throw new IllegalArgumentException();
+        }
+        this.mask = capacity - 1;
+        this.wait = wait;
+        this.builders = new Builder[capacity];
+        this.codes = new int[capacity];
+        this.arguments = new int[capacity];
+        this.names = new String[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.published.set(i, UNPUBLISHED);
+        }
+    }
+
+    /**
+     * Most commands held at once.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Number of commands claimed but not yet taken. Only a snapshot while
+     * other threads are running.
+     *
+     * @return queued command count.
+     */
+    public int size() {
+        return (int) (this.claimed.get() - this.consumed.get());
+    }
+
+    /**
+     * Adds a command unless the ring is full. Safe from any thread.
+     *
+     * @param builder  the builder, must not be null.
+     * @param code     action code.
+     * @param argument tile id or inventory index, or 0 if unused.
+     * @param name     exit name, or null if unused.
+     * @return true if added, false if the ring was full.
+     */
+    public boolean offer(Builder builder, int code, int argument,
+            String name) {
+        if (builder == null) {
+            throw new NullPointerException(); // Before claiming a slot.
+        }
+        long sequence;
+        do {
+            sequence = this.claimed.get();
+            if (sequence - this.consumed.get() > this.mask) {
+                return false;
+            }
+        } while (!this.claimed.compareAndSet(sequence, sequence + 1));
+        this.publish(sequence, builder, code, argument, name);
+        return true;
+    }
+
+    /**
+     * Adds a command, waiting while the ring is full. Safe from any thread.
+     *
+     * @param builder  the builder, must not be null.
+     * @param code     action code.
+     * @param argument tile id or inventory index, or 0 if unused.
+     * @param name     exit name, or null if unused.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(Builder builder, int code, int argument, String name)
+            throws InterruptedException {
+        for (int round = 0; !this.offer(builder, code, argument, name);
+                round++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            this.wait.idle(round);
+        }
+    }
+
+    /**
+     * Helper method to fill in a claimed slot and make it visible to the
+     * consumer.
+     */
+    private void publish(long sequence, Builder builder, int code,
+            int argument, String name) {
+        int slot = (int) sequence & this.mask;
+        this.builders[slot] = builder;
+        this.codes[slot] = code;
+        this.arguments[slot] = argument;
+        this.names[slot] = name;
+        // An ordered store: the fields above are seen first.
+        this.published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Hands every ready command to a handler, in order, without waiting.
+     * Only call from the consumer thread.
+     *
+     * @param handler receives the commands.
+     * @param max     most commands to take, must be positive.
+     * @return the number of commands taken.
+     */
+    public int drain(Handler handler, int max) {
+        int taken = 0;
+        try {
+            // A slot is ready once it is marked with the sequence number we
+            // want; earlier marks are from the last time round.
+            boolean ready = this.isReady(this.next);
+            while (ready && taken < max) {
+                int slot = (int) this.next & this.mask;
+                Builder builder = this.builders[slot];
+                String name = this.names[slot];
+                this.builders[slot] = null; // Not kept alive by the ring.
+                this.names[slot] = null;
+                this.next++;
+                taken++;
+                ready = this.isReady(this.next);
+                handler.handle(builder, this.codes[slot],
+                    this.arguments[slot], name, !ready || taken == max);
+            }
+        } finally {
+            if (taken > 0) {
+                // The slots read are free once the batch is done.
+                this.consumed.lazySet(this.next);
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Helper method to check whether a sequence number has been published.
+     */
+    private boolean isReady(long sequence) {
+        return this.published.get((int) sequence & this.mask) == sequence;
+    }
+
+    /**
+     * Hands ready commands to a handler, waiting until there is at least
+     * one. Only call from the consumer thread.
+     *
+     * @param handler receives the commands.
+     * @param max     most commands to take, must be positive.
+     * @return the number of commands taken, at least one.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public int take(Handler handler, int max) throws InterruptedException {
+        for (int round = 0; true; round++) {
+            int taken = this.drain(handler, max);
+            if (taken > 0) {
+                return taken;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            this.wait.idle(round);
+        }
+    }
+
+    /**
+     * Does a command on the world, as a handler typically would.
+     *
+     * @param world    world tile ids are looked up in.
+     * @param builder  the builder.
+     * @param code     MOVE_TO, DIG, DROP or MOVE_BLOCK.
+     * @param argument tile id for MOVE_TO or inventory index for DROP.
+     * @param name     exit name for MOVE_BLOCK.
+     * @return the {@link Action} outcome.
+     * @throws IllegalArgumentException if the code is not a command.
+     */
+    public static int execute(World world, Builder builder, int code,
+            int argument, String name) {
+        try {
+            switch (code) {
+                case Action.MOVE_TO:
+                    builder.moveTo(world.getTile(argument));
+                    break;
+                case Action.DIG:
+                    builder.digOnCurrentTile();
+                    break;
+                case Action.DROP:
+                    builder.dropFromInventory(argument);
+                    break;
+                case Action.MOVE_BLOCK:
+                    builder.getCurrentTile().moveBlock(name);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Code: " + code);
+            }
+            return Action.OK;
+        } catch (BlockWorldException e) {
+            return Action.outcomeOf(e);
+        }
+    }
+}
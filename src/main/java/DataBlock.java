@@ -0,0 +1,72 @@
+/**
+ * A block whose behaviour comes entirely from a {@link BlockType}, used for
+ * types defined in configuration rather than code.
+ */
+public class DataBlock implements Block {
+
+    /** This block's type. */
+    private final BlockType type;
+
+    /**
+     * Creates a block of the given type.
+     *
+     * @param type the block's type, cannot be null.
+     */
+    public DataBlock(BlockType type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets this block's type.
+     *
+     * @return the type.
+     */
+    public BlockType getType() {
+        return this.type;
+    }
+
+    /**
+     * Get the colour of this block's type.
+     *
+     * @return colour
+     */
+    public String getColour() {
+        return this.type.getColour();
+    }
+
+    /**
+     * Get the name of this block's type.
+     *
+     * @return type name
+     */
+    public String getBlockType() {
+        return this.type.getName();
+    }
+
+    /**
+     * Whether this block's type is diggable.
+     *
+     * @return true if diggable
+     */
+    public boolean isDiggable() {
+        return this.type.is(BlockType.DIGGABLE);
+    }
+
+    /**
+     * Whether this block's type is moveable.
+     *
+     * @return true if moveable
+     */
+    public boolean isMoveable() {
+        return this.type.is(BlockType.MOVEABLE);
+    }
+
+    /**
+     * Whether this block's type is carryable.
+     *
+     * @return true if carryable
+     */
+    public boolean isCarryable() {
+        return this.type.is(BlockType.CARRYABLE);
+    }
+}
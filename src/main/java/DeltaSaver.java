@@ -0,0 +1,330 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves a world to a directory incrementally, writing only the tiles
+ * changed since the last save.
+ *
+ * <p> The saver listens to the world and keeps the ids of tiles whose
+ * blocks or exits changed. Each {@link #checkpoint()} writes those tiles
+ * to a new delta file, gzipped lines in the map format of
+ * {@link MapWriter}, which replace the tiles' contents when loaded. Once
+ * enough deltas have piled up, or most of the world has changed, the
+ * next checkpoint writes a full {@link WorldArchive} base instead and
+ * deletes the deltas.
+ *
+ * <p> Every full save starts a new generation, numbered in the names of
+ * the base and of the deltas written on top of it. Loading takes the
+ * newest base and only the deltas of its generation, so deltas left over
+ * from an older one are ignored. Files are written under a temporary name
+ * and renamed into place, and older files are deleted only after that,
+ * so a save interrupted at any point leaves the previous checkpoint
+ * loadable. Not thread safe: checkpoints must not overlap changes to the
+ * world.
+ */
+public class DeltaSaver implements TileListener {
+
+    /** Prefix of full snapshot names, followed by the generation. */
+    static final String BASE_PREFIX = "base-";
+    /** Suffix of full snapshot names. */
+    static final String BASE_SUFFIX = ".zip";
+    /**
+     * Prefix of delta file names, followed by the generation and a
+     * sequence number.
+     */
+    static final String DELTA_PREFIX = "delta-";
+    /** Suffix of delta file names. */
+    static final String DELTA_SUFFIX = ".map.gz";
+
+    /** Flush a delta's buffer once it holds this many bytes. */
+    private static final int FLUSH_BYTES = 1 << 16;
+
+    /** The saved world. */
+    private final World world;
+    /** Directory files are written to. */
+    private final Path directory;
+    /** Deltas written before the next checkpoint is a full save. */
+    private final int maxDeltas;
+    /** Threads used to compress full saves. */
+    private final int threads;
+    /** Ids of tiles changed since the last checkpoint. */
+    private final BitSet dirty = new BitSet();
+    /** Whether the next checkpoint must be a full save. */
+    private boolean full = true;
+    /** Number of deltas written since the last full save. */
+    private int deltas;
+    /** Generation of the last full save, or 0 before the first. */
+    private int generation;
+
+    /**
+     * Starts following changes to a world. The first checkpoint is always
+     * a full save, replacing anything already in the directory.
+     *
+     * @param world     the world to save.
+     * @param directory existing directory to save into.
+     * @param maxDeltas deltas to write between full saves, must not be
+     *                  negative.
+     * @param threads   threads used to compress full saves, must be
+     *                  positive.
+     */
+    public DeltaSaver(World world, Path directory, int maxDeltas,
+            int threads) {
+        if (maxDeltas < 0 || threads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.world = world;
+        this.directory = directory;
+        this.maxDeltas = maxDeltas;
+        this.threads = threads;
+        world.addListener(this);
+    }
+
+    /**
+     * Stops following changes to the world.
+     */
+    public void close() {
+        this.world.removeListener(this);
+    }
+
+    /**
+     * Number of tiles changed since the last checkpoint.
+     *
+     * @return dirty tile count.
+     */
+    public int getDirtyCount() {
+        return this.dirty.cardinality();
+    }
+
+    /**
+     * Saves every change since the last checkpoint.
+     *
+     * @return true if this was a full save, false if it was a delta.
+     * @throws IOException          if the files cannot be written. The
+     *                              changes are kept for the next try.
+     * @throws InterruptedException if interrupted during a full save.
+     */
+    public boolean checkpoint() throws IOException, InterruptedException {
+        // A delta covering most of the world is no smaller than a base.
+        if (this.full || this.deltas >= this.maxDeltas
+                || this.dirty.cardinality() > this.world.size() / 2) {
+            // Newer than anything already there, from any saver.
+            int generation = Math.max(this.generation,
+                latestGeneration(this.directory)) + 1;
+            Path base = basePath(this.directory, generation);
+            Path temporary = this.directory.resolve(
+                base.getFileName() + ".tmp");
+            WorldArchive.save(this.world, temporary, this.threads);
+            Files.move(temporary, base, StandardCopyOption.REPLACE_EXISTING);
+            this.generation = generation;
+            this.full = false;
+            this.deltas = 0;
+            // Only now the new base is in place are the old files unused.
+            for (Path file : files(this.directory, BASE_PREFIX + "*"
+                    + BASE_SUFFIX)) {
+                if (number(file, BASE_PREFIX) < generation) {
+                    Files.delete(file);
+                }
+            }
+            for (Path delta : files(this.directory, DELTA_PREFIX + "*"
+                    + DELTA_SUFFIX)) {
+                if (number(delta, DELTA_PREFIX) < generation) {
+                    Files.delete(delta);
+                }
+            }
+        } else {
+            Path delta = deltaPath(this.directory, this.generation,
+                this.deltas + 1);
+            Path temporary = this.directory.resolve(
+                delta.getFileName() + ".tmp");
+            this.writeDelta(temporary);
+            Files.move(temporary, delta,
+                StandardCopyOption.REPLACE_EXISTING);
+            this.deltas++;
+        }
+        this.dirty.clear();
+        return this.deltas == 0;
+    }
+
+    /**
+     * Writes the dirty tiles to a file.
+     */
+    private void writeDelta(Path path) throws IOException {
+        try (OutputStream file = Files.newOutputStream(path);
+                OutputStream out = new GZIPOutputStream(file, FLUSH_BYTES)) {
+            WritableByteChannel channel = Channels.newChannel(out);
+            MapWriter writer = new MapWriter(FLUSH_BYTES);
+            for (int id = this.dirty.nextSetBit(0); id >= 0;
+                    id = this.dirty.nextSetBit(id + 1)) {
+                Tile tile = this.world.getTile(id);
+                if (tile != null) {
+                    writer.tile(tile, this.world);
+                }
+                if (writer.length() >= FLUSH_BYTES) {
+                    writer.writeTo(channel);
+                }
+            }
+            writer.writeTo(channel);
+        }
+    }
+
+    /**
+     * Loads the world saved in a directory, applying the deltas of the
+     * newest base in order on top of it.
+     *
+     * @param directory directory a saver wrote to.
+     * @return the loaded world.
+     * @throws IOException if the files cannot be read or are malformed,
+     *                     or there is no base.
+     */
+    public static World load(Path directory) throws IOException {
+        int generation = latestGeneration(directory);
+        if (generation == 0) {
+            throw new FileNotFoundException("No base in " + directory);
+        }
+        try (WorldArchive archive =
+                new WorldArchive(basePath(directory, generation))) {
+            archive.loadAll();
+            World world = archive.getWorld();
+            MapLoader loader = new MapLoader(world);
+            for (Path delta : deltaFiles(directory, generation)) {
+                try (InputStream file = Files.newInputStream(delta);
+                        InputStream in = new GZIPInputStream(file,
+                            FLUSH_BYTES)) {
+                    loader.read(Channels.newChannel(in));
+                }
+            }
+            return world;
+        }
+    }
+
+    /**
+     * Gets the name of the base of a generation.
+     *
+     * @param directory directory saved to.
+     * @param generation the generation, from 1.
+     * @return the base's path.
+     */
+    static Path basePath(Path directory, int generation) {
+        return directory.resolve(String.format("%s%06d%s", BASE_PREFIX,
+            generation, BASE_SUFFIX));
+    }
+
+    /**
+     * Gets the name of a delta.
+     *
+     * @param directory  directory saved to.
+     * @param generation generation of the base the delta applies to.
+     * @param sequence   position among the generation's deltas, from 1.
+     * @return the delta's path.
+     */
+    static Path deltaPath(Path directory, int generation, int sequence) {
+        return directory.resolve(String.format("%s%06d-%06d%s",
+            DELTA_PREFIX, generation, sequence, DELTA_SUFFIX));
+    }
+
+    /**
+     * Finds the generation of the newest base in a directory, or 0.
+     */
+    private static int latestGeneration(Path directory) throws IOException {
+        int latest = 0;
+        for (Path base : files(directory, BASE_PREFIX + "*" + BASE_SUFFIX)) {
+            latest = Math.max(latest, number(base, BASE_PREFIX));
+        }
+        return latest;
+    }
+
+    /**
+     * Lists the deltas of a generation in the order they were written.
+     */
+    private static List<Path> deltaFiles(Path directory, int generation)
+            throws IOException {
+        final List<Path> deltas = new ArrayList<Path>();
+        for (Path delta : files(directory, DELTA_PREFIX + "*"
+                + DELTA_SUFFIX)) {
+            if (number(delta, DELTA_PREFIX) == generation) {
+                deltas.add(delta);
+            }
+        }
+        Collections.sort(deltas, new Comparator<Path>() {
+            public int compare(Path first, Path second) {
+                return Integer.compare(sequence(first), sequence(second));
+            }
+        });
+        return deltas;
+    }
+
+    /**
+     * Lists the files in a directory matching a glob.
+     */
+    private static List<Path> files(Path directory, String glob)
+            throws IOException {
+        List<Path> matched = new ArrayList<Path>();
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                matched.add(file);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reads the number after a prefix in a file name: a base's or a
+     * delta's generation. Names not written by a saver read as 0.
+     */
+    private static int number(Path file, String prefix) {
+        return digits(file.getFileName().toString(), prefix.length());
+    }
+
+    /**
+     * Reads a delta's sequence number, after its generation.
+     */
+    private static int sequence(Path delta) {
+        String name = delta.getFileName().toString();
+        int dash = name.indexOf('-', DELTA_PREFIX.length());
+        return dash < 0 ? 0 : digits(name, dash + 1);
+    }
+
+    /**
+     * Parses the decimal digits starting at an index, or 0 if none.
+     */
+    private static int digits(String name, int from) {
+        int value = 0;
+        int i = from;
+        while (i < name.length() && name.charAt(i) >= '0'
+                && name.charAt(i) <= '9' && value < Integer.MAX_VALUE / 10) {
+            value = value * 10 + name.charAt(i++) - '0';
+        }
+        return value;
+    }
+
+    @Override
+    public void blocksChanged(Tile tile) {
+        this.dirty.set(tile.id);
+    }
+
+    @Override
+    public void exitChanged(Tile tile, String name, Tile old) {
+        this.dirty.set(tile.id);
+    }
+
+    @Override
+    public void tileChanged(int id, Tile old) {
+        this.dirty.set(id);
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A frozen snapshot of the exits between the tiles of a {@link World}, in
+ * compressed sparse row form, for fast traversals.
+ *
+ * <p> The exits of tile id are entries {@link #getExitStart(int)} up to
+ * {@link #getExitEnd(int)} of two flat arrays: the target tile id, and the
+ * exit name as an index into a table of distinct names. Tile heights are
+ * kept in a parallel array, so walks need never touch a tile, a map or a
+ * string. Exits to tiles outside the world are left out.
+ *
+ * <p> Building takes two passes over the tiles, one counting exits and one
+ * filling them in, each split into chunks of ids on separate threads,
+ * with a prefix sum between them. The snapshot does not follow later
+ * changes to the world; take a new one when needed.
+ */
+public final class ExitGraph {
+
+    /** Height recorded for ids with no tile. */
+    static final int MISSING = -1;
+
+    /** Number of tile ids, one more than the highest id. */
+    private final int size;
+    /** Index of each tile's first exit; offsets[size] is the exit count. */
+    final int[] offsets;
+    /** Target id of each exit. */
+    int[] targets;
+    /** Name id of each exit. */
+    int[] names;
+    /** Height of each tile, or MISSING. */
+    final short[] heights;
+    /** Distinct exit names, by name id. */
+    private String[] nameTable;
+    /** Name id of each distinct name. */
+    private final Map<String, Integer> nameIds =
+        new HashMap<String, Integer>();
+
+    private ExitGraph(int size) {
+        this.size = size;
+        this.offsets = new int[size + 1];
+        this.heights = new short[size];
+    }
+
+    /**
+     * Takes a snapshot of every exit in a world.
+     *
+     * @param world   the world to read, which must not change meanwhile.
+     * @param threads number of threads to build with, must be positive.
+     * @return the snapshot.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    public static ExitGraph of(final World world, int threads)
+            throws InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        final ExitGraph graph = new ExitGraph(world.size());
+
+        // Count each tile's exits into the slot after it, and collect the
+        // names in the order each chunk meets them.
+        List<Set<String>> seen = Tasks.runChunks(graph.size, threads,
+                new Tasks.Chunk<Set<String>>() {
+            Set<String> run(int from, int to) {
+                return graph.count(world, from, to);
+            }
+        });
+        List<String> table = new ArrayList<String>();
+        for (Set<String> names : seen) {
+            for (String name : names) {
+                if (!graph.nameIds.containsKey(name)) {
+                    graph.nameIds.put(name, table.size());
+                    table.add(name);
+                }
+            }
+        }
+        graph.nameTable = table.toArray(new String[table.size()]);
+
+        for (int id = 0; id < graph.size; id++) {
+            graph.offsets[id + 1] += graph.offsets[id];
+        }
+        graph.targets = new int[graph.offsets[graph.size]];
+        graph.names = new int[graph.offsets[graph.size]];
+
+        Tasks.runChunks(graph.size, threads, new Tasks.Chunk<Void>() {
+            Void run(int from, int to) {
+                graph.fill(world, from, to);
+                return null;
+            }
+        });
+        return graph;
+    }
+
+    /**
+     * Records heights and exit counts for one chunk of ids.
+     *
+     * @return the exit names seen, in the order first seen.
+     */
+    private Set<String> count(World world, int from, int to) {
+        Set<String> seen = new LinkedHashSet<String>();
+        for (int id = from; id < to; id++) {
+            Tile tile = world.getTile(id);
+            if (tile == null) {
+                this.heights[id] = MISSING;
+                continue;
+            }
+            this.heights[id] = (short) tile.height();
+            int count = 0;
+            for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+                if (world.getId(exit.getValue()) >= 0) {
+                    seen.add(exit.getKey());
+                    count++;
+                }
+            }
+            this.offsets[id + 1] = count;
+        }
+        return seen;
+    }
+
+    /**
+     * Fills in the exits of one chunk of ids.
+     */
+    private void fill(World world, int from, int to) {
+        for (int id = from; id < to; id++) {
+            Tile tile = world.getTile(id);
+            if (tile == null) {
+                continue;
+            }
+            int index = this.offsets[id];
+            for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+                int target = world.getId(exit.getValue());
+                if (target >= 0) {
+                    this.targets[index] = target;
+                    this.names[index] = this.nameIds.get(exit.getKey());
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of tile ids covered, including ids with no tile.
+     *
+     * @return one more than the highest id.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Total number of exits.
+     *
+     * @return exit count.
+     */
+    public int getExitCount() {
+        return this.offsets[this.size];
+    }
+
+    /**
+     * Index of a tile's first exit.
+     *
+     * @param id tile id.
+     * @return the index into the exit arrays.
+     */
+    public int getExitStart(int id) {
+        return this.offsets[id];
+    }
+
+    /**
+     * One past the index of a tile's last exit.
+     *
+     * @param id tile id.
+     * @return the exclusive end index into the exit arrays.
+     */
+    public int getExitEnd(int id) {
+        return this.offsets[id + 1];
+    }
+
+    /**
+     * Gets where an exit goes.
+     *
+     * @param index exit index.
+     * @return the target tile id.
+     */
+    public int getTarget(int index) {
+        return this.targets[index];
+    }
+
+    /**
+     * Gets the name of an exit.
+     *
+     * @param index exit index.
+     * @return the name id, see {@link #getName(int)}.
+     */
+    public int getNameIdAt(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * Gets the height of a tile.
+     *
+     * @param id tile id.
+     * @return the height, or {@link #MISSING} if there is no tile.
+     */
+    public int getHeight(int id) {
+        return this.heights[id];
+    }
+
+    /**
+     * Number of distinct exit names.
+     *
+     * @return name count.
+     */
+    public int getNameCount() {
+        return this.nameTable.length;
+    }
+
+    /**
+     * Gets an exit name.
+     *
+     * @param nameId name id.
+     * @return the name.
+     */
+    public String getName(int nameId) {
+        return this.nameTable[nameId];
+    }
+
+    /**
+     * Gets the id of an exit name.
+     *
+     * @param name exit name.
+     * @return the name id, or -1 if no exit has the name.
+     */
+    public int getNameId(String name) {
+        Integer id = this.nameIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Follows a named exit.
+     *
+     * @param id     tile id.
+     * @param nameId name id.
+     * @return the target tile id, or -1 if the tile has no such exit.
+     */
+    public int follow(int id, int nameId) {
+        for (int i = this.offsets[id]; i < this.offsets[id + 1]; i++) {
+            if (this.names[i] == nameId) {
+                return this.targets[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the fewest moves a builder needs to reach every tile from a
+     * start, moving as {@link Builder#moveTo(Tile)} allows.
+     *
+     * @param from starting tile id.
+     * @return moves needed for each id, or -1 where unreachable.
+     */
+    public int[] distances(int from) {
+        int[] distances = new int[this.size];
+        Arrays.fill(distances, -1);
+        if (this.heights[from] == MISSING) {
+            return distances;
+        }
+        int[] queue = new int[this.size];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = from;
+        distances[from] = 0;
+        while (head < tail) {
+            int id = queue[head++];
+            int height = this.heights[id];
+            for (int i = this.offsets[id]; i < this.offsets[id + 1]; i++) {
+                int target = this.targets[i];
+                if (distances[target] < 0
+                        && Math.abs(this.heights[target] - height) <= 1) {
+                    distances[target] = distances[id] + 1;
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports tiles as JSON Lines, one object per tile:
+ * <pre>
+ * {"id":0,"blocks":["soil","soil","grass"],"exits":{"east":1}}
+ * </pre>
+ * Blocks are listed bottom-most first. An exit to a tile outside the world
+ * has a null target.
+ *
+ * <p> Tiles are encoded byte by byte into one reusable buffer which is
+ * written to the channel whenever it fills up. No strings are built and
+ * tiles are visited in id order, so exporting never holds more than one
+ * buffer of output regardless of the world's size.
+ */
+public class JsonLinesExporter {
+
+    /** Encoded name of each block type seen, indexed by type id. */
+    private byte[][] typeNames = new byte[BlockTypes.count()][];
+    /** Destination of the output. */
+    private final WritableByteChannel out;
+    /** Output buffer, drained into out when full. */
+    private final ByteBuffer buffer;
+    /** Scratch space for formatting numbers. */
+    private final byte[] digits = new byte[11];
+
+    /**
+     * Creates an exporter writing to the given channel.
+     *
+     * @param out channel to write to.
+     */
+    public JsonLinesExporter(WritableByteChannel out) {
+        this(out, 1 << 16);
+    }
+
+    /**
+     * Creates an exporter with a given buffer size.
+     *
+     * @param out        channel to write to.
+     * @param bufferSize output buffer size in bytes.
+     */
+    JsonLinesExporter(WritableByteChannel out, int bufferSize) {
+        this.out = out;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 16));
+    }
+
+    /**
+     * Writes every tile in a world, in id order, and flushes.
+     *
+     * @param world the world to export.
+     * @throws IOException if the channel cannot be written.
+     */
+    public void write(World world) throws IOException {
+        for (int id = 0; id < world.size(); id++) {
+            Tile tile = world.getTile(id);
+            if (tile != null) {
+                this.write(tile, world);
+            }
+        }
+        this.flush();
+    }
+
+    /**
+     * Writes one tile. Output may stay buffered until {@link #flush()}.
+     *
+     * @param tile  the tile to export.
+     * @param world world used to look up tile ids.
+     * @throws IOException              if the channel cannot be written.
+     * @throws IllegalArgumentException if the tile is not in world.
+     */
+    public void write(Tile tile, World world) throws IOException {
+        int id = world.getId(tile);
+        if (id < 0) {
+            throw new IllegalArgumentException("Tile is not in the world");
+        }
+        this.ascii("{\"id\":");
+        this.number(id);
+        this.ascii(",\"blocks\":[");
+        List<Block> blocks = tile.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i > 0) {
+                this.put(',');
+            }
+            this.typeName(BlockTypes.of(blocks.get(i)));
+        }
+        this.ascii("],\"exits\":{");
+        boolean first = true;
+        for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+            if (!first) {
+                this.put(',');
+            }
+            first = false;
+            this.string(exit.getKey());
+            this.put(':');
+            int target = world.getId(exit.getValue());
+            if (target < 0) {
+                this.ascii("null");
+            } else {
+                this.number(target);
+            }
+        }
+        this.ascii("}}\n");
+    }
+
+    /**
+     * Writes any buffered output to the channel.
+     *
+     * @throws IOException if the channel cannot be written.
+     */
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.out.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes a block type's name, encoding each type's name only once.
+     */
+    private void typeName(BlockType type) throws IOException {
+        int id = type.getId();
+        if (id >= this.typeNames.length) {
+            this.typeNames = Arrays.copyOf(this.typeNames,
+                Math.max(id + 1, BlockTypes.count()));
+        }
+        byte[] encoded = this.typeNames[id];
+        if (encoded == null) {
+            // Encode through a throwaway exporter to reuse the escaping.
+            CollectingChannel collector = new CollectingChannel();
+            JsonLinesExporter encoder =
+                new JsonLinesExporter(collector, 16);
+            encoder.string(type.getName());
+            encoder.flush();
+            encoded = collector.bytes();
+            this.typeNames[id] = encoded;
+        }
+        for (byte b : encoded) {
+            this.put(b);
+        }
+    }
+
+    /**
+     * Writes a quoted JSON string as UTF-8, escaping as required.
+     */
+    private void string(String value) throws IOException {
+        this.put('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                this.put('\\');
+                this.put(c);
+            } else if (c < 0x20) {
+                this.escape(c);
+            } else if (c < 0x80) {
+                this.put(c);
+            } else if (c < 0x800) {
+                this.put(0xc0 | (c >> 6));
+                this.put(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int point = Character.toCodePoint(c, value.charAt(++i));
+                this.put(0xf0 | (point >> 18));
+                this.put(0x80 | ((point >> 12) & 0x3f));
+                this.put(0x80 | ((point >> 6) & 0x3f));
+                this.put(0x80 | (point & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate has no UTF-8 form.
+                this.escape(c);
+            } else {
+                this.put(0xe0 | (c >> 12));
+                this.put(0x80 | ((c >> 6) & 0x3f));
+                this.put(0x80 | (c & 0x3f));
+            }
+        }
+        this.put('"');
+    }
+
+    /**
+     * Writes a character as a JSON escape of its four hex digits.
+     */
+    private void escape(char c) throws IOException {
+        this.ascii("\\u");
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            this.put(Character.forDigit((c >> shift) & 0xf, 16));
+        }
+    }
+
+    /**
+     * Writes a non-negative number in decimal.
+     */
+    private void number(int value) throws IOException {
+        int length = 0;
+        do {
+            this.digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (length > 0) {
+            this.put(this.digits[--length]);
+        }
+    }
+
+    /**
+     * Writes a string known to be plain ASCII.
+     */
+    private void ascii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            this.put(text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes one byte, flushing first if the buffer is full.
+     */
+    private void put(int b) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            this.flush();
+        }
+        this.buffer.put((byte) b);
+    }
+
+    /**
+     * Channel which keeps everything written to it, for encoding type names.
+     */
+    private static final class CollectingChannel
+            implements WritableByteChannel {
+
+        /** Bytes written so far. */
+        private byte[] bytes = new byte[0];
+
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            byte[] grown = new byte[this.bytes.length + count];
+            System.arraycopy(this.bytes, 0, grown, 0, this.bytes.length);
+            source.get(grown, this.bytes.length, count);
+            this.bytes = grown;
+            return count;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {}
+
+        byte[] bytes() {
+            return this.bytes;
+        }
+    }
+}
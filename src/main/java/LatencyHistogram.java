@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * Counts of latencies in buckets of bounded relative width, small enough
+ * to keep one per thread and merge at the end.
+ *
+ * <p> Values below {@value #SUB_BUCKETS} nanoseconds get a bucket each.
+ * Above that, each power of two range is split into
+ * {@value #SUB_BUCKETS} equal buckets, so a reported percentile is at
+ * most about 1.6% above the true value, whatever the range. The whole
+ * range of long fits in a few thousand counters, with no allocation per
+ * value recorded.
+ */
+public class LatencyHistogram {
+
+    /** Buckets per power of two, as a power of two. */
+    private static final int SUB_BITS = 6;
+    /** Buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Values counted in each bucket. */
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+    /** Number of values recorded. */
+    private long count;
+    /** Largest value recorded, exactly. */
+    private long max;
+    /** Sum of the values recorded, for the mean. */
+    private long total;
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the latency, taken as 0 if negative.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts[bucketOf(value)]++;
+        this.count++;
+        this.total += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     *
+     * @param other the histogram to add, unchanged.
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.total += other.total;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.total = 0;
+        this.max = 0;
+    }
+
+    /**
+     * Number of values recorded.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Largest value recorded.
+     *
+     * @return the maximum, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Mean of the values recorded.
+     *
+     * @return the mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        return this.count == 0 ? 0 : (double) this.total / this.count;
+    }
+
+    /**
+     * Gets the value at a percentile: at least that percentage of values
+     * recorded are no larger.
+     *
+     * @param percentile from 0 to 100.
+     * @return the top of the bucket holding the value, never above the
+     *         maximum, or 0 if nothing was recorded.
+     */
+    public long getValueAt(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile: " + percentile);
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100
+            * this.count));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(this.max, highestIn(i));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the bucket a value is counted in.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(value);
+        int shift = power - SUB_BITS;
+        // The top SUB_BITS + 1 bits, the highest always set.
+        int top = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    /**
+     * Gets the largest value counted in a bucket.
+     */
+    static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
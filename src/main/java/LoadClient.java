@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Load generating client for {@link BuilderServer}.
+ *
+ * <p> Opens a number of connections from one thread and keeps a fixed
+ * number of random requests in flight on each, sending more as answers
+ * arrive, until every connection has had its share answered. Requests are
+ * a mix of moves to random tiles, digs, drops and block moves through the
+ * grid exits of {@link WorldGenerator}, chosen from a seed.
+ */
+public class LoadClient {
+
+    /** Exit names used for MOVE_BLOCK requests, already encoded. */
+    private static final byte[][] EXITS = {
+        WorldGenerator.NORTH.getBytes(StandardCharsets.UTF_8),
+        WorldGenerator.EAST.getBytes(StandardCharsets.UTF_8),
+        WorldGenerator.SOUTH.getBytes(StandardCharsets.UTF_8),
+        WorldGenerator.WEST.getBytes(StandardCharsets.UTF_8)};
+
+    /** Server address. */
+    private final InetSocketAddress address;
+    /** Number of connections. */
+    private final int connections;
+    /** Requests kept in flight on each connection. */
+    private final int pipeline;
+    /** Number of tiles on the server, for choosing move targets. */
+    private final int tiles;
+    /** Chooses requests. */
+    private final Random random;
+    /** Number of answers with each outcome. */
+    private final long[] outcomes = new long[Action.NO_EXIT + 1];
+
+    /**
+     * Creates a client.
+     *
+     * @param address     server address.
+     * @param connections number of connections to open, must be positive.
+     * @param pipeline    requests in flight per connection, must be
+     *                    positive.
+     * @param tiles       number of tiles in the server's world.
+     * @param seed        seed for choosing requests.
+     */
+    public LoadClient(InetSocketAddress address, int connections,
+            int pipeline, int tiles, long seed) {
+        if (connections <= 0 || pipeline <= 0 || tiles <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.address = address;
+        this.connections = connections;
+        this.pipeline = pipeline;
+        this.tiles = tiles;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sends requests until each connection has had the given number
+     * answered.
+     *
+     * @param requests requests per connection.
+     * @return total number of answers.
+     * @throws IOException if a connection fails or the server closes it.
+     */
+    public long run(long requests) throws IOException {
+        long answered = 0;
+        Selector selector = Selector.open();
+        try {
+            for (int i = 0; i < this.connections; i++) {
+                SocketChannel channel = SocketChannel.open(this.address);
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Stream stream = new Stream(channel, requests);
+                stream.fill();
+                channel.register(selector, stream.interest(), stream);
+            }
+            int open = this.connections;
+            while (open > 0) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Stream stream = (Stream) key.attachment();
+                    answered += stream.ready(key);
+                    if (stream.done()) {
+                        key.channel().close();
+                        open--;
+                    } else {
+                        key.interestOps(stream.interest());
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+        return answered;
+    }
+
+    /**
+     * Gets how many answers had an outcome, over every run so far.
+     *
+     * @param outcome an {@link Action} outcome code.
+     * @return answer count.
+     */
+    public long getOutcomeCount(int outcome) {
+        return this.outcomes[outcome];
+    }
+
+    /**
+     * Writes one random request.
+     */
+    private void request(ByteBuffer out) {
+        int choice = this.random.nextInt(8);
+        if (choice < 3) {
+            out.put((byte) Action.MOVE_TO);
+            ActionRecorder.putVarint(out,
+                this.random.nextInt(this.tiles) + 1);
+        } else if (choice < 5) {
+            out.put((byte) Action.DIG);
+        } else if (choice < 7) {
+            out.put((byte) Action.DROP);
+            ActionRecorder.putVarint(out, this.random.nextInt(2) + 1);
+        } else {
+            byte[] name = EXITS[this.random.nextInt(EXITS.length)];
+            out.put((byte) Action.MOVE_BLOCK);
+            ActionRecorder.putVarint(out, name.length);
+            out.put(name);
+        }
+    }
+
+    /** One connection and its progress. */
+    private final class Stream {
+
+        /** The connection. */
+        private final SocketChannel channel;
+        /** Requests still to send. */
+        private long unsent;
+        /** Requests sent and not yet answered. */
+        private int inFlight;
+        /** Requests not yet written to the channel. */
+        private final ByteBuffer out =
+            ByteBuffer.allocate(BuilderServer.BUFFER_SIZE);
+        /** Answers read. */
+        private final ByteBuffer in =
+            ByteBuffer.allocate(BuilderServer.BUFFER_SIZE);
+
+        Stream(SocketChannel channel, long requests) {
+            this.channel = channel;
+            this.unsent = requests;
+        }
+
+        /**
+         * Queues requests until the pipeline is full, and writes them.
+         */
+        void fill() throws IOException {
+            int pipeline = LoadClient.this.pipeline;
+            while (this.unsent > 0 && this.inFlight < pipeline
+                    && this.out.remaining() >= ActionRecorder.MAX_RECORD) {
+                LoadClient.this.request(this.out);
+                this.unsent--;
+                this.inFlight++;
+            }
+            this.out.flip();
+            this.channel.write(this.out);
+            this.out.compact();
+        }
+
+        /**
+         * Reads answers and sends more requests.
+         *
+         * @return number of answers read.
+         */
+        int ready(SelectionKey key) throws IOException {
+            int answers = 0;
+            if (key.isReadable()) {
+                if (this.channel.read(this.in) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                this.in.flip();
+                while (this.in.hasRemaining()) {
+                    LoadClient.this.outcomes[this.in.get()]++;
+                    answers++;
+                }
+                this.in.clear();
+                this.inFlight -= answers;
+            }
+            this.fill();
+            return answers;
+        }
+
+        /**
+         * Whether every request has been answered.
+         */
+        boolean done() {
+            return this.unsent == 0 && this.inFlight == 0;
+        }
+
+        /**
+         * Operations to wait for.
+         */
+        int interest() {
+            return SelectionKey.OP_READ
+                | (this.out.position() > 0 ? SelectionKey.OP_WRITE : 0);
+        }
+    }
+}
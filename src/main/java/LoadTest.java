@@ -0,0 +1,496 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Headless load generator: simulated builders, each on its own thread,
+ * act on a generated world through {@link RegionActors} as fast as they
+ * can, and the latencies they see are reported.
+ *
+ * <p> Each builder repeatedly picks an action at random from a weighted
+ * mix of moveTo, digOnCurrentTile, dropFromInventory and moveBlock, sends
+ * it and waits for its outcome. Latency is timed from sending to the
+ * outcome, so it includes queueing in the actors' mailboxes. Builders
+ * record into histograms of their own, merged once they finish.
+ *
+ * <p> The report gives throughput and, for each action, outcome counts
+ * and p50, p99, p99.9 and maximum latency. It can also be written as
+ * CSV, and a p99 budget turns the run into a pass or fail gate. Run with
+ * --help for the options, or from Maven with {@code mvn -Ploadtest
+ * verify}.
+ */
+public class LoadTest {
+
+    /** Command line help. */
+    private static final String USAGE = "Usage: LoadTest [options]\n"
+        + "  --generate W D     generate a W by D world (default 256 256)\n"
+        + "  --region N         tiles per region (default 4096)\n"
+        + "  --seed N           seed for the world and the builders\n"
+        + "  --builders N       simulated builders (default 8)\n"
+        + "  --threads N        threads running the regions (default one\n"
+        + "                     per processor)\n"
+        + "  --capacity N       actions queued per region (default 64)\n"
+        + "  --ops N            actions per builder (default 100000)\n"
+        + "  --warmup N         actions per builder before measuring\n"
+        + "  --mix M,D,R,B      weights of moveTo, dig, drop and moveBlock\n"
+        + "                     (default 4,2,1,1)\n"
+        + "  --csv FILE         also write the results as CSV\n"
+        + "  --max-p99 NANOS    fail if p99 latency over all actions is\n"
+        + "                     higher\n";
+
+    /** Names of the actions, by index into the mix. */
+    static final String[] ACTIONS = {"moveTo", "dig", "drop", "moveBlock"};
+    /** Exits of generated worlds, picked from at random. */
+    private static final String[] EXITS = {WorldGenerator.NORTH,
+        WorldGenerator.EAST, WorldGenerator.SOUTH, WorldGenerator.WEST};
+    /** Percentiles reported. */
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    public static void main(String[] args) {
+        int status = run(args, System.out);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs a load test.
+     *
+     * @param args command line arguments.
+     * @param out  where the report goes.
+     * @return exit status: 0 on success, 1 on failure or if over the p99
+     *         budget, and 2 for bad arguments.
+     */
+    static int run(String[] args, PrintStream out) {
+        int width = 256;
+        int depth = 256;
+        int region = World.DEFAULT_REGION_SIZE;
+        long seed = 1;
+        int builders = 8;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int capacity = 64;
+        long ops = 100000;
+        long warmup = 0;
+        int[] mix = {4, 2, 1, 1};
+        String csv = null;
+        long maxP99 = -1;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--generate":
+                        width = Integer.parseInt(args[++i]);
+                        depth = Integer.parseInt(args[++i]);
+                        break;
+                    case "--region":
+                        region = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--builders":
+                        builders = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--capacity":
+                        capacity = Integer.parseInt(args[++i]);
+                        break;
+                    case "--ops":
+                        ops = Long.parseLong(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Long.parseLong(args[++i]);
+                        break;
+                    case "--mix":
+                        mix = parseMix(args[++i]);
+                        break;
+                    case "--csv":
+                        csv = args[++i];
+                        break;
+                    case "--max-p99":
+                        maxP99 = Long.parseLong(args[++i]);
+                        break;
+                    case "--help":
+                        out.print(USAGE);
+                        return 0;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (width <= 0 || depth <= 0 || region <= 0 || builders <= 0
+                    || threads <= 0 || capacity <= 0 || ops < 0
+                    || warmup < 0) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException
+                | ArrayIndexOutOfBoundsException e) {
+            out.print(USAGE);
+            return 2;
+        }
+
+        try {
+            long start = System.nanoTime();
+            World world = new WorldGenerator(seed, width, depth, region,
+                threads).generate();
+            out.printf("world          %d tiles, %d regions in %.3f s%n",
+                world.size(), world.getRegionCount(),
+                (System.nanoTime() - start) / 1e9);
+
+            Result result;
+            try (RegionActors actors =
+                    new RegionActors(world, threads, capacity)) {
+                result = runBuilders(world, actors, builders, seed, mix,
+                    warmup, ops);
+            }
+            result.print(out, builders, threads);
+            if (csv != null) {
+                try (Writer writer = Files.newBufferedWriter(
+                        Paths.get(csv), StandardCharsets.UTF_8)) {
+                    result.writeCsv(writer);
+                }
+            }
+            long p99 = result.all().getValueAt(99);
+            if (maxP99 >= 0 && p99 > maxP99) {
+                out.printf("FAILED: p99 %d ns is over the budget of %d ns%n",
+                    p99, maxP99);
+                return 1;
+            }
+            return 0;
+        } catch (ExecutionException e) {
+            out.println("Failed: " + e.getMessage() + ": " + e.getCause());
+            return 1;
+        } catch (IOException | InterruptedException e) {
+            out.println("Failed: " + e);
+            return 1;
+        }
+    }
+
+    /**
+     * Parses action weights, one for each of ACTIONS.
+     *
+     * @throws IllegalArgumentException if malformed or all zero.
+     */
+    static int[] parseMix(String spec) {
+        String[] parts = spec.split(",");
+        if (parts.length != ACTIONS.length) {
+            throw new IllegalArgumentException(spec);
+        }
+        int[] mix = new int[ACTIONS.length];
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = Integer.parseInt(parts[i].trim());
+            if (mix[i] < 0) {
+                throw new IllegalArgumentException(spec);
+            }
+            total += mix[i];
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException(spec);
+        }
+        return mix;
+    }
+
+    /**
+     * Runs the builders to completion, each on its own thread, and merges
+     * what they recorded.
+     *
+     * @throws ExecutionException if a builder failed, with its failure as
+     *                            the cause.
+     */
+    private static Result runBuilders(World world, RegionActors actors,
+            int count, long seed, int[] mix, long warmup, long ops)
+            throws InterruptedException, ExecutionException {
+        // Measuring starts once every builder has warmed up.
+        final long[] measureStart = new long[1];
+        CyclicBarrier warmed = new CyclicBarrier(count, new Runnable() {
+            public void run() {
+                measureStart[0] = System.nanoTime();
+            }
+        });
+        List<Walker> walkers = new ArrayList<Walker>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++) {
+            Tile tile = null;
+            for (int id = (int) ((long) i * world.size() / count);
+                    tile == null && id < world.size(); id++) {
+                tile = world.getTile(id);
+            }
+            Walker walker = new Walker(actors,
+                new Builder("load-" + i, tile), new Random(seed + i), mix,
+                warmup, ops, warmed);
+            walkers.add(walker);
+            Thread thread = new Thread(walker, "load-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Result result = new Result();
+        for (Walker walker : walkers) {
+            if (walker.failure != null) {
+                throw new ExecutionException("builder "
+                    + walker.builder.getName() + " failed", walker.failure);
+            }
+            result.merge(walker.result);
+        }
+        result.seconds = (System.nanoTime() - measureStart[0]) / 1e9;
+        return result;
+    }
+
+    /** A simulated builder. */
+    private static class Walker implements Runnable {
+
+        /** Actors to act through. */
+        private final RegionActors actors;
+        /** The builder. */
+        private final Builder builder;
+        /** Picks actions. */
+        private final Random random;
+        /** Running totals of the mix weights, for picking actions. */
+        private final int[] cumulative;
+        /** Actions before measuring. */
+        private final long warmup;
+        /** Actions measured. */
+        private final long ops;
+        /** Waited on between warming up and measuring. */
+        private final CyclicBarrier warmed;
+        /** What this builder measured. */
+        private final Result result = new Result();
+        /** What went wrong, or null. */
+        private Throwable failure;
+
+        Walker(RegionActors actors, Builder builder, Random random,
+                int[] mix, long warmup, long ops, CyclicBarrier warmed) {
+            this.actors = actors;
+            this.builder = builder;
+            this.random = random;
+            this.cumulative = new int[mix.length];
+            int total = 0;
+            for (int i = 0; i < mix.length; i++) {
+                total += mix[i];
+                this.cumulative[i] = total;
+            }
+            this.warmup = warmup;
+            this.ops = ops;
+            this.warmed = warmed;
+        }
+
+        @Override
+        public void run() {
+            boolean warmedUp = false;
+            try {
+                this.actors.enter(this.builder).get();
+                for (long i = 0; i < this.warmup; i++) {
+                    this.act();
+                }
+                this.result.reset();
+                warmedUp = true;
+                this.warmed.await();
+                for (long i = 0; i < this.ops; i++) {
+                    this.act();
+                }
+                this.actors.leave(this.builder).get();
+            } catch (InterruptedException | ExecutionException
+                    | BrokenBarrierException | RuntimeException e) {
+                this.failure = e;
+            }
+            if (!warmedUp) {
+                // Still arrive, or the others would wait for this one
+                // forever.
+                try {
+                    this.warmed.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    // The others are let go either way.
+                }
+            }
+        }
+
+        /**
+         * Does one random action, recording its latency and outcome.
+         */
+        private void act() throws InterruptedException, ExecutionException {
+            int pick = this.random.nextInt(
+                this.cumulative[this.cumulative.length - 1]);
+            int action = 0;
+            while (pick >= this.cumulative[action]) {
+                action++;
+            }
+            String exit = EXITS[this.random.nextInt(EXITS.length)];
+            long start = System.nanoTime();
+            int outcome;
+            switch (action) {
+                case 0:
+                    outcome = this.actors.moveTo(this.builder, exit).get();
+                    break;
+                case 1:
+                    outcome = this.actors.digOnCurrentTile(this.builder)
+                        .get();
+                    break;
+                case 2:
+                    outcome = this.actors.dropFromInventory(this.builder, 0)
+                        .get();
+                    break;
+                default:
+                    outcome = this.actors.moveBlock(this.builder, exit)
+                        .get();
+                    break;
+            }
+            this.result.add(action, System.nanoTime() - start, outcome);
+        }
+    }
+
+    /** Latencies and outcomes of each action. */
+    static class Result {
+
+        /** Latency histogram of each action. */
+        final LatencyHistogram[] latencies =
+            new LatencyHistogram[ACTIONS.length];
+        /** Count of each outcome of each action. */
+        final long[][] outcomes =
+            new long[ACTIONS.length][Action.NO_EXIT + 1];
+        /** Wall clock time measured over. */
+        double seconds;
+
+        Result() {
+            for (int i = 0; i < ACTIONS.length; i++) {
+                this.latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * Records one action.
+         */
+        void add(int action, long latency, int outcome) {
+            this.latencies[action].record(latency);
+            this.outcomes[action][outcome]++;
+        }
+
+        /**
+         * Adds another result's counts to this one.
+         */
+        void merge(Result other) {
+            for (int i = 0; i < ACTIONS.length; i++) {
+                this.latencies[i].merge(other.latencies[i]);
+                for (int j = 0; j <= Action.NO_EXIT; j++) {
+                    this.outcomes[i][j] += other.outcomes[i][j];
+                }
+            }
+        }
+
+        /**
+         * Forgets everything recorded.
+         */
+        void reset() {
+            for (int i = 0; i < ACTIONS.length; i++) {
+                this.latencies[i].reset();
+                Arrays.fill(this.outcomes[i], 0);
+            }
+        }
+
+        /**
+         * Latencies over every action.
+         */
+        LatencyHistogram all() {
+            LatencyHistogram all = new LatencyHistogram();
+            for (LatencyHistogram latencies : this.latencies) {
+                all.merge(latencies);
+            }
+            return all;
+        }
+
+        /**
+         * Prints the report.
+         */
+        void print(PrintStream out, int builders, int threads) {
+            LatencyHistogram all = this.all();
+            out.printf("builders       %d on %d threads%n", builders,
+                threads);
+            out.printf("actions        %d%n", all.getCount());
+            out.printf("seconds        %.3f%n", this.seconds);
+            out.printf("ops/sec        %.0f%n", this.perSecond(all));
+            out.printf("%-10s %10s %7s %10s %10s %10s %10s%n", "action",
+                "count", "ok", "p50 ns", "p99 ns", "p99.9 ns", "max ns");
+            for (int i = 0; i <= ACTIONS.length; i++) {
+                LatencyHistogram latencies =
+                    i < ACTIONS.length ? this.latencies[i] : all;
+                out.printf("%-10s %10d %6.1f%%", i < ACTIONS.length
+                    ? ACTIONS[i] : "all", latencies.getCount(),
+                    100.0 * this.count(i, Action.OK) / Math.max(1,
+                        latencies.getCount()));
+                for (double percentile : PERCENTILES) {
+                    out.printf(" %10d", latencies.getValueAt(percentile));
+                }
+                out.printf(" %10d%n", latencies.getMax());
+            }
+        }
+
+        /**
+         * Writes one CSV row per action and one for all of them.
+         */
+        void writeCsv(Writer out) throws IOException {
+            StringBuilder line = new StringBuilder("action,count");
+            for (int outcome = Action.OK; outcome <= Action.NO_EXIT;
+                    outcome++) {
+                line.append(',').append(Action.outcomeName(outcome));
+            }
+            line.append(",ops_per_sec,mean_ns,p50_ns,p99_ns,p99.9_ns,"
+                + "max_ns\n");
+            out.write(line.toString());
+            LatencyHistogram all = this.all();
+            for (int i = 0; i <= ACTIONS.length; i++) {
+                LatencyHistogram latencies =
+                    i < ACTIONS.length ? this.latencies[i] : all;
+                line.setLength(0);
+                line.append(i < ACTIONS.length ? ACTIONS[i] : "all")
+                    .append(',').append(latencies.getCount());
+                for (int outcome = Action.OK; outcome <= Action.NO_EXIT;
+                        outcome++) {
+                    line.append(',').append(this.count(i, outcome));
+                }
+                line.append(',').append(String.format("%.0f",
+                    this.perSecond(latencies)));
+                line.append(',').append(String.format("%.0f",
+                    latencies.getMean()));
+                for (double percentile : PERCENTILES) {
+                    line.append(',').append(latencies.getValueAt(percentile));
+                }
+                line.append(',').append(latencies.getMax()).append('\n');
+                out.write(line.toString());
+            }
+        }
+
+        /**
+         * Number of times an action had an outcome, counting every action
+         * for ACTIONS.length.
+         */
+        private long count(int action, int outcome) {
+            long count = 0;
+            for (int i = 0; i < ACTIONS.length; i++) {
+                if (i == action || action == ACTIONS.length) {
+                    count += this.outcomes[i][outcome];
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Throughput of the actions counted in a histogram.
+         */
+        private double perSecond(LatencyHistogram latencies) {
+            return this.seconds > 0 ? latencies.getCount() / this.seconds
+                : 0.0;
+        }
+    }
+}
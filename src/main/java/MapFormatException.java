@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+/**
+ * Exception thrown when a text map cannot be parsed, or a world cannot be
+ * written as one.
+ */
+public class MapFormatException extends IOException {
+
+    /**
+     * Creates an exception for a problem on a given line.
+     *
+     * @param line    line number, starting from 1.
+     * @param message description of the problem.
+     */
+    public MapFormatException(long line, String message) {
+        super("line " + line + ": " + message);
+    }
+
+    /**
+     * Creates an exception for a problem with the map as a whole.
+     *
+     * @param message description of the problem.
+     */
+    public MapFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming loader for the text map format written by {@link MapWriter}.
+ *
+ * <p> Input is read through a single reusable buffer and parsed in one
+ * pass, straight from bytes into tiles. An exit to a tile that has not been
+ * seen yet creates an empty placeholder tile with that id, which is filled
+ * in when its own line arrives; {@link #finish()} reports any placeholder
+ * that never was. Apart from the world itself, memory use is bounded by
+ * the longest line and the number of distinct exit names.
+ *
+ * <p> A line for an id that already has contents replaces them, so a map
+ * can be loaded on top of an existing world to apply changes.
+ */
+public class MapLoader {
+
+    /** Charset of exit names. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** World being loaded into. */
+    private final World world;
+    /** Read buffer, backed by an array. Grows to fit the longest line. */
+    private ByteBuffer buffer;
+    /** Scratch space for decoding exit names. */
+    private byte[] scratch = new byte[64];
+    /** Ids which have had their own line. */
+    private final BitSet defined = new BitSet();
+    /** Ids referenced by an exit. */
+    private final BitSet referenced = new BitSet();
+    /** Number of the line being parsed, starting from 1. */
+    private long line;
+
+    /** Decoded exit names, shared by every tile using them. */
+    private String[] names = new String[64];
+    /** Encoded bytes of each entry of names. */
+    private byte[][] nameBytes = new byte[64][];
+    /** Number of entries in names. */
+    private int nameCount;
+
+    /**
+     * Creates a loader which adds tiles to the given world.
+     *
+     * @param world world to load into.
+     */
+    public MapLoader(World world) {
+        this(world, 1 << 16);
+    }
+
+    /**
+     * Creates a loader with a given initial buffer size.
+     *
+     * @param world      world to load into.
+     * @param bufferSize initial read buffer size in bytes.
+     */
+    MapLoader(World world, int bufferSize) {
+        this.world = world;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 16));
+    }
+
+    /**
+     * Loads a map file into a new world.
+     *
+     * @param path file to read.
+     * @return the loaded world.
+     * @throws IOException if the file cannot be read or is malformed.
+     */
+    public static World load(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Loads a map from a channel into a new world.
+     *
+     * @param in channel to read until end of stream.
+     * @return the loaded world.
+     * @throws IOException if the channel cannot be read or the map is
+     *                     malformed.
+     */
+    public static World load(ReadableByteChannel in) throws IOException {
+        World world = new World();
+        MapLoader loader = new MapLoader(world);
+        loader.read(in);
+        loader.finish();
+        return world;
+    }
+
+    /**
+     * Reads and applies every line from a channel, until end of stream.
+     * May be called several times to load a map split across inputs.
+     *
+     * @param in channel to read.
+     * @throws IOException if the channel cannot be read or a line is
+     *                     malformed.
+     */
+    public void read(ReadableByteChannel in) throws IOException {
+        this.buffer.clear();
+        int scanned = 0;
+        boolean eof = false;
+        while (!eof) {
+            eof = in.read(this.buffer) < 0;
+            byte[] bytes = this.buffer.array();
+            int end = this.buffer.position();
+            int start = 0;
+            for (int i = scanned; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    this.parseLine(bytes, start, i);
+                    start = i + 1;
+                }
+            }
+            if (eof && start < end) {
+                this.parseLine(bytes, start, end); // No final newline.
+                start = end;
+            }
+            // Move the incomplete last line to the front for the next read.
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            this.buffer.position(end - start);
+            scanned = end - start;
+            if (scanned == this.buffer.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(scanned * 2);
+                grown.put(bytes, 0, scanned);
+                this.buffer = grown;
+            }
+        }
+    }
+
+    /**
+     * Checks every tile referenced by an exit had its own line.
+     *
+     * @throws MapFormatException if a referenced tile is missing.
+     */
+    public void finish() throws MapFormatException {
+        BitSet missing = (BitSet) this.referenced.clone();
+        missing.andNot(this.defined);
+        if (!missing.isEmpty()) {
+            throw new MapFormatException("exit to undefined tile "
+                + missing.nextSetBit(0));
+        }
+    }
+
+    /**
+     * Parses one line of the map, bytes[from] to bytes[to - 1].
+     */
+    private void parseLine(byte[] bytes, int from, int to)
+            throws MapFormatException {
+        this.line++;
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        if (from == to || bytes[from] == '#') {
+            return;
+        }
+
+        int i = from;
+        int id = 0;
+        for (; i < to && bytes[i] != ' '; i++) {
+            id = this.digit(id, bytes[i]);
+        }
+        if (i == from || i == to) {
+            throw new MapFormatException(this.line, "expected id and blocks");
+        }
+        Tile tile = this.world.getOrCreate(id);
+        tile.clear();
+        this.defined.set(id);
+
+        for (i++; i < to && bytes[i] != ' '; i++) {
+            if (bytes[i] == BlockTypes.EMPTY_CODE) {
+                continue;
+            }
+            BlockType type = BlockTypes.byCode((char) bytes[i]);
+            if (type == null) {
+                throw new MapFormatException(this.line,
+                    "unknown block code '" + (char) bytes[i] + "'");
+            }
+            try {
+                tile.placeBlock(type.getBlock());
+            } catch (TooHighException e) {
+                throw new MapFormatException(this.line, "column too high");
+            } catch (InvalidBlockException e) {
+                throw new AssertionError(e); // Block is never null.
+            }
+        }
+
+        Map<String, Tile> exits = new HashMap<String, Tile>(8);
+        while (i < to) {
+            if (bytes[i] == ' ') {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < to && bytes[i] != '=') {
+                i++;
+            }
+            if (i == to || i == nameStart) {
+                throw new MapFormatException(this.line, "expected name=id");
+            }
+            String name = this.name(bytes, nameStart, i);
+            int target = 0;
+            int targetStart = ++i;
+            for (; i < to && bytes[i] != ' '; i++) {
+                target = this.digit(target, bytes[i]);
+            }
+            if (i == targetStart) {
+                throw new MapFormatException(this.line, "expected target id");
+            }
+            this.referenced.set(target);
+            exits.put(name, this.world.getOrCreate(target));
+        }
+        if (!exits.isEmpty()) {
+            tile.addExits(exits); // Copies the tile's exits only once.
+        }
+    }
+
+    /**
+     * Appends a decimal digit to a non-negative number.
+     */
+    private int digit(int value, byte digit) throws MapFormatException {
+        if (digit < '0' || digit > '9') {
+            throw new MapFormatException(this.line, "expected digit");
+        }
+        if (value > (Integer.MAX_VALUE - (digit - '0')) / 10) {
+            throw new MapFormatException(this.line, "id too large");
+        }
+        return value * 10 + (digit - '0');
+    }
+
+    /**
+     * Decodes an escaped exit name, reusing the String from earlier lines
+     * if the name has been seen before.
+     */
+    private String name(byte[] bytes, int from, int to)
+            throws MapFormatException {
+        if (this.scratch.length < to - from) {
+            this.scratch = new byte[to - from];
+        }
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != '%') {
+                this.scratch[length++] = bytes[i];
+            } else if (i + 2 < to) {
+                this.scratch[length++] =
+                    (byte) (hex(bytes[i + 1]) << 4 | hex(bytes[i + 2]));
+                i += 2;
+            } else {
+                throw new MapFormatException(this.line, "bad escape");
+            }
+        }
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + this.scratch[i];
+        }
+        int mask = this.names.length - 1;
+        int slot = hash & mask;
+        while (this.names[slot] != null) {
+            if (this.matches(this.nameBytes[slot], length)) {
+                return this.names[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        String name = new String(this.scratch, 0, length, UTF8);
+        this.names[slot] = name;
+        this.nameBytes[slot] = Arrays.copyOf(this.scratch, length);
+        if (++this.nameCount * 2 > this.names.length) {
+            this.rehashNames();
+        }
+        return name;
+    }
+
+    /**
+     * Whether candidate equals the first length bytes of the scratch space.
+     */
+    private boolean matches(byte[] candidate, int length) {
+        if (candidate.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate[i] != this.scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the size of the exit name table.
+     */
+    private void rehashNames() {
+        String[] oldNames = this.names;
+        byte[][] oldBytes = this.nameBytes;
+        this.names = new String[oldNames.length * 2];
+        this.nameBytes = new byte[oldNames.length * 2][];
+        int mask = this.names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) {
+                continue;
+            }
+            int hash = 1;
+            for (byte b : oldBytes[i]) {
+                hash = 31 * hash + b;
+            }
+            int slot = hash & mask;
+            while (this.names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            this.names[slot] = oldNames[i];
+            this.nameBytes[slot] = oldBytes[i];
+        }
+    }
+
+    /**
+     * Value of a hex digit.
+     */
+    private int hex(byte digit) throws MapFormatException {
+        if (digit >= '0' && digit <= '9') {
+            return digit - '0';
+        } else if (digit >= 'A' && digit <= 'F') {
+            return digit - 'A' + 10;
+        } else if (digit >= 'a' && digit <= 'f') {
+            return digit - 'a' + 10;
+        }
+        throw new MapFormatException(this.line, "bad escape");
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes tiles in the text map format into a reusable byte buffer.
+ *
+ * <p> The format has one line per tile:
+ * <pre>
+ * &lt;id&gt; &lt;blocks&gt;[ &lt;exit name&gt;=&lt;target id&gt;]...
+ * </pre>
+ * where blocks has one {@link BlockType#getCode()} character per block,
+ * bottom-most first, or '-' if the tile is empty. Exit names are UTF-8
+ * with any byte outside printable ASCII, and '%' and '=', written as %XX.
+ * Lines starting with '#' are comments. Blocks of a type without a code
+ * cannot be written: writing them fails with a {@link MapFormatException}
+ * and leaves out the tile, rather than saving a map which does not load.
+ *
+ * <p> Nothing is converted to an intermediate String; callers flush the
+ * buffer to a channel whenever it grows past a threshold.
+ */
+class MapWriter {
+
+    /** Hex digits for percent-encoding. */
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6',
+        '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    /** Powers of ten, POWERS[n] is the smallest number with n + 1 digits. */
+    private static final int[] POWERS = {0, 10, 100, 1000, 10000, 100000,
+        1000000, 10000000, 100000000, 1000000000};
+    /** Digits of 00 to 99, two bytes per number. */
+    private static final byte[] PAIRS = new byte[200];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            PAIRS[i * 2] = (byte) ('0' + i / 10);
+            PAIRS[i * 2 + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    /** Encoded bytes, only the first length are used. */
+    private byte[] buffer;
+    /** Number of bytes written since the last flush. */
+    private int length;
+
+    /**
+     * Creates a writer with a buffer of the given initial size.
+     *
+     * @param capacity initial buffer size in bytes.
+     */
+    MapWriter(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 64)];
+    }
+
+    /**
+     * Writes a whole tile. Exits to tiles outside world are left out.
+     * Nothing is written if the tile cannot be.
+     *
+     * @param tile  the tile to write.
+     * @param world world used to look up exit target ids.
+     * @throws MapFormatException if a block's type has no code.
+     */
+    void tile(Tile tile, World world) throws MapFormatException {
+        int start = this.length;
+        this.startTile(world.getId(tile));
+        try {
+            this.blocks(tile.getBlocks());
+        } catch (MapFormatException e) {
+            this.length = start;
+            throw e;
+        }
+        for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+            int target = world.getId(exit.getValue());
+            if (target >= 0) {
+                this.exit(exit.getKey(), target);
+            }
+        }
+        this.endTile();
+    }
+
+    /**
+     * Starts a tile's line.
+     *
+     * @param id the tile id.
+     */
+    void startTile(int id) {
+        this.number(id);
+    }
+
+    /**
+     * Writes the blocks of the current tile.
+     *
+     * @param blocks blocks, bottom-most first.
+     * @throws MapFormatException if a block's type has no code.
+     */
+    void blocks(List<Block> blocks) throws MapFormatException {
+        this.ensure(blocks.size() + 2);
+        int start = this.length;
+        this.buffer[this.length++] = ' ';
+        if (blocks.isEmpty()) {
+            this.buffer[this.length++] = BlockTypes.EMPTY_CODE;
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            this.buffer[this.length++] = code(blocks.get(i), start);
+        }
+    }
+
+    /**
+     * Writes the blocks of the current tile.
+     *
+     * @param blocks array holding the blocks, bottom-most first.
+     * @param height number of blocks to write from the array.
+     * @throws MapFormatException if a block's type has no code.
+     */
+    void blocks(Block[] blocks, int height) throws MapFormatException {
+        this.ensure(height + 2);
+        int start = this.length;
+        this.buffer[this.length++] = ' ';
+        if (height == 0) {
+            this.buffer[this.length++] = BlockTypes.EMPTY_CODE;
+        }
+        for (int i = 0; i < height; i++) {
+            this.buffer[this.length++] = code(blocks[i], start);
+        }
+    }
+
+    /**
+     * Helper method to get a block's code, dropping the blocks written
+     * from start if it has none.
+     */
+    private byte code(Block block, int start) throws MapFormatException {
+        BlockType type = BlockTypes.of(block);
+        if (type.getCode() == '?') {
+            this.length = start;
+            throw new MapFormatException("block type '" + type.getName()
+                + "' has no map code");
+        }
+        return (byte) type.getCode();
+    }
+
+    /**
+     * Writes an exit of the current tile.
+     *
+     * @param name   exit name.
+     * @param target id of the tile the exit goes to.
+     */
+    void exit(String name, int target) {
+        this.ensure(1);
+        this.buffer[this.length++] = ' ';
+        this.name(name);
+        this.ensure(1);
+        this.buffer[this.length++] = '=';
+        this.number(target);
+    }
+
+    /**
+     * Writes an exit of the current tile whose name was encoded beforehand
+     * with {@link #encodeName(String)}.
+     *
+     * @param encodedName encoded exit name.
+     * @param target      id of the tile the exit goes to.
+     */
+    void exit(byte[] encodedName, int target) {
+        this.ensure(encodedName.length + 2);
+        this.buffer[this.length++] = ' ';
+        System.arraycopy(encodedName, 0, this.buffer, this.length,
+            encodedName.length);
+        this.length += encodedName.length;
+        this.buffer[this.length++] = '=';
+        this.number(target);
+    }
+
+    /**
+     * Encodes an exit name once, for writers which repeat the same names.
+     *
+     * @param name exit name.
+     * @return the name as it appears in the format.
+     */
+    static byte[] encodeName(String name) {
+        MapWriter writer = new MapWriter(name.length() * 9);
+        writer.name(name);
+        return Arrays.copyOf(writer.buffer, writer.length);
+    }
+
+    /**
+     * Helper method to write an exit name, escaping as needed.
+     */
+    private void name(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c > ' ' && c < 0x7f && c != '%' && c != '=') {
+                this.ensure(1);
+                this.buffer[this.length++] = (byte) c;
+            } else if (c < 0x80) {
+                this.escaped(c);
+            } else if (c < 0x800) {
+                this.escaped(0xc0 | (c >> 6));
+                this.escaped(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                int point = Character.toCodePoint(c, name.charAt(++i));
+                this.escaped(0xf0 | (point >> 18));
+                this.escaped(0x80 | ((point >> 12) & 0x3f));
+                this.escaped(0x80 | ((point >> 6) & 0x3f));
+                this.escaped(0x80 | (point & 0x3f));
+            } else {
+                this.escaped(0xe0 | (c >> 12));
+                this.escaped(0x80 | ((c >> 6) & 0x3f));
+                this.escaped(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Ends the current tile's line.
+     */
+    void endTile() {
+        this.ensure(1);
+        this.buffer[this.length++] = '\n';
+    }
+
+    /**
+     * Number of bytes waiting to be written.
+     *
+     * @return buffered byte count.
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * Writes all buffered bytes to a channel and empties the buffer.
+     *
+     * @param channel channel to write to.
+     * @throws IOException if the channel cannot be written.
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(this.buffer, 0, this.length);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        this.length = 0;
+    }
+
+    /**
+     * Helper method to write a non-negative number in decimal.
+     */
+    private void number(int value) {
+        this.ensure(10);
+        int digits = 1;
+        while (digits < POWERS.length && value >= POWERS[digits]) {
+            digits++;
+        }
+        int i = this.length + digits;
+        // Two digits per division, from the least significant end.
+        while (value >= 100) {
+            int pair = (value % 100) * 2;
+            value /= 100;
+            this.buffer[--i] = PAIRS[pair + 1];
+            this.buffer[--i] = PAIRS[pair];
+        }
+        if (value >= 10) {
+            this.buffer[--i] = PAIRS[value * 2 + 1];
+            this.buffer[--i] = PAIRS[value * 2];
+        } else {
+            this.buffer[--i] = (byte) ('0' + value);
+        }
+        this.length += digits;
+    }
+
+    /**
+     * Helper method to write one byte as %XX.
+     */
+    private void escaped(int b) {
+        this.ensure(3);
+        this.buffer[this.length++] = '%';
+        this.buffer[this.length++] = HEX[(b >> 4) & 0xf];
+        this.buffer[this.length++] = HEX[b & 0xf];
+    }
+
+    /**
+     * Helper method to grow the buffer so extra more bytes fit.
+     */
+    private void ensure(int extra) {
+        if (this.length + extra > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer,
+                Math.max(this.length + extra, this.buffer.length * 2));
+        }
+    }
+}
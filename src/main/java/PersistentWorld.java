@@ -0,0 +1,494 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable version of a world of tiles.
+ *
+ * <p> Tiles are addressed by non-negative integer ids and stored in a
+ * bitmapped 32-way trie (a HAMT keyed by the id bits). Every edit returns a
+ * new version which copies only the path from the root to the edited tile,
+ * so unchanged tiles and whole regions of 32, 1024, ... consecutive ids are
+ * shared with the previous version. Old versions stay valid forever, which
+ * gives cheap undo and speculative "what-if" branches, and readers never
+ * need to lock.
+ *
+ * <p> Tile contents are shared {@link Column}s, so a version costs little
+ * more than the trie nodes and exit maps its edits created.
+ *
+ * <p> The edit methods follow the same rules and throw the same exceptions
+ * as the corresponding methods of {@link Tile}, with the height limits of
+ * the world the version was taken from.
+ */
+public final class PersistentWorld {
+
+    /** Bits of the id consumed by each level of the trie. */
+    private static final int BITS = 5;
+    /** Mask selecting one level's worth of id bits. */
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** The world with no tiles. */
+    private static final PersistentWorld EMPTY =
+        new PersistentWorld(new Node(0, new Object[0]), 0, 0,
+            Tile.MAX_BLOCK_HEIGHT, Tile.MAX_GROUND_HEIGHT);
+
+    /** Root of the trie. */
+    private final Node root;
+    /** Shift of the root level; ids below 1 &lt;&lt; (shift + 5) fit. */
+    private final int shift;
+    /** Number of tiles in this version. */
+    private final int size;
+    /** Maximum height of normal blocks. */
+    private final int maxBlockHeight;
+    /** Maximum height of ground blocks. */
+    private final int maxGroundHeight;
+
+    private PersistentWorld(Node root, int shift, int size,
+            int maxBlockHeight, int maxGroundHeight) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.maxBlockHeight = maxBlockHeight;
+        this.maxGroundHeight = maxGroundHeight;
+    }
+
+    /**
+     * Gets the world containing no tiles, with the default height limits.
+     *
+     * @return the empty world.
+     */
+    public static PersistentWorld empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets the world containing no tiles, with the height limits of a
+     * world.
+     *
+     * @param limits world whose limits to use.
+     * @return the empty world.
+     */
+    public static PersistentWorld empty(World limits) {
+        return new PersistentWorld(EMPTY.root, 0, 0,
+            limits.getMaxBlockHeight(), limits.getMaxGroundHeight());
+    }
+
+    /**
+     * Snapshots every tile reachable from start through exits. Tiles are
+     * numbered in breadth-first order, so start is always tile 0. The
+     * snapshot has the height limits of start's world, if it is in one.
+     *
+     * @param start tile to start from, cannot be null.
+     * @return a world holding a copy of the reachable tiles.
+     */
+    public static PersistentWorld fromTile(Tile start) {
+        Map<Tile, Integer> ids = new IdentityHashMap<Tile, Integer>();
+        Deque<Tile> queue = new ArrayDeque<Tile>();
+        ids.put(start, 0);
+        queue.add(start);
+        PersistentWorld world = start.world == null
+            ? EMPTY : empty(start.world);
+        while (!queue.isEmpty()) {
+            Tile tile = queue.remove();
+            Map<String, Integer> exits = new HashMap<String, Integer>();
+            for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+                Integer target = ids.get(exit.getValue());
+                if (target == null) {
+                    target = ids.size();
+                    ids.put(exit.getValue(), target);
+                    queue.add(exit.getValue());
+                }
+                exits.put(exit.getKey(), target);
+            }
+            world = world.with(ids.get(tile), new TileState(
+                tile.getColumn(), Collections.unmodifiableMap(exits)));
+        }
+        return world;
+    }
+
+    /**
+     * Builds mutable tiles matching this version. Element i of the result
+     * is the tile with id i, or null if there is no such tile.
+     *
+     * @param length number of ids to materialise, starting from 0.
+     * @return the new tiles, indexed by id.
+     */
+    public Tile[] toTiles(int length) {
+        Tile[] tiles = new Tile[length];
+        for (int id = 0; id < length; id++) {
+            TileState state = this.find(id);
+            if (state != null) {
+                tiles[id] = new Tile(state.column);
+            }
+        }
+        for (int id = 0; id < length; id++) {
+            TileState state = this.find(id);
+            if (state == null) {
+                continue;
+            }
+            for (Map.Entry<String, Integer> exit : state.exits.entrySet()) {
+                int target = exit.getValue();
+                if (target < length && tiles[target] != null) {
+                    try {
+                        tiles[id].addExit(exit.getKey(), tiles[target]);
+                    } catch (NoExitException e) {
+                        throw new AssertionError(e); // Both are non-null.
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Number of tiles in this version.
+     *
+     * @return tile count.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Whether a tile with the given id exists.
+     *
+     * @param id tile id.
+     * @return true if the tile exists.
+     */
+    public boolean contains(int id) {
+        return this.find(id) != null;
+    }
+
+    /**
+     * Blocks on a tile, with the first element being the bottom-most block.
+     *
+     * @param id tile id.
+     * @return unmodifiable list of blocks.
+     * @throws NoExitException if there is no such tile.
+     */
+    public List<Block> getBlocks(int id) throws NoExitException {
+        return this.get(id).column.asList();
+    }
+
+    /**
+     * Number of blocks on a tile.
+     *
+     * @param id tile id.
+     * @return the tile's height.
+     * @throws NoExitException if there is no such tile.
+     */
+    public int getHeight(int id) throws NoExitException {
+        return this.get(id).column.height();
+    }
+
+    /**
+     * Exits from a tile, as ids of the target tiles.
+     *
+     * @param id tile id.
+     * @return unmodifiable mapping from exit names to tile ids.
+     * @throws NoExitException if there is no such tile.
+     */
+    public Map<String, Integer> getExits(int id) throws NoExitException {
+        return this.get(id).exits;
+    }
+
+    /**
+     * Returns the top block of a tile.
+     *
+     * @param id tile id.
+     * @return the top block.
+     * @throws NoExitException if there is no such tile.
+     * @throws TooLowException if there are no blocks on the tile.
+     */
+    public Block getTopBlock(int id) throws NoExitException, TooLowException {
+        Column column = this.get(id).column;
+        if (column.height() == 0) {
+            throw new TooLowException();
+        }
+        return column.top();
+    }
+
+    /**
+     * Adds a tile with the given id and blocks and no exits, replacing any
+     * tile with that id.
+     *
+     * @param id     tile id, must not be negative.
+     * @param blocks starting blocks, bottom-most first.
+     * @return the new version.
+     * @throws TooHighException if the blocks break the height limits.
+     */
+    public PersistentWorld withTile(int id, List<Block> blocks)
+            throws TooHighException {
+        Column column = Column.EMPTY;
+        for (Block block : blocks) {
+            try {
+                column = this.push(column, block);
+            } catch (InvalidBlockException e) {
+                // As for new Tile(blocks), the blocks are assumed non-null.
+                throw new AssertionError(e);
+            }
+        }
+        return this.with(id, new TileState(column,
+            Collections.<String, Integer>emptyMap()));
+    }
+
+    /**
+     * Places a block on a tile. See {@link Tile#placeBlock(Block)}.
+     *
+     * @param id    tile id.
+     * @param block block to place.
+     * @return the new version.
+     * @throws TooHighException      if the tile is too high for the block.
+     * @throws InvalidBlockException if the block is null.
+     * @throws NoExitException       if there is no such tile.
+     */
+    public PersistentWorld placeBlock(int id, Block block)
+            throws TooHighException, InvalidBlockException, NoExitException {
+        TileState state = this.get(id);
+        return this.with(id, state.withColumn(this.push(state.column, block)));
+    }
+
+    /**
+     * Digs the top block of a tile. The dug block can be read beforehand
+     * with {@link #getTopBlock(int)}. See {@link Tile#dig()}.
+     *
+     * @param id tile id.
+     * @return the new version.
+     * @throws TooLowException       if there are no blocks on the tile.
+     * @throws InvalidBlockException if the top block is not diggable.
+     * @throws NoExitException       if there is no such tile.
+     */
+    public PersistentWorld dig(int id)
+            throws TooLowException, InvalidBlockException, NoExitException {
+        this.getTopBlock(id); // Throws TooLow if empty.
+        TileState state = this.get(id);
+        if (!state.column.topType().is(BlockType.DIGGABLE)) {
+            throw new InvalidBlockException();
+        }
+        return this.with(id, state.withColumn(state.column.pop()));
+    }
+
+    /**
+     * Moves the top block of a tile through one of its exits. See
+     * {@link Tile#moveBlock(String)}.
+     *
+     * @param id       tile id.
+     * @param exitName name of the exit to move the block through.
+     * @return the new version.
+     * @throws TooHighException      if the target's height is ≥ this height.
+     * @throws InvalidBlockException if the top block is not moveable.
+     * @throws NoExitException       if the tile or exit does not exist.
+     */
+    public PersistentWorld moveBlock(int id, String exitName)
+            throws TooHighException, InvalidBlockException, NoExitException {
+        TileState from = this.get(id);
+        Integer targetId = exitName == null ? null : from.exits.get(exitName);
+        if (targetId == null) {
+            throw new NoExitException();
+        }
+        TileState to = this.get(targetId);
+        if (to.column.height() >= from.column.height()) {
+            throw new TooHighException();
+        }
+        Block block = from.column.top();
+        if (!from.column.topType().is(BlockType.MOVEABLE)) {
+            throw new InvalidBlockException();
+        }
+        PersistentWorld removed =
+            this.with(id, from.withColumn(from.column.pop()));
+        return removed.with(targetId,
+            to.withColumn(this.push(to.column, block)));
+    }
+
+    /**
+     * Adds or overwrites an exit. See {@link Tile#addExit(String, Tile)}.
+     *
+     * @param id       tile id.
+     * @param name     name of the exit.
+     * @param targetId id of the tile the exit goes to.
+     * @return the new version.
+     * @throws NoExitException if name is null or either tile is missing.
+     */
+    public PersistentWorld addExit(int id, String name, int targetId)
+            throws NoExitException {
+        TileState state = this.get(id);
+        if (name == null || !this.contains(targetId)) {
+            throw new NoExitException();
+        }
+        Map<String, Integer> exits =
+            new HashMap<String, Integer>(state.exits);
+        exits.put(name, targetId);
+        return this.with(id, new TileState(state.column,
+            Collections.unmodifiableMap(exits)));
+    }
+
+    /**
+     * Removes an exit. See {@link Tile#removeExit(String)}.
+     *
+     * @param id   tile id.
+     * @param name name of the exit to remove.
+     * @return the new version.
+     * @throws NoExitException if the tile or exit does not exist.
+     */
+    public PersistentWorld removeExit(int id, String name)
+            throws NoExitException {
+        TileState state = this.get(id);
+        if (name == null || !state.exits.containsKey(name)) {
+            throw new NoExitException();
+        }
+        Map<String, Integer> exits =
+            new HashMap<String, Integer>(state.exits);
+        exits.remove(name);
+        return this.with(id, new TileState(state.column,
+            Collections.unmodifiableMap(exits)));
+    }
+
+    /**
+     * Helper method returning a column with one more block on top,
+     * following the same height rules as {@link Tile#placeBlock(Block)}
+     * with this version's limits.
+     */
+    private Column push(Column column, Block block)
+            throws TooHighException, InvalidBlockException {
+        int maxHeight = BlockTypes.checkedOf(block).isGround()
+            ? this.maxGroundHeight : this.maxBlockHeight;
+        if (column.height() >= maxHeight) {
+            throw new TooHighException();
+        }
+        return column.push(block);
+    }
+
+    /**
+     * Helper method to find a tile, throwing NoExitException if it is
+     * missing.
+     */
+    private TileState get(int id) throws NoExitException {
+        TileState state = this.find(id);
+        if (state == null) {
+            throw new NoExitException();
+        }
+        return state;
+    }
+
+    /**
+     * Looks up a tile in the trie.
+     *
+     * @return the tile's state, or null if there is none.
+     */
+    private TileState find(int id) {
+        if (id < 0 || (this.shift < 30 && id >>> (this.shift + BITS) != 0)) {
+            return null;
+        }
+        Node node = this.root;
+        for (int level = this.shift; level > 0; level -= BITS) {
+            Object child = node.get((id >>> level) & MASK);
+            if (child == null) {
+                return null;
+            }
+            node = (Node) child;
+        }
+        return (TileState) node.get(id & MASK);
+    }
+
+    /**
+     * Returns a new version with the tile at id replaced by state, copying
+     * only the nodes on the path to it.
+     */
+    private PersistentWorld with(int id, TileState state) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative tile id " + id);
+        }
+        Node newRoot = this.root;
+        int newShift = this.shift;
+        // Grow the trie upwards until the id fits below the root.
+        while (newShift < 30 && id >>> (newShift + BITS) != 0) {
+            newRoot = newRoot.isEmpty()
+                ? newRoot : new Node(1, new Object[] {newRoot});
+            newShift += BITS;
+        }
+        boolean added = this.find(id) == null;
+        newRoot = assoc(newRoot, newShift, id, state);
+        return new PersistentWorld(newRoot, newShift,
+            added ? this.size + 1 : this.size, this.maxBlockHeight,
+            this.maxGroundHeight);
+    }
+
+    /** Recursive path copy for {@link #with(int, TileState)}. */
+    private static Node assoc(Node node, int level, int id, TileState state) {
+        int index = (id >>> level) & MASK;
+        if (level == 0) {
+            return node.set(index, state);
+        }
+        Object child = node.get(index);
+        Node childNode = child == null
+            ? new Node(0, new Object[0]) : (Node) child;
+        return node.set(index, assoc(childNode, level - BITS, id, state));
+    }
+
+    /**
+     * A sparse trie node. Only slots whose bit is set in the bitmap are
+     * stored, in index order.
+     */
+    private static final class Node {
+
+        /** Which of the 32 slots are present. */
+        private final int bitmap;
+        /** Present slots: child nodes, or tile states at the bottom. */
+        private final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        boolean isEmpty() {
+            return this.bitmap == 0;
+        }
+
+        Object get(int index) {
+            int bit = 1 << index;
+            if ((this.bitmap & bit) == 0) {
+                return null;
+            }
+            return this.slots[Integer.bitCount(this.bitmap & (bit - 1))];
+        }
+
+        Node set(int index, Object value) {
+            int bit = 1 << index;
+            int position = Integer.bitCount(this.bitmap & (bit - 1));
+            if ((this.bitmap & bit) != 0) {
+                Object[] slots = this.slots.clone();
+                slots[position] = value;
+                return new Node(this.bitmap, slots);
+            }
+            Object[] slots = new Object[this.slots.length + 1];
+            System.arraycopy(this.slots, 0, slots, 0, position);
+            slots[position] = value;
+            System.arraycopy(this.slots, position, slots, position + 1,
+                this.slots.length - position);
+            return new Node(this.bitmap | bit, slots);
+        }
+    }
+
+    /** Immutable contents of one tile. */
+    private static final class TileState {
+
+        /** Blocks, shared with any other tile holding the same blocks. */
+        private final Column column;
+        /** Exits from exit name to target tile id, never modified. */
+        private final Map<String, Integer> exits;
+
+        TileState(Column column, Map<String, Integer> exits) {
+            this.column = column;
+            this.exits = exits;
+        }
+
+        TileState withColumn(Column column) {
+            return new TileState(column, this.exits);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+import java.util.Arrays;
+
+/**
+ * Index of which tiles of a {@link World} a builder can walk between.
+ *
+ * <p> Two tiles are joined when each has an exit to the other and their
+ * heights differ by at most 1, as in {@link Builder#canEnter(Tile)}, so a
+ * builder can step between them either way. One-way exits are left out:
+ * walks along them are not reversible, so they do not form components,
+ * and {@link #canReach(int, int)} only answers for walks over exits which
+ * come in pairs. Every tile is labelled with its connected component, so
+ * a query compares two labels.
+ *
+ * <p> The index listens to the world and updates as tiles change:
+ * <ul>
+ * <li> A new join merges two components by relabelling the smaller. </li>
+ * <li> A lost join searches outwards from both of its ends at once. If
+ *      the searches meet, nothing changes; otherwise the side which ran out
+ *      first is split off. Either way the work is bounded by about twice
+ *      the smaller side. </li>
+ * </ul>
+ *
+ * <p> Not thread safe: queries and changes to the world must not overlap.
+ * Exits to tiles added to the world later are only seen after
+ * {@link #rebuild()}.
+ */
+public class ReachabilityIndex implements TileListener {
+
+    /** The indexed world. */
+    private final World world;
+    /** Number of ids indexed. Arrays below may be longer. */
+    private int size;
+    /** Component label of each tile, or -1 for ids with no tile. */
+    private int[] labels = new int[0];
+    /** Height of each tile, as last seen. */
+    private int[] heights = new int[0];
+    /** Ids of tiles with an exit to each tile, one entry per exit. */
+    private int[][] incoming = new int[0][];
+    /** Number of entries used in each incoming array. */
+    private int[] incomingCounts = new int[0];
+
+    /** Number of tiles with each label. */
+    private int[] sizes = new int[0];
+    /** Number of labels ever handed out, in use or free. */
+    private int labelCount;
+    /** Labels not in use. */
+    private int[] freeLabels = new int[0];
+    /** Number of entries used in freeLabels. */
+    private int freeCount;
+    /** Number of components. */
+    private int components;
+
+    /** Search stamp of each tile. */
+    private int[] marks = new int[0];
+    /** Stamp of the last search, advanced by two each time. */
+    private int stamp;
+    /** Queues for searches. */
+    private int[] first = new int[0];
+    private int[] second = new int[0];
+    /** Neighbours found by the last call to neighbours(). */
+    private int[] found = new int[8];
+
+    /**
+     * Indexes a world and starts following its changes.
+     *
+     * @param world the world to index.
+     */
+    public ReachabilityIndex(World world) {
+        this.world = world;
+        this.rebuild();
+        world.addListener(this);
+    }
+
+    /**
+     * Stops following changes to the world.
+     */
+    public void close() {
+        this.world.removeListener(this);
+    }
+
+    /**
+     * Rebuilds the whole index from the world.
+     */
+    public void rebuild() {
+        int size = this.world.size();
+        this.size = size;
+        this.labels = new int[size];
+        this.heights = new int[size];
+        this.incoming = new int[size][];
+        this.incomingCounts = new int[size];
+        this.marks = new int[size];
+        this.first = new int[size];
+        this.second = new int[size];
+        this.sizes = new int[0];
+        this.labelCount = 0;
+        this.freeCount = 0;
+        this.components = 0;
+        this.stamp = 0;
+        Arrays.fill(this.labels, -1);
+
+        for (int id = 0; id < size; id++) {
+            Tile tile = this.world.getTile(id);
+            if (tile != null) {
+                this.heights[id] = tile.getColumn().height();
+                for (Tile target : tile.getExits().values()) {
+                    this.addIncoming(id, target);
+                }
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            if (this.labels[id] < 0 && this.world.getTile(id) != null) {
+                this.labelFrom(id, this.newLabel());
+            }
+        }
+    }
+
+    /**
+     * Whether a builder could walk from one tile to another.
+     *
+     * @param from id of the starting tile.
+     * @param to   id of the destination tile.
+     * @return true if both tiles exist and are in the same component,
+     *         false if reaching to would take a one-way exit.
+     */
+    public boolean canReach(int from, int to) {
+        if (from < 0 || to < 0 || from >= this.size || to >= this.size) {
+            return false;
+        }
+        return this.labels[from] >= 0 && this.labels[from] == this.labels[to];
+    }
+
+    /**
+     * Whether a builder could walk from one tile to another.
+     *
+     * @param from starting tile.
+     * @param to   destination tile.
+     * @return true if both tiles are in the world and the same component.
+     */
+    public boolean canReach(Tile from, Tile to) {
+        return this.canReach(this.world.getId(from), this.world.getId(to));
+    }
+
+    /**
+     * Number of tiles reachable from a tile, including itself.
+     *
+     * @param id tile id.
+     * @return size of the tile's component, or 0 if there is no such tile.
+     */
+    public int componentSize(int id) {
+        if (id < 0 || id >= this.size || this.labels[id] < 0) {
+            return 0;
+        }
+        return this.sizes[this.labels[id]];
+    }
+
+    /**
+     * Number of separate components.
+     *
+     * @return component count.
+     */
+    public int componentCount() {
+        return this.components;
+    }
+
+    @Override
+    public void blocksChanged(Tile tile) {
+        int id = tile.id;
+        int oldHeight = this.heights[id];
+        int newHeight = tile.getColumn().height();
+        if (oldHeight == newHeight) {
+            return;
+        }
+        int count = this.neighbours(id, false);
+        int[] neighbours = Arrays.copyOf(this.found, count);
+        this.heights[id] = newHeight;
+        // Lost joins first, so components are right before merging any.
+        // Losing several joins can split the component into several
+        // pieces, each holding this tile or one of the lost neighbours, so
+        // every pair of them is checked.
+        int[] ends = new int[count + 1];
+        int endCount = 0;
+        ends[endCount++] = id;
+        for (int neighbour : neighbours) {
+            int height = this.heights[neighbour];
+            if (Math.abs(oldHeight - height) <= 1
+                    && Math.abs(newHeight - height) > 1) {
+                for (int i = 0; i < endCount; i++) {
+                    this.split(ends[i], neighbour);
+                }
+                ends[endCount++] = neighbour;
+            }
+        }
+        for (int neighbour : neighbours) {
+            int height = this.heights[neighbour];
+            if (Math.abs(oldHeight - height) > 1
+                    && Math.abs(newHeight - height) <= 1) {
+                this.join(id, neighbour);
+            }
+        }
+    }
+
+    @Override
+    public void exitChanged(Tile tile, String name, Tile old) {
+        int id = tile.id;
+        Tile target = tile.getExits().get(name);
+        if (target == old) {
+            return;
+        }
+        int oldId = this.idOf(old);
+        if (oldId >= 0 && oldId != id) {
+            this.removeIncoming(id, oldId);
+        }
+        int targetId = this.addIncoming(id, target);
+        if (oldId >= 0 && oldId != id && this.walkable(id, oldId)
+                && this.hasExit(oldId, id) && !this.linked(id, oldId)) {
+            this.split(id, oldId);
+        }
+        if (targetId >= 0 && this.walkable(id, targetId)
+                && this.hasExit(targetId, id)) {
+            this.join(id, targetId);
+        }
+    }
+
+    @Override
+    public void tileChanged(int id, Tile old) {
+        if (old != null || id > this.size) {
+            // Replacing a tile or skipping ids can break any number of
+            // joins, so start again.
+            this.rebuild();
+            return;
+        }
+        if (id == this.size) {
+            this.grow(id + 1);
+            this.size = id + 1;
+        }
+        Tile tile = this.world.getTile(id);
+        this.heights[id] = tile.getColumn().height();
+        this.labels[id] = this.newLabel();
+        this.sizes[this.labels[id]] = 1;
+        for (Tile target : tile.getExits().values()) {
+            int targetId = this.addIncoming(id, target);
+            if (targetId >= 0 && this.walkable(id, targetId)
+                    && this.hasExit(targetId, id)) {
+                this.join(id, targetId);
+            }
+        }
+    }
+
+    /**
+     * Helper method to find the id of a tile in the indexed world.
+     */
+    private int idOf(Tile tile) {
+        int id = this.world.getId(tile);
+        return id < this.size ? id : -1;
+    }
+
+    /**
+     * Whether the heights of two tiles let a builder step between them.
+     */
+    private boolean walkable(int a, int b) {
+        return Math.abs(this.heights[a] - this.heights[b]) <= 1;
+    }
+
+    /**
+     * Whether each tile still has an exit to the other.
+     */
+    private boolean linked(int a, int b) {
+        return this.hasExit(a, b) && this.hasExit(b, a);
+    }
+
+    /**
+     * Whether one tile has an exit to another.
+     */
+    private boolean hasExit(int from, int to) {
+        return this.world.getTile(from).getExits().containsValue(
+            this.world.getTile(to));
+    }
+
+    /**
+     * Records an exit from a tile to a target, if the target is indexed.
+     *
+     * @return the target's id, or -1 if it is not indexed.
+     */
+    private int addIncoming(int from, Tile target) {
+        int to = this.idOf(target);
+        if (to < 0 || to == from) {
+            return -1;
+        }
+        int[] sources = this.incoming[to];
+        int count = this.incomingCounts[to];
+        if (sources == null) {
+            sources = new int[4];
+        } else if (count == sources.length) {
+            sources = Arrays.copyOf(sources, count * 2);
+        }
+        sources[count] = from;
+        this.incoming[to] = sources;
+        this.incomingCounts[to] = count + 1;
+        return to;
+    }
+
+    /**
+     * Forgets one exit from a tile to a target.
+     */
+    private void removeIncoming(int from, int to) {
+        int[] sources = this.incoming[to];
+        int count = this.incomingCounts[to];
+        for (int i = 0; i < count; i++) {
+            if (sources[i] == from) {
+                sources[i] = sources[count - 1];
+                this.incomingCounts[to] = count - 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds tiles with exits to and from a tile, into found.
+     *
+     * @param walkableOnly only include tiles a builder could step to.
+     * @return number of tiles found, which may include repeats.
+     */
+    private int neighbours(int id, boolean walkableOnly) {
+        int count = 0;
+        int[] sources = this.incoming[id];
+        int sourceCount = this.incomingCounts[id];
+        for (Tile target : this.world.getTile(id).getExits().values()) {
+            int to = this.idOf(target);
+            if (to >= 0 && to != id && contains(sources, sourceCount, to)
+                    && (!walkableOnly || this.walkable(id, to))) {
+                count = this.found(count, to);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Whether the first count entries of ids include id.
+     */
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends to found, growing it if needed.
+     */
+    private int found(int count, int id) {
+        if (count == this.found.length) {
+            this.found = Arrays.copyOf(this.found, count * 2);
+        }
+        this.found[count] = id;
+        return count + 1;
+    }
+
+    /**
+     * Merges the components of two newly joined tiles.
+     */
+    private void join(int a, int b) {
+        int labelA = this.labels[a];
+        int labelB = this.labels[b];
+        if (labelA == labelB) {
+            return;
+        }
+        if (this.sizes[labelA] > this.sizes[labelB]) {
+            this.relabel(b, labelB, labelA);
+        } else {
+            this.relabel(a, labelA, labelB);
+        }
+    }
+
+    /**
+     * Moves every tile of one component, found by searching from start, to
+     * another component's label.
+     */
+    private void relabel(int start, int from, int to) {
+        int[] queue = this.first;
+        int head = 0;
+        int tail = 0;
+        this.labels[start] = to;
+        queue[tail++] = start;
+        while (head < tail) {
+            int count = this.neighbours(queue[head++], true);
+            for (int i = 0; i < count; i++) {
+                int next = this.found[i];
+                if (this.labels[next] == from) {
+                    this.labels[next] = to;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        this.sizes[to] += this.sizes[from];
+        this.freeLabel(from);
+    }
+
+    /**
+     * Labels every tile reachable from start, which must be unlabelled.
+     */
+    private void labelFrom(int start, int label) {
+        int[] queue = this.first;
+        int head = 0;
+        int tail = 0;
+        this.labels[start] = label;
+        queue[tail++] = start;
+        while (head < tail) {
+            int count = this.neighbours(queue[head++], true);
+            for (int i = 0; i < count; i++) {
+                int next = this.found[i];
+                if (this.labels[next] < 0) {
+                    this.labels[next] = label;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        this.sizes[label] = tail;
+    }
+
+    /**
+     * Splits a component if two tiles which lost their join are no longer
+     * connected. Searches from both tiles a step at a time; the first
+     * search to run out has found a whole component. Only tiles with the
+     * component's label are searched, so joins not yet merged are ignored.
+     */
+    private void split(int a, int b) {
+        int label = this.labels[a];
+        if (label != this.labels[b]) {
+            return;
+        }
+        if (this.stamp > Integer.MAX_VALUE - 2) {
+            Arrays.fill(this.marks, 0);
+            this.stamp = 0;
+        }
+        this.stamp += 2;
+        int markA = this.stamp;
+        int markB = this.stamp + 1;
+        int[] queueA = this.first;
+        int[] queueB = this.second;
+        int headA = 0;
+        int tailA = 0;
+        int headB = 0;
+        int tailB = 0;
+        this.marks[a] = markA;
+        this.marks[b] = markB;
+        queueA[tailA++] = a;
+        queueB[tailB++] = b;
+        while (true) {
+            if (headA == tailA) {
+                this.splitOff(queueA, tailA);
+                return;
+            }
+            int count = this.neighbours(queueA[headA++], true);
+            for (int i = 0; i < count; i++) {
+                int next = this.found[i];
+                if (this.marks[next] == markB) {
+                    return; // Still connected.
+                }
+                if (this.marks[next] != markA && this.labels[next] == label) {
+                    this.marks[next] = markA;
+                    queueA[tailA++] = next;
+                }
+            }
+
+            if (headB == tailB) {
+                this.splitOff(queueB, tailB);
+                return;
+            }
+            count = this.neighbours(queueB[headB++], true);
+            for (int i = 0; i < count; i++) {
+                int next = this.found[i];
+                if (this.marks[next] == markA) {
+                    return;
+                }
+                if (this.marks[next] != markB && this.labels[next] == label) {
+                    this.marks[next] = markB;
+                    queueB[tailB++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the first count tiles of a queue to a new component.
+     */
+    private void splitOff(int[] queue, int count) {
+        int old = this.labels[queue[0]];
+        int label = this.newLabel();
+        for (int i = 0; i < count; i++) {
+            this.labels[queue[i]] = label;
+        }
+        this.sizes[label] = count;
+        this.sizes[old] -= count;
+    }
+
+    /**
+     * Takes an unused label, counting a new component.
+     */
+    private int newLabel() {
+        this.components++;
+        if (this.freeCount > 0) {
+            return this.freeLabels[--this.freeCount];
+        }
+        if (this.labelCount == this.sizes.length) {
+            this.sizes = Arrays.copyOf(this.sizes,
+                Math.max(16, this.labelCount * 2));
+        }
+        return this.labelCount++;
+    }
+
+    /**
+     * Returns a label no component uses any more.
+     */
+    private void freeLabel(int label) {
+        this.components--;
+        this.sizes[label] = 0;
+        if (this.freeCount == this.freeLabels.length) {
+            this.freeLabels = Arrays.copyOf(this.freeLabels,
+                Math.max(16, this.freeCount * 2));
+        }
+        this.freeLabels[this.freeCount++] = label;
+    }
+
+    /**
+     * Makes room for at least size ids.
+     */
+    private void grow(int size) {
+        if (size <= this.labels.length) {
+            return;
+        }
+        int old = this.labels.length;
+        int capacity = Math.max(size, old + (old >> 1));
+        this.labels = Arrays.copyOf(this.labels, capacity);
+        Arrays.fill(this.labels, old, capacity, -1);
+        this.heights = Arrays.copyOf(this.heights, capacity);
+        this.incoming = Arrays.copyOf(this.incoming, capacity);
+        this.incomingCounts = Arrays.copyOf(this.incomingCounts, capacity);
+        this.marks = Arrays.copyOf(this.marks, capacity);
+        this.first = new int[capacity];
+        this.second = new int[capacity];
+    }
+}
@@ -0,0 +1,797 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs actions on a {@link World} with one actor per region, each owning
+ * its region's tiles and the builders standing on them.
+ *
+ * <p> An actor works through a mailbox of operations one at a time on a
+ * shared thread pool, so tiles need no locks and different regions run
+ * on different cores. Every operation returns a future {@link Action}
+ * outcome code. Mailboxes hold a bounded number of operations from
+ * callers, who wait when a region's mailbox is full, so a hotspot region
+ * slows its own callers rather than everyone.
+ *
+ * <p> An action reaching across regions, a block move or builder move
+ * through an exit into another region, is a message exchange. The source
+ * actor freezes its tile, holding back later operations on it or reaching
+ * onto it from the same region, and sends the action to the target
+ * region's actor, which does it in full, since the frozen tile cannot
+ * change meanwhile, and replies. If the target
+ * tile is itself frozen, the action waits for it only when reaching from
+ * a lower tile id to a higher one. Otherwise the target actor replies
+ * busy and the source actor queues the action again. Waits thus always
+ * go up in id and can never form a cycle, and of two tiles reaching
+ * towards each other one always gets through.
+ *
+ * <p> Each builder's operations are done one at a time in the order they
+ * were submitted, by whichever actor owns the builder when its turn
+ * comes, so pipelined operations never overtake each other as the
+ * builder moves between regions.
+ *
+ * <p> While running, only actors may touch the world's tiles and the
+ * builders entered. Listeners and recorders on the world are called from
+ * pool threads and must be thread safe.
+ */
+public class RegionActors implements AutoCloseable {
+
+    /** Most operations an actor does before letting others run. */
+    private static final int BATCH = 64;
+    /** Reply from a target actor whose tile is frozen. */
+    private static final int RETRY = -1;
+
+    /** The world acted on. */
+    private final World world;
+    /** Runs actors. */
+    private final ExecutorService pool;
+    /** Actor of each region. */
+    private final Actor[] actors;
+    /** Home of each entered builder. */
+    private final ConcurrentMap<Builder, Home> homes =
+        new ConcurrentHashMap<Builder, Home>();
+    /** Replies not yet completed, cancelled on closing. */
+    private final Set<Reply> pending =
+        Collections.newSetFromMap(new ConcurrentHashMap<Reply, Boolean>());
+    /** Whether the actors were closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates an actor for every region of a world.
+     *
+     * @param world    the world, whose regions must not change while the
+     *                 actors run.
+     * @param threads  threads to run actors on, must be positive.
+     * @param capacity caller operations each mailbox holds before callers
+     *                 wait, must be positive.
+     */
+    public RegionActors(World world, int threads, int capacity) {
+        if (threads <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.world = world;
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.actors = new Actor[world.getRegionCount()];
+        for (int region = 0; region < this.actors.length; region++) {
+            this.actors[region] = new Actor(capacity);
+        }
+    }
+
+    /**
+     * Places a block on a tile, as {@link Tile#placeBlock(Block)}.
+     *
+     * @param id    tile id.
+     * @param block the block.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> placeBlock(final int id, final Block block)
+            throws InterruptedException {
+        return this.submit(this.actorOf(id), new TileOp(id) {
+            int run(Tile tile) throws BlockWorldException {
+                tile.placeBlock(block);
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Digs on a tile, as {@link Tile#dig()}.
+     *
+     * @param id tile id.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> dig(int id) throws InterruptedException {
+        return this.submit(this.actorOf(id), new TileOp(id) {
+            int run(Tile tile) throws BlockWorldException {
+                tile.dig();
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Moves the top block of a tile through an exit, as
+     * {@link Tile#moveBlock(String)}.
+     *
+     * @param id       tile id.
+     * @param exitName name of the exit.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> moveBlock(final int id, final String exitName)
+            throws InterruptedException {
+        return this.submit(this.actorOf(id), new TileOp(id) {
+            int run(Tile tile) throws BlockWorldException {
+                Tile target = exitName == null
+                    ? null : tile.getExits().get(exitName);
+                Actor there = this.actorOf(target);
+                if (there != null && there != this.actor) {
+                    this.reach(there, target);
+                    return RETRY;
+                }
+                if (this.holdFor(target)) {
+                    return RETRY;
+                }
+                tile.moveBlock(exitName);
+                return Action.OK;
+            }
+
+            int across(Tile tile) throws BlockWorldException {
+                tile.moveBlock(exitName);
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Hands a builder to the actor of its tile. Builders must be entered
+     * before being used through these actors, and left before being used
+     * directly again.
+     *
+     * @param builder the builder, on one of the world's tiles.
+     * @return the future outcome, always OK.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> enter(final Builder builder)
+            throws InterruptedException {
+        Home home = new Home(this.actorOf(builder.getCurrentTile().id));
+        if (this.homes.putIfAbsent(builder, home) != null) {
+            throw new IllegalArgumentException("Builder already entered");
+        }
+        return this.submit(home, new Op() {
+            int run() {
+                this.actor.builders.put(builder, builder.getCurrentTile());
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Takes a builder back from the actors, once its earlier operations
+     * are done.
+     *
+     * @param builder an entered builder.
+     * @return the future outcome, always OK.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> leave(final Builder builder)
+            throws InterruptedException {
+        return this.submit(this.homeOf(builder), new BuilderOp(builder) {
+            int run(Tile tile) {
+                this.actor.builders.remove(builder);
+                RegionActors.this.homes.remove(builder);
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Moves a builder through an exit of its tile, as
+     * {@link Builder#moveTo(Tile)}.
+     *
+     * @param builder  an entered builder.
+     * @param exitName name of the exit.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> moveTo(final Builder builder,
+            final String exitName) throws InterruptedException {
+        return this.submit(this.homeOf(builder), new BuilderOp(builder) {
+            int run(Tile tile) throws BlockWorldException {
+                Tile target = exitName == null
+                    ? null : tile.getExits().get(exitName);
+                Actor there = this.actorOf(target);
+                if (there != null && there != this.actor) {
+                    this.reach(there, target);
+                    return RETRY;
+                }
+                if (this.holdFor(target)) {
+                    return RETRY;
+                }
+                builder.moveTo(target);
+                this.actor.builders.put(builder, target);
+                return Action.OK;
+            }
+
+            int across(Tile tile) throws BlockWorldException {
+                Tile target = tile.getExits().get(exitName);
+                builder.moveTo(target);
+                // Moved onto this actor's tile: it owns the builder now.
+                this.there.builders.put(builder, target);
+                this.home.actor = this.there;
+                return Action.OK;
+            }
+
+            void done(int outcome) {
+                if (outcome == Action.OK && this.there != null) {
+                    // Handed over to the target region's actor.
+                    this.actor.builders.remove(builder);
+                }
+            }
+        });
+    }
+
+    /**
+     * Digs with a builder, as {@link Builder#digOnCurrentTile()}.
+     *
+     * @param builder an entered builder.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> digOnCurrentTile(final Builder builder)
+            throws InterruptedException {
+        return this.submit(this.homeOf(builder), new BuilderOp(builder) {
+            int run(Tile tile) throws BlockWorldException {
+                builder.digOnCurrentTile();
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Drops a block with a builder, as
+     * {@link Builder#dropFromInventory(int)}.
+     *
+     * @param builder an entered builder.
+     * @param index   inventory index.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> dropFromInventory(final Builder builder,
+            final int index) throws InterruptedException {
+        return this.submit(this.homeOf(builder), new BuilderOp(builder) {
+            int run(Tile tile) throws BlockWorldException {
+                builder.dropFromInventory(index);
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Moves the top block of a builder's tile through an exit, as
+     * {@link Tile#moveBlock(String)} on the builder's current tile.
+     *
+     * @param builder  an entered builder.
+     * @param exitName name of the exit.
+     * @return the future outcome.
+     * @throws InterruptedException if interrupted while the mailbox is full.
+     */
+    public Future<Integer> moveBlock(final Builder builder,
+            final String exitName) throws InterruptedException {
+        return this.submit(this.homeOf(builder), new BuilderOp(builder) {
+            int run(Tile tile) throws BlockWorldException {
+                Tile target = exitName == null
+                    ? null : tile.getExits().get(exitName);
+                Actor there = this.actorOf(target);
+                if (there != null && there != this.actor) {
+                    this.reach(there, target);
+                    return RETRY;
+                }
+                if (this.holdFor(target)) {
+                    return RETRY;
+                }
+                tile.moveBlock(exitName);
+                return Action.OK;
+            }
+
+            int across(Tile tile) throws BlockWorldException {
+                tile.moveBlock(exitName);
+                return Action.OK;
+            }
+        });
+    }
+
+    /**
+     * Stops the actors. Operations not yet done are dropped and their
+     * futures cancelled.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.pool.shutdownNow();
+        for (Reply reply : this.pending) {
+            reply.cancel(false);
+        }
+    }
+
+    /**
+     * Queues a caller's operation, waiting while the mailbox is full.
+     */
+    private Future<Integer> submit(Actor actor, Op op)
+            throws InterruptedException {
+        if (this.accept(actor, op)) {
+            actor.send(op);
+        }
+        return op.reply;
+    }
+
+    /**
+     * Queues a caller's operation on a builder behind the builder's
+     * earlier ones, waiting while the mailbox of its actor is full.
+     */
+    private Future<Integer> submit(Home home, Op op)
+            throws InterruptedException {
+        op.home = home;
+        if (this.accept(home.actor, op)) {
+            home.waiting.add(op);
+            if (home.unfinished.getAndIncrement() == 0) {
+                home.actor.send(home.waiting.poll());
+            }
+        }
+        return op.reply;
+    }
+
+    /**
+     * Takes a mailbox permit for a caller's operation, cancelling it
+     * instead once closed.
+     *
+     * @return whether the operation is to be sent.
+     */
+    private boolean accept(Actor actor, Op op) throws InterruptedException {
+        actor.permits.acquire();
+        op.permit = actor.permits;
+        this.pending.add(op.reply);
+        if (this.closed) {
+            op.reply.cancel(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the actor owning a tile id.
+     */
+    private Actor actorOf(int id) {
+        if (id < 0 || id >= this.world.size()) {
+            throw new IllegalArgumentException("No tile " + id);
+        }
+        return this.actors[this.world.regionOf(id)];
+    }
+
+    /**
+     * Gets the home of an entered builder.
+     */
+    private Home homeOf(Builder builder) {
+        Home home = this.homes.get(builder);
+        if (home == null) {
+            throw new IllegalArgumentException("Builder not entered");
+        }
+        return home;
+    }
+
+    /** Where an entered builder is, and its operations in order. */
+    private final class Home {
+
+        /** Actor owning the builder, set by the actor taking it over. */
+        volatile Actor actor;
+        /** Operations waiting for the builder's earlier ones to finish. */
+        final Queue<Op> waiting = new ConcurrentLinkedQueue<Op>();
+        /** Operations submitted and not yet finished. */
+        final AtomicInteger unfinished = new AtomicInteger();
+
+        Home(Actor actor) {
+            this.actor = actor;
+        }
+    }
+
+    /** A region's actor. */
+    private final class Actor implements Runnable {
+
+        /** Operations and replies waiting to be handled. */
+        private final Queue<Op> mailbox = new ConcurrentLinkedQueue<Op>();
+        /** Free places for caller operations in the mailbox. */
+        private final Semaphore permits;
+        /** Whether this actor is queued on or running in the pool. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Builders on this region's tiles, with the tile each is on. Only
+         * touched by this actor, so it is read here rather than from the
+         * builder, which the next actor may already have moved on.
+         */
+        private final Map<Builder, Tile> builders =
+            new HashMap<Builder, Tile>();
+        /**
+         * Operations held back on each frozen tile, in arrival order. A tile
+         * is frozen while it has an entry, even an empty one.
+         */
+        private final Map<Integer, ArrayDeque<Op>> frozen =
+            new HashMap<Integer, ArrayDeque<Op>>();
+
+        Actor(int capacity) {
+            this.permits = new Semaphore(capacity);
+        }
+
+        /**
+         * Queues an operation, scheduling this actor if it is idle.
+         */
+        void send(Op op) {
+            this.mailbox.add(op);
+            if (this.scheduled.compareAndSet(false, true)) {
+                RegionActors.this.pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Op op = this.mailbox.poll();
+                if (op == null) {
+                    break;
+                }
+                if (op.permit != null) {
+                    op.permit.release();
+                    op.permit = null;
+                }
+                op.handle(this);
+            }
+            this.scheduled.set(false);
+            // Anything sent after the last poll must not be stranded.
+            if (!this.mailbox.isEmpty()
+                    && this.scheduled.compareAndSet(false, true)) {
+                RegionActors.this.pool.execute(this);
+            }
+        }
+
+        /**
+         * Lets a frozen tile change again, first doing the operations held
+         * back on it in order, unless one of them freezes it again.
+         */
+        void thaw(int id) {
+            ArrayDeque<Op> waiting = this.frozen.remove(id);
+            while (waiting != null && !waiting.isEmpty()) {
+                waiting.remove().handle(this);
+                ArrayDeque<Op> again = this.frozen.get(id);
+                if (again != null) {
+                    again.addAll(waiting);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * An operation, also carrying itself to a second actor and back when it
+     * reaches across regions.
+     */
+    private abstract class Op {
+
+        /** Future outcome for the caller. */
+        final Reply reply = new Reply();
+        /** Mailbox permits this op still holds one of, if any. */
+        Semaphore permit;
+        /** Home of the builder this op is on, if any. */
+        Home home;
+        /** The source actor, set while handling. */
+        Actor actor;
+        /** The target actor while reaching across regions. */
+        Actor there;
+        /** The source tile while reaching across regions. */
+        Tile frozenTile;
+        /** The target tile while reaching across regions. */
+        Tile targetTile;
+        /** Outcome sent back from the target actor. */
+        int answer;
+        /** Stage: 0 at the source, 1 at the target, 2 back at the source. */
+        int stage;
+
+        /**
+         * Handles this operation at whichever stage it is at.
+         */
+        void handle(Actor current) {
+            switch (this.stage) {
+                case 0:
+                    this.actor = current;
+                    this.there = null;
+                    this.start();
+                    break;
+                case 1:
+                    this.atTarget();
+                    break;
+                default:
+                    this.returned();
+                    break;
+            }
+        }
+
+        /**
+         * Starts the operation at the source actor.
+         */
+        void start() {
+            this.finish(this.run());
+        }
+
+        /**
+         * Does the operation entirely at the source actor.
+         *
+         * @return the outcome, or RETRY if it was sent across regions.
+         */
+        abstract int run();
+
+        /**
+         * Does a cross-region operation at the target actor, the source
+         * tile being frozen.
+         */
+        int across(Tile tile) throws BlockWorldException {
+            throw new AssertionError();
+        }
+
+        /**
+         * Called at the source actor with the final outcome.
+         */
+        void done(int outcome) {
+        }
+
+        /**
+         * Freezes the source tile and sends this to another actor.
+         */
+        void reach(Actor target, Tile tile) {
+            this.there = target;
+            this.actor.frozen.put(this.frozenTile.id, new ArrayDeque<Op>());
+            this.stage = 1;
+            this.targetTile = tile;
+            target.send(this);
+        }
+
+        /**
+         * Holds this back until a tile of the source actor thaws, if it is
+         * frozen, so the tile is not changed under a cross-region action.
+         *
+         * @return true if held back, to be started again on thawing.
+         */
+        boolean holdFor(Tile tile) {
+            ArrayDeque<Op> waiting =
+                tile == null ? null : this.actor.frozen.get(tile.id);
+            if (waiting == null) {
+                return false;
+            }
+            waiting.add(this);
+            return true;
+        }
+
+        /**
+         * Runs at the target actor.
+         */
+        private void atTarget() {
+            ArrayDeque<Op> waiting = this.there.frozen.get(this.targetTile.id);
+            if (waiting != null && this.frozenTile.id < this.targetTile.id) {
+                waiting.add(this); // Handled again once the target thaws.
+                return;
+            }
+            if (waiting != null) {
+                this.answer = RETRY;
+            } else {
+                try {
+                    this.answer = this.across(this.frozenTile);
+                } catch (BlockWorldException e) {
+                    this.answer = Action.outcomeOf(e);
+                }
+            }
+            this.stage = 2;
+            this.actor.send(this);
+        }
+
+        /**
+         * Runs back at the source actor.
+         */
+        private void returned() {
+            Tile tile = this.frozenTile;
+            if (this.answer == RETRY) {
+                this.stage = 0;
+                this.actor.send(this); // Try again after what is queued.
+            } else {
+                this.finish(this.answer);
+            }
+            this.actor.thaw(tile.id);
+        }
+
+        /**
+         * Completes the operation unless it went across regions, then
+         * sends the builder's next operation, if any, to its actor.
+         */
+        void finish(int outcome) {
+            if (outcome != RETRY) {
+                this.done(outcome);
+                this.reply.complete(outcome);
+                RegionActors.this.pending.remove(this.reply);
+                if (this.home != null
+                        && this.home.unfinished.decrementAndGet() > 0) {
+                    this.home.actor.send(this.home.waiting.poll());
+                }
+            }
+        }
+
+        /**
+         * Gets the actor owning a tile, or null for a tile outside the
+         * world.
+         */
+        Actor actorOf(Tile tile) {
+            int id = RegionActors.this.world.getId(tile);
+            return id < 0 ? null : RegionActors.this.actors[
+                RegionActors.this.world.regionOf(id)];
+        }
+    }
+
+    /** An operation on one tile. */
+    private abstract class TileOp extends Op {
+
+        /** The tile's id. */
+        private final int id;
+
+        TileOp(int id) {
+            this.id = id;
+        }
+
+        @Override
+        void start() {
+            Tile tile = RegionActors.this.world.getTile(this.id);
+            ArrayDeque<Op> waiting = this.actor.frozen.get(this.id);
+            if (waiting != null) {
+                waiting.add(this);
+                return;
+            }
+            this.frozenTile = tile;
+            try {
+                // Nothing to reach on an unused id, as with a missing exit.
+                this.finish(tile == null ? Action.NO_EXIT : this.run(tile));
+            } catch (BlockWorldException e) {
+                this.finish(Action.outcomeOf(e));
+            }
+        }
+
+        @Override
+        int run() {
+            throw new AssertionError();
+        }
+
+        /**
+         * Does the operation on the tile.
+         */
+        abstract int run(Tile tile) throws BlockWorldException;
+    }
+
+    /** An operation by a builder, on the builder's tile. */
+    private abstract class BuilderOp extends Op {
+
+        /** The builder. */
+        private final Builder builder;
+
+        BuilderOp(Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        void start() {
+            Tile tile = this.actor.builders.get(this.builder);
+            Home home = RegionActors.this.homes.get(this.builder);
+            if (tile == null || home != this.home) {
+                this.finish(Action.NO_EXIT); // Left meanwhile.
+                return;
+            }
+            ArrayDeque<Op> waiting = this.actor.frozen.get(tile.id);
+            if (waiting != null) {
+                waiting.add(this);
+                return;
+            }
+            this.frozenTile = tile;
+            try {
+                this.finish(this.run(tile));
+            } catch (BlockWorldException e) {
+                this.finish(Action.outcomeOf(e));
+            }
+        }
+
+        @Override
+        int run() {
+            throw new AssertionError();
+        }
+
+        /**
+         * Does the operation, the builder being on this actor's tile.
+         */
+        abstract int run(Tile tile) throws BlockWorldException;
+    }
+
+    /** A future completed by an actor, or cancelled. */
+    private static final class Reply implements Future<Integer> {
+
+        /** Opened once completed or cancelled. */
+        private final CountDownLatch latch = new CountDownLatch(1);
+        /** Taken by whichever of completing and cancelling comes first. */
+        private final AtomicBoolean taken = new AtomicBoolean();
+        /** The outcome, null if cancelled. */
+        private Integer outcome;
+
+        /**
+         * Completes the future, unless cancelled.
+         */
+        void complete(int outcome) {
+            if (this.taken.compareAndSet(false, true)) {
+                this.outcome = outcome;
+                this.latch.countDown();
+            }
+        }
+
+        /**
+         * Cancels the future. The operation itself is not stopped.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!this.taken.compareAndSet(false, true)) {
+                return false;
+            }
+            this.latch.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.isDone() && this.outcome == null;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.latch.getCount() == 0;
+        }
+
+        @Override
+        public Integer get() throws InterruptedException {
+            this.latch.await();
+            return this.result();
+        }
+
+        @Override
+        public Integer get(long timeout, TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            if (!this.latch.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return this.result();
+        }
+
+        private Integer result() {
+            if (this.outcome == null) {
+                throw new CancellationException();
+            }
+            return this.outcome;
+        }
+    }
+}
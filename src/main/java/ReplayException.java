@@ -0,0 +1,29 @@
+/**
+ * Exception thrown when a replayed action does not give the recorded
+ * result.
+ */
+public class ReplayException extends Exception {
+
+    /** Number of the action which differed, starting from 1. */
+    private final long action;
+
+    /**
+     * Creates an exception for a difference at a given action.
+     *
+     * @param action  number of the action, starting from 1.
+     * @param message description of the difference.
+     */
+    public ReplayException(long action, String message) {
+        super("action " + action + ": " + message);
+        this.action = action;
+    }
+
+    /**
+     * Gets the number of the action which differed.
+     *
+     * @return action number, starting from 1.
+     */
+    public long getAction() {
+        return this.action;
+    }
+}
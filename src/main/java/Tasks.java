@@ -0,0 +1,158 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for running tasks on a thread pool and waiting on them.
+ */
+final class Tasks {
+
+    /** Fewest ids worth giving a thread of their own. */
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private Tasks() {}
+
+    /**
+     * Runs work over ids 0 up to size, split into chunks across threads,
+     * or in one go on the calling thread when there are too few ids to be
+     * worth splitting.
+     *
+     * @param size    number of ids.
+     * @param threads number of threads, must be positive.
+     * @param chunk   the work on one chunk of ids.
+     * @return the result of each chunk, in id order.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    static <T> List<T> runChunks(int size, int threads,
+            final Chunk<T> chunk) throws InterruptedException {
+        int chunks = (int) Math.min(threads * 4L,
+            Math.max(1, size / MIN_CHUNK));
+        List<T> results = new ArrayList<T>();
+        if (threads == 1 || chunks == 1) {
+            results.add(chunk.run(0, size));
+            return results;
+        }
+        List<Callable<T>> tasks = new ArrayList<Callable<T>>();
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int) ((long) size * i / chunks);
+            final int to = (int) ((long) size * (i + 1) / chunks);
+            tasks.add(new Callable<T>() {
+                public T call() {
+                    return chunk.run(from, to);
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<T> result : pool.invokeAll(tasks)) {
+                results.add(getResult(result));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Produces results 0 up to count on worker threads and consumes them
+     * on the calling thread in index order, as they become ready. Only a
+     * few results more than there are threads are produced ahead of the
+     * one being consumed, bounding memory while keeping every worker busy.
+     *
+     * @param count    number of results.
+     * @param threads  number of worker threads, must be positive.
+     * @param checked  the checked exceptions the pipeline may throw.
+     * @param pipeline produces and consumes the results.
+     * @throws X                    if producing or consuming threw one.
+     * @throws InterruptedException if interrupted while waiting for workers.
+     */
+    static <T, X extends Exception> void runPipeline(int count, int threads,
+            Class<X> checked, final Pipeline<T, X> pipeline)
+            throws X, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+            int next = 0;
+            while (next < count || !pending.isEmpty()) {
+                while (next < count && pending.size() < 2 * threads) {
+                    final int index = next++;
+                    pending.add(pool.submit(new Callable<T>() {
+                        public T call() throws Exception {
+                            return pipeline.produce(index);
+                        }
+                    }));
+                }
+                pipeline.consume(getResult(pending.remove(), checked));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for a task's result, rethrowing anything the task threw. For
+     * tasks which throw nothing checked.
+     *
+     * @param future the task.
+     * @return the task's result.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    static <T> T getResult(Future<T> future) throws InterruptedException {
+        return getResult(future, RuntimeException.class);
+    }
+
+    /**
+     * Waits for a task's result, rethrowing anything the task threw.
+     *
+     * @param future  the task.
+     * @param checked the checked exceptions the task may throw.
+     * @return the task's result.
+     * @throws X                    if the task threw one.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws AssertionError       if the task threw any other checked
+     *                              exception.
+     */
+    static <T, X extends Exception> T getResult(Future<T> future,
+            Class<X> checked) throws X, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (checked.isInstance(cause)) {
+                throw checked.cast(cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError(cause);
+        }
+    }
+
+    /** Work done on one chunk of ids. */
+    abstract static class Chunk<T> {
+        abstract T run(int from, int to);
+    }
+
+    /** Results produced on workers and consumed in order. */
+    abstract static class Pipeline<T, X extends Exception> {
+
+        /**
+         * Produces a result, on a worker thread.
+         */
+        abstract T produce(int index) throws X;
+
+        /**
+         * Uses a result, on the calling thread.
+         */
+        abstract void consume(T result) throws X;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Outcome of a bulk {@link Terraformer} operation for every tile in a range
+ * of ids.
+ *
+ * <p> Rules which would make a single edit throw, such as digging an
+ * undiggable block, are recorded here per tile instead.
+ */
+public final class TerraformResult {
+
+    /** The tile was changed and now meets the target. */
+    public static final int CHANGED = 0;
+    /** The tile already met the target. */
+    public static final int UNCHANGED = 1;
+    /** Digging stopped at a block which is not diggable. */
+    public static final int NOT_DIGGABLE = 2;
+    /** Filling stopped at the height limit for the block type. */
+    public static final int TOO_HIGH = 3;
+    /** There is no tile with the id. */
+    public static final int MISSING = 4;
+    /** Number of outcome codes. */
+    static final int OUTCOMES = 5;
+
+    /** First id covered. */
+    private final int from;
+    /** Outcome code of each tile, indexed by id - from. */
+    private final byte[] outcomes;
+    /** Number of tiles with each outcome. */
+    private final long[] counts;
+    /** Total number of blocks placed or removed. */
+    private final long blocksChanged;
+
+    TerraformResult(int from, byte[] outcomes, long[] counts,
+            long blocksChanged) {
+        this.from = from;
+        this.outcomes = outcomes;
+        this.counts = counts;
+        this.blocksChanged = blocksChanged;
+    }
+
+    /**
+     * Gets the outcome for one tile.
+     *
+     * @param id tile id, within the range operated on.
+     * @return one of the outcome codes in this class.
+     * @throws IndexOutOfBoundsException if id is outside the range.
+     */
+    public int getOutcome(int id) {
+        if (id < this.from || id - this.from >= this.outcomes.length) {
+            throw new IndexOutOfBoundsException("Id: " + id);
+        }
+        return this.outcomes[id - this.from];
+    }
+
+    /**
+     * Counts tiles with an outcome.
+     *
+     * @param outcome one of the outcome codes in this class.
+     * @return number of tiles with that outcome.
+     */
+    public long count(int outcome) {
+        return this.counts[outcome];
+    }
+
+    /**
+     * Number of tiles operated on.
+     *
+     * @return size of the id range.
+     */
+    public int size() {
+        return this.outcomes.length;
+    }
+
+    /**
+     * Total number of blocks placed or removed over every tile.
+     *
+     * @return block count.
+     */
+    public long getBlocksChanged() {
+        return this.blocksChanged;
+    }
+}
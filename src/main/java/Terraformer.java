@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bulk edits over ranges of tiles in a {@link World}, such as digging a
+ * region down to a layer or filling it up to a height.
+ *
+ * <p> Edits follow the same rules as {@link Tile#dig()} and
+ * {@link Tile#placeBlock(Block)}, but a tile which cannot be taken all the
+ * way to the target is taken as far as the rules allow and its outcome is
+ * recorded in the returned {@link TerraformResult}, rather than throwing.
+ *
+ * <p> New columns are worked out in parallel with fork/join, splitting the
+ * range until pieces are no bigger than a region. Columns are immutable
+ * and shared, so this touches no tile. The new columns are then swapped
+ * into the tiles on the calling thread, so the world's listeners see each
+ * change on that thread as for any other edit. Tiles in the range must not
+ * be changed by other threads during an operation.
+ */
+public class Terraformer {
+
+    /** Pool running the parallel part of each operation. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a terraformer using every available processor.
+     */
+    public Terraformer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a terraformer.
+     *
+     * @param threads worker threads to use, must be positive.
+     */
+    public Terraformer(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Stops the worker threads. The terraformer cannot be used afterwards.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * Digs every tile in a range of ids down to a layer, stopping early at
+     * any block which is not diggable. Dug blocks are discarded.
+     *
+     * @param world the world to edit.
+     * @param from  first id to edit.
+     * @param to    one past the last id to edit, at most world.size().
+     * @param layer height to dig down to, at least 0.
+     * @return the outcome for each tile.
+     */
+    public TerraformResult digDown(World world, int from, int to, int layer) {
+        if (layer < 0) {
+            throw new IllegalArgumentException("Negative layer");
+        }
+        return this.run(new Edit(world, from, to, layer, null));
+    }
+
+    /**
+     * Fills every tile in a range of ids with blocks of a type up to a
+     * height, stopping early at the height limit for that type.
+     *
+     * @param world  the world to edit.
+     * @param from   first id to edit.
+     * @param to     one past the last id to edit, at most world.size().
+     * @param height height to fill up to.
+     * @param type   type of block to place, cannot be null.
+     * @return the outcome for each tile.
+     */
+    public TerraformResult fill(World world, int from, int to, int height,
+            BlockType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("No block type");
+        }
+        return this.run(new Edit(world, from, to, height, type));
+    }
+
+    /**
+     * Works out every new column in parallel, then applies them.
+     */
+    private TerraformResult run(Edit edit) {
+        if (edit.from < 0 || edit.from > edit.to
+                || edit.to > edit.world.size()) {
+            throw new IndexOutOfBoundsException("Range: " + edit.from
+                + " to " + edit.to);
+        }
+        long[] counts = this.pool.invoke(new Split(edit, edit.from, edit.to));
+        for (int id = edit.from; id < edit.to; id++) {
+            Column column = edit.columns[id - edit.from];
+            if (column != null) {
+                edit.world.getTile(id).setColumn(column);
+            }
+        }
+        long changed = counts[TerraformResult.OUTCOMES];
+        counts = Arrays.copyOf(counts, TerraformResult.OUTCOMES);
+        return new TerraformResult(edit.from, edit.outcomes, counts, changed);
+    }
+
+    /** One bulk operation and the results being filled in. */
+    private static final class Edit {
+
+        /** The world being edited. */
+        private final World world;
+        /** First id to edit. */
+        private final int from;
+        /** One past the last id to edit. */
+        private final int to;
+        /** Layer to dig down to, or height to fill up to. */
+        private final int target;
+        /** Type of block to fill with, or null when digging. */
+        private final BlockType fillType;
+        /** Outcome of each tile, indexed by id - from. */
+        private final byte[] outcomes;
+        /** New column of each changed tile, indexed by id - from. */
+        private final Column[] columns;
+
+        Edit(World world, int from, int to, int target, BlockType fillType) {
+            this.world = world;
+            this.from = from;
+            this.to = to;
+            this.target = target;
+            this.fillType = fillType;
+            this.outcomes = new byte[Math.max(0, to - from)];
+            this.columns = new Column[Math.max(0, to - from)];
+        }
+
+        /**
+         * Works out one tile's new column and outcome.
+         *
+         * @return number of blocks placed or removed.
+         */
+        int apply(int id) {
+            Tile tile = this.world.getTile(id);
+            int index = id - this.from;
+            if (tile == null) {
+                this.outcomes[index] = TerraformResult.MISSING;
+                return 0;
+            }
+            Column start = tile.getColumn();
+            Column column = start;
+            int outcome;
+            if (this.fillType == null) {
+                while (column.height() > this.target
+                        && column.topType().is(BlockType.DIGGABLE)) {
+                    column = column.pop();
+                }
+                outcome = column.height() > this.target
+                    ? TerraformResult.NOT_DIGGABLE : TerraformResult.CHANGED;
+            } else {
+                int limit = tile.maxHeightFor(this.fillType);
+                Block block = this.fillType.getBlock();
+                while (column.height() < this.target
+                        && column.height() < limit) {
+                    column = column.push(block);
+                }
+                outcome = column.height() < this.target
+                    ? TerraformResult.TOO_HIGH : TerraformResult.CHANGED;
+            }
+            if (column == start) {
+                if (outcome == TerraformResult.CHANGED) {
+                    outcome = TerraformResult.UNCHANGED;
+                }
+            } else {
+                this.columns[index] = column;
+            }
+            this.outcomes[index] = (byte) outcome;
+            return Math.abs(column.height() - start.height());
+        }
+    }
+
+    /**
+     * Part of an operation's range, split in half until it is no bigger
+     * than a region. Returns the count of each outcome, followed by the
+     * number of blocks changed.
+     */
+    private static final class Split extends RecursiveTask<long[]> {
+
+        /** The operation. */
+        private final Edit edit;
+        /** First id of this part. */
+        private final int from;
+        /** One past the last id of this part. */
+        private final int to;
+
+        Split(Edit edit, int from, int to) {
+            this.edit = edit;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (this.to - this.from > this.edit.world.getRegionSize()) {
+                int middle = (this.from + this.to) >>> 1;
+                Split left = new Split(this.edit, this.from, middle);
+                left.fork();
+                long[] right = new Split(this.edit, middle, this.to).compute();
+                long[] counts = left.join();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += right[i];
+                }
+                return counts;
+            }
+            long[] counts = new long[TerraformResult.OUTCOMES + 1];
+            for (int id = this.from; id < this.to; id++) {
+                counts[TerraformResult.OUTCOMES] += this.edit.apply(id);
+                counts[this.edit.outcomes[id - this.edit.from]]++;
+            }
+            return counts;
+        }
+    }
+}
@@ -1,35 +1,73 @@
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Tiles for a map, representing a vertical stack of blocks.
  * Maintains a mapping to other tiles via certain exits.
+ *
+ * <p> The blocks and exits are immutable values swapped in whole, and the
+ * modification count works as a sequence lock: it is odd while a change
+ * is being made. Readers on other threads can read a tile without locking
+ * by taking the count first and checking with {@link #validate(long)}
+ * afterwards, reading again only if a change got in between. Changes are
+ * not locked: callers changing one tile from several threads must take
+ * turns, as {@link RegionActors} and {@link WorldShard} do.
  */
 public class Tile implements Serializable {
 
+    /** Column every default tile starts with: soil, soil, grass. */
+    private static final Column DEFAULT_COLUMN = Column.EMPTY
+        .push(BlockTypes.SOIL.getBlock()).push(BlockTypes.SOIL.getBlock())
+        .push(BlockTypes.GRASS.getBlock());
+
+    /** Exits of a tile which has never had any. */
+    private static final Map<String, Tile> NO_EXITS =
+        Collections.emptyMap();
+
     /**
-     * Blocks on the tile, first index is bottom-most. Marked final so
-     * reference does not change.
+     * Blocks on the tile, shared with every other tile holding the same
+     * blocks. Replaced, never modified, when the blocks change.
      */
-    private final List<Block> blocks = new ArrayList<Block>(); // TODO: Stack?
-    /** Exit mappings, from exit name to another tile. */
-    private final Map<String, Tile> exits = new HashMap<String, Tile>();
-    /** Maximum height of normal blocks on a tile. */
-    private static final int MAX_BLOCK_HEIGHT = 8;
-    /** Maximum height of ground blocks on a tile. */
-    private static final int MAX_GROUND_HEIGHT = 3;
+    private volatile Column column = Column.EMPTY;
+    /**
+     * Exit mappings, from exit name to another tile. Replaced by a changed
+     * copy, never modified, when the exits change.
+     */
+    private volatile Map<String, Tile> exits = NO_EXITS;
+    /** Read-only view of exits, made when first asked for. */
+    private transient Map<String, Tile> exitsView;
+    /** Read-only view of the blocks, made when first asked for. */
+    private transient List<Block> blocksView;
+    /** Id of this tile in its World, or -1 if it is in none. */
+    int id = -1;
+    /** World this tile is in, told about changes, or null if none. */
+    transient World world;
+    /**
+     * Modification count, increased whenever the blocks or exits change,
+     * and odd while they are being changed. Anything worked out from this
+     * tile is current while it is unchanged.
+     */
+    private volatile long epoch;
+    /** Maximum height of normal blocks on a tile in no world. */
+    static final int MAX_BLOCK_HEIGHT = 8;
+    /** Maximum height of ground blocks on a tile in no world. */
+    static final int MAX_GROUND_HEIGHT = 3;
 
     /**
      * Constructs a new tile with no exits, and with two soil blocks and then
      * a grass block.
      */
     public Tile() {
-        this.blocks.add(new SoilBlock());
-        this.blocks.add(new SoilBlock());
-        this.blocks.add(new GrassBlock());
+        // Blocks have no state of their own, so default tiles can all share
+        // the same blocks and column.
+        this.column = DEFAULT_COLUMN;
     }
 
     /**
@@ -64,23 +102,139 @@ public class Tile implements Serializable {
         }
     }
 
+    /**
+     * Constructs a new tile with no exits and the given column.
+     *
+     * @param column the tile's blocks.
+     */
+    Tile(Column column) {
+        this.column = column;
+    }
+
     /**
      * Possible exits from this tile.
      *
-     * @return mapping from exit directions to tiles, unordered.
+     * @return read-only mapping from exit directions to tiles, unordered.
+     *         Use addExit and removeExit to change exits.
      */
     public Map<String, Tile> getExits() {
-        return this.exits;
+        // Views hold no state of their own, so a racing duplicate is fine.
+        if (this.exitsView == null) {
+            this.exitsView = new ExitMap();
+        }
+        return this.exitsView;
     }
 
     /**
      * Blocks currently on this tile, with the first element being
      * the bottom-most block.
      *
-     * @return blocks on the tile.
+     * @return read-only live view of the blocks on the tile. Use placeBlock,
+     *         removeTopBlock and dig to change blocks.
      */
     public List<Block> getBlocks() {
-        return this.blocks;
+        if (this.blocksView == null) {
+            this.blocksView = new BlockList();
+        }
+        return this.blocksView;
+    }
+
+    /**
+     * Number of blocks on this tile, without going through getBlocks().
+     *
+     * @return the height.
+     */
+    int height() {
+        return this.column.height();
+    }
+
+    /**
+     * Gets the type of the block at a layer.
+     *
+     * @param layer layer index, 0 being the bottom-most block.
+     * @return the block's type.
+     * @throws IndexOutOfBoundsException if there is no block at that layer.
+     */
+    BlockType typeAt(int layer) {
+        if (layer < 0 || layer >= this.column.height()) {
+            throw new IndexOutOfBoundsException("Layer: " + layer);
+        }
+        return BlockTypes.of(this.column.get(layer));
+    }
+
+    /**
+     * Number of blocks of a type on this tile, without going through
+     * getBlocks(). Kept with the blocks, so it takes constant time.
+     *
+     * @param type the block type.
+     * @return the count, 0 if there are none.
+     */
+    int countOf(BlockType type) {
+        return this.column.count(type);
+    }
+
+    /**
+     * Whether any block on this tile is of a type.
+     *
+     * @param type the block type.
+     * @return true if the tile has such a block.
+     */
+    boolean contains(BlockType type) {
+        return this.column.count(type) > 0;
+    }
+
+    /**
+     * Number of ground blocks on this tile. The rest of height() are
+     * normal blocks.
+     *
+     * @return the ground block count.
+     */
+    int groundCount() {
+        return this.column.groundCount();
+    }
+
+    /**
+     * Number of exits from this tile, without going through getExits().
+     *
+     * @return the exit count.
+     */
+    int exitCount() {
+        return this.exits.size();
+    }
+
+    /**
+     * Whether any exit of this tile leads to a tile.
+     *
+     * @param target the tile to look for.
+     * @return true if an exit goes to target.
+     */
+    boolean hasExitTo(Tile target) {
+        return this.exits.containsValue(target);
+    }
+
+    /**
+     * Gets the height a block of some type can be placed below on this
+     * tile: its world's limit, or the default when it is in no world.
+     *
+     * @param type the block's type.
+     * @return the height limit.
+     */
+    int maxHeightFor(BlockType type) {
+        World world = this.world;
+        if (world == null) {
+            return type.isGround() ? MAX_GROUND_HEIGHT : MAX_BLOCK_HEIGHT;
+        }
+        return type.isGround()
+            ? world.getMaxGroundHeight() : world.getMaxBlockHeight();
+    }
+
+    /**
+     * Gets the shared column holding this tile's blocks.
+     *
+     * @return the column.
+     */
+    Column getColumn() {
+        return this.column;
     }
 
     /**
@@ -88,7 +242,7 @@ public class Tile implements Serializable {
      * tile.
      */
     private void ensureNonEmpty() throws TooLowException {
-        if (this.blocks.size() <= 0) {
+        if (this.column.height() <= 0) {
             throw new TooLowException();
         }
     }
@@ -102,7 +256,7 @@ public class Tile implements Serializable {
      */
     public Block getTopBlock() throws TooLowException {
         this.ensureNonEmpty();
-        return this.blocks.get(this.blocks.size()-1);
+        return this.column.top();
     }
 
     /**
@@ -112,7 +266,7 @@ public class Tile implements Serializable {
      */
     public void removeTopBlock() throws TooLowException {
         this.ensureNonEmpty();
-        this.blocks.remove(this.blocks.size()-1);
+        this.setColumn(this.column.pop());
     }
 
     /**
@@ -127,7 +281,7 @@ public class Tile implements Serializable {
         if (name == null || target == null) {
             throw new NoExitException();
         }
-        this.exits.put(name, target);
+        this.exitChanged(name, this.setExit(name, target));
     }
 
     /**
@@ -138,7 +292,7 @@ public class Tile implements Serializable {
      */
     public void removeExit(String name) throws NoExitException {
         this.ensureCanExit(name);
-        this.exits.remove(name);
+        this.exitChanged(name, this.setExit(name, null));
     }
 
     /**
@@ -152,6 +306,122 @@ public class Tile implements Serializable {
         }
     }
 
+    /**
+     * Removes every block and exit from this tile. Used when a tile's
+     * contents are replaced wholesale, for example by a map loader.
+     */
+    void clear() {
+        this.setColumn(Column.EMPTY);
+        for (String name : new ArrayList<String>(this.exits.keySet())) {
+            this.exitChanged(name, this.setExit(name, null));
+        }
+    }
+
+    /**
+     * Gets this tile's modification count. It increases every time the
+     * blocks or exits change, and never decreases, so a result worked out
+     * from this tile is still correct while the count is the same. Also
+     * the stamp for an optimistic read, see {@link #validate(long)}.
+     *
+     * @return the modification count.
+     */
+    long getEpoch() {
+        return this.epoch;
+    }
+
+    /**
+     * Checks nothing changed this tile since a count was taken, so that
+     * whatever was read from it in between is consistent.
+     *
+     * @param stamp modification count from {@link #getEpoch()}, taken
+     *              before reading.
+     * @return true if the reads hold, false if they must be done again.
+     */
+    boolean validate(long stamp) {
+        // Odd means a change was under way when the stamp was taken.
+        return (stamp & 1) == 0 && this.epoch == stamp;
+    }
+
+    /**
+     * Helper method to start a change, making the modification count odd.
+     */
+    private void beginChange() {
+        this.epoch++; // Changes take turns, so no other thread writes it.
+    }
+
+    /**
+     * Helper method to finish a change, making the modification count even.
+     */
+    private void endChange() {
+        this.epoch++;
+    }
+
+    /**
+     * Helper method to replace the exits with a copy having one exit set.
+     *
+     * @param target new target of the exit, or null to remove it.
+     * @return the exit's previous target, or null.
+     */
+    private Tile setExit(String name, Tile target) {
+        this.beginChange();
+        Map<String, Tile> exits = new HashMap<String, Tile>(this.exits);
+        Tile old = target == null
+            ? exits.remove(name) : exits.put(name, target);
+        this.exits = exits;
+        this.endChange();
+        return old;
+    }
+
+    /**
+     * Adds several exits at once, as addExit would one by one but copying
+     * the exits only once. Used by bulk builders.
+     *
+     * @param added exits to add, taken over by this tile; the caller must
+     *              not use the map afterwards. Names and targets must not
+     *              be null.
+     */
+    void addExits(Map<String, Tile> added) {
+        Map<String, Tile> old = this.exits;
+        Map<String, Tile> exits = added;
+        if (!old.isEmpty()) {
+            exits = new HashMap<String, Tile>(old);
+            exits.putAll(added);
+        }
+        this.beginChange();
+        this.exits = exits;
+        this.endChange();
+        for (Map.Entry<String, Tile> exit : added.entrySet()) {
+            this.exitChanged(exit.getKey(), old.get(exit.getKey()));
+        }
+    }
+
+    /**
+     * Replaces the blocks on this tile, telling the world. Bulk editors use
+     * this to apply columns they have worked out already.
+     *
+     * @param column the new blocks.
+     */
+    void setColumn(Column column) {
+        if (column == this.column) {
+            return;
+        }
+        this.beginChange();
+        this.column = column;
+        this.endChange();
+        if (this.world != null) {
+            this.world.blocksChanged(this);
+        }
+    }
+
+    /**
+     * Helper method to record a changed exit, telling the world.
+     */
+    private void exitChanged(String name, Tile old) {
+        if (this.world != null) {
+            this.world.exitChanged(this, name, old);
+        }
+    }
+
     /**
      * Attempts to dig and return the top block of the tile.
      *
@@ -161,7 +431,7 @@ public class Tile implements Serializable {
      */
     public Block dig() throws TooLowException, InvalidBlockException {
         Block topBlock = this.getTopBlock(); // Throws TooLow for us.
-        if (!topBlock.isDiggable()) {
+        if (!this.column.topType().is(BlockType.DIGGABLE)) {
             throw new InvalidBlockException();
         }
         this.removeTopBlock();
@@ -176,23 +446,46 @@ public class Tile implements Serializable {
      * tile mapped to by exitName.
      *
      * @param exitName the name of the exit to move the block to.
-     * @throws TooHighException      if the target's height is ≥ this height.
+     * @throws TooHighException      if the target's height is ≥ this height,
+     *                               or the target is at its height limit
+     *                               for our top block.
      * @throws InvalidBlockException if our top block is not moveable.
      * @throws NoExitException       if the exit is null or does not exist.
      */
     public void moveBlock(String exitName)
             throws TooHighException, InvalidBlockException, NoExitException {
+        ActionRecorder recorder = this.world == null
+            ? null : this.world.recorder;
+        if (recorder == null) {
+            this.move(exitName);
+            return;
+        }
+        try {
+            this.move(exitName);
+        } catch (BlockWorldException e) {
+            recorder.moveBlock(this, exitName, Action.outcomeOf(e));
+            throw e;
+        }
+        recorder.moveBlock(this, exitName, Action.OK);
+    }
+
+    /**
+     * Helper method doing the work of moveBlock.
+     */
+    private void move(String exitName)
+            throws TooHighException, InvalidBlockException, NoExitException {
         this.ensureCanExit(exitName);
 
         Tile newTile = this.exits.get(exitName);
         // If the new height is >= our height, moving the block will be
         // blocked by other blocks in the new tile, throw.
-        if (newTile.getBlocks().size() >= this.blocks.size()) {
+        if (newTile.column.height() >= this.column.height()) {
             throw new TooHighException();
         }
 
         try {
-            if (!this.getTopBlock().isMoveable()) {
+            this.getTopBlock(); // Throws TooLow if empty.
+            if (!this.column.topType().is(BlockType.MOVEABLE)) {
                 throw new InvalidBlockException();
             }
         } catch (TooLowException e) {
@@ -201,15 +494,20 @@ public class Tile implements Serializable {
             // TooHighException already.
             throw new AssertionError(e);
         }
+        // The new tile may be in another world, or none, with lower limits
+        // than ours, so being lower than us is not enough.
+        if (newTile.column.height()
+                >= newTile.maxHeightFor(this.column.topType())) {
+            throw new TooHighException();
+        }
 
         // If we reach here, the block can be moved, move it.
-        Block b = this.blocks.remove(this.blocks.size()-1);
+        Block b = this.column.top();
+        this.setColumn(this.column.pop());
         try {
             newTile.placeBlock(b);
         } catch (TooHighException e) {
-            // Similarly to TooLowException in getTopBlock() being impossible,
-            // this will never throw a TooHighException. Because the new tile
-            // must be < our height, it will always be valid for our top block.
+            // Never thrown, the new tile's limit was checked above.
             throw new AssertionError(e);
         }
     }
@@ -218,29 +516,76 @@ public class Tile implements Serializable {
      * Places a block on this tile.
      *
      * <p> Normal blocks cannot be placed if there are already 8 or more
-     * blocks on the tile. If the block is an instance of GroundBlock, it
-     * <i>cannot</i> be placed if there are 3 or more blocks on the tile
-     * already.
+     * blocks on the tile. If the block's type is a ground type, such as
+     * GroundBlock, it <i>cannot</i> be placed if there are 3 or more blocks
+     * on the tile already. Tiles in a world with other height limits use
+     * those instead, see {@link World#getMaxBlockHeight()}.
      *
      * @param block the block to place.
      * @throws TooHighException      if there are already 8 blocks on the tile,
      *                               or this is a ground block and there are
      *                               already 3 or more blocks on this tile.
-     * @throws InvalidBlockException if the block is null.
+     * @throws InvalidBlockException if the block is null, or is of a new
+     *                               type and no more types can be
+     *                               registered.
      */
     public void placeBlock(Block block)
             throws TooHighException, InvalidBlockException {
-        if (block == null) { // Checking the trivial case.
-            throw new InvalidBlockException();
-        }
+        // Throws for the trivial case of a null block.
+        BlockType type = BlockTypes.checkedOf(block);
         // Gets the max height appropriate for the block's type.
-        // Could be generalised to place limits on arbitrary block types.
-        int maxHeight = (block instanceof GroundBlock
-            ? MAX_GROUND_HEIGHT : MAX_BLOCK_HEIGHT);
-        if (this.blocks.size() >= maxHeight) {
+        int maxHeight = this.maxHeightFor(type);
+        if (this.column.height() >= maxHeight) {
             throw new TooHighException();
         }
-        this.blocks.add(block); // The block is valid at this height, places.
+        // The block is valid at this height, places.
+        this.setColumn(this.column.push(block));
+    }
+
+    /**
+     * Read-only live view of the blocks, as returned by getBlocks(). Reads
+     * go straight to the tile's current column.
+     */
+    private final class BlockList extends AbstractList<Block> {
+
+        @Override
+        public Block get(int index) {
+            if (index < 0 || index >= this.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return Tile.this.column.get(index);
+        }
+
+        @Override
+        public int size() {
+            return Tile.this.column.height();
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * Read-only live view of the exits, as returned by getExits(). Reads go
+     * straight to the tile's current exits.
+     */
+    private final class ExitMap extends AbstractMap<String, Tile> {
+
+        @Override
+        public Tile get(Object name) {
+            return Tile.this.exits.get(name);
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            return Tile.this.exits.containsKey(name);
+        }
+
+        @Override
+        public int size() {
+            return Tile.this.exits.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Tile>> entrySet() {
+            return Collections.unmodifiableMap(Tile.this.exits).entrySet();
+        }
+    }
+}
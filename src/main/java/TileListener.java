@@ -0,0 +1,31 @@
+/**
+ * Receives changes to the tiles of a {@link World}, as they happen, on the
+ * thread making the change.
+ */
+interface TileListener {
+
+    /**
+     * Called after the blocks on a tile change.
+     *
+     * @param tile the tile.
+     */
+    void blocksChanged(Tile tile);
+
+    /**
+     * Called after an exit is added, replaced or removed. The exit's new
+     * target, if any, is in the tile's exits.
+     *
+     * @param tile the tile the exit leaves from.
+     * @param name name of the exit.
+     * @param old  previous target of the exit, or null if it is new.
+     */
+    void exitChanged(Tile tile, String name, Tile old);
+
+    /**
+     * Called after a tile is put at an id.
+     *
+     * @param id  the tile's id.
+     * @param old tile previously at that id, or null if there was none.
+     */
+    void tileChanged(int id, Tile old);
+}
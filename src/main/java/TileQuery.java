@@ -0,0 +1,283 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A query over a {@link TileColumns} snapshot.
+ *
+ * <p> Conditions are added with the builder methods and all must hold for
+ * a tile to match; tiles with no blocks or no tile at all never have a top
+ * type, so any top condition excludes them. For example, tiles at least 6
+ * high with wood on top:
+ * <pre>
+ * long n = columns.query().minHeight(6).topType(BlockTypes.WOOD).count();
+ * </pre>
+ *
+ * <p> Top conditions are folded into a table indexed by type id before a
+ * scan, so each tile is tested with two comparisons and one table lookup
+ * in a loop over primitive arrays. With {@link #parallel(int)} the id range
+ * is split into chunks scanned on separate threads.
+ */
+public final class TileQuery {
+
+    /** Snapshot being queried. */
+    private final TileColumns columns;
+    /** Lowest matching height. */
+    private int minHeight = 0;
+    /** Highest matching height. */
+    private int maxHeight = Integer.MAX_VALUE;
+    /**
+     * Whether each top type matches, indexed by type id + 1 so that index 0
+     * is an empty tile. Null while there is no top condition.
+     */
+    private boolean[] tops;
+    /** Threads to scan with. */
+    private int threads = 1;
+
+    /**
+     * Creates a query matching every tile, see {@link TileColumns#query()}.
+     */
+    TileQuery(TileColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Only matches tiles with at least the given number of blocks.
+     *
+     * @param height lowest height to match.
+     * @return this query.
+     */
+    public TileQuery minHeight(int height) {
+        this.minHeight = Math.max(this.minHeight, Math.max(0, height));
+        return this;
+    }
+
+    /**
+     * Only matches tiles with at most the given number of blocks.
+     *
+     * @param height highest height to match.
+     * @return this query.
+     */
+    public TileQuery maxHeight(int height) {
+        this.maxHeight = Math.min(this.maxHeight, height);
+        return this;
+    }
+
+    /**
+     * Only matches tiles whose top block has the given type.
+     *
+     * @param type the type, cannot be null.
+     * @return this query.
+     */
+    public TileQuery topType(BlockType type) {
+        boolean[] tops = this.tops();
+        for (int i = 1; i < tops.length; i++) {
+            tops[i] &= i - 1 == type.getId();
+        }
+        tops[0] = false;
+        return this;
+    }
+
+    /**
+     * Only matches tiles whose top block's type has every given flag.
+     *
+     * @param flags one or more {@link BlockType} flags or-ed together.
+     * @return this query.
+     */
+    public TileQuery topFlags(int flags) {
+        boolean[] tops = this.tops();
+        for (int i = 1; i < tops.length; i++) {
+            tops[i] &= BlockTypes.byId(i - 1).is(flags);
+        }
+        tops[0] = false;
+        return this;
+    }
+
+    /**
+     * Scans with several threads.
+     *
+     * @param threads number of threads, must be positive.
+     * @return this query.
+     */
+    public TileQuery parallel(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Counts matching tiles.
+     *
+     * @return number of matching tiles.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    public long count() throws InterruptedException {
+        long total = 0;
+        for (long count : this.scan(new Tasks.Chunk<Long>() {
+                Long run(int from, int to) {
+                    return TileQuery.this.count(from, to);
+                }
+            })) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Finds matching tiles.
+     *
+     * @return ids of matching tiles, in increasing order.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    public int[] ids() throws InterruptedException {
+        List<int[]> parts = this.scan(new Tasks.Chunk<int[]>() {
+            int[] run(int from, int to) {
+                return TileQuery.this.ids(from, to);
+            }
+        });
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] ids = new int[length];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, ids, offset, part.length);
+            offset += part.length;
+        }
+        return ids;
+    }
+
+    /**
+     * Counts block types at each layer of matching tiles.
+     *
+     * @return counts indexed by layer, 0 being the bottom, then by type id,
+     *         with at least {@link Tile#MAX_BLOCK_HEIGHT} layers.
+     * @throws InterruptedException if interrupted while waiting for threads.
+     */
+    public long[][] layerHistogram() throws InterruptedException {
+        long[][] total = new long[this.columns.layerCount]
+            [this.columns.getTypeCount()];
+        for (long[][] part : this.scan(new Tasks.Chunk<long[][]>() {
+                long[][] run(int from, int to) {
+                    return TileQuery.this.layerHistogram(from, to);
+                }
+            })) {
+            for (int layer = 0; layer < total.length; layer++) {
+                for (int type = 0; type < total[layer].length; type++) {
+                    total[layer][type] += part[layer][type];
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Counts matching tiles among a range of ids.
+     */
+    private long count(int from, int to) {
+        short[] heights = this.columns.heights;
+        short[] topIds = this.columns.tops;
+        boolean[] tops = this.tops;
+        int min = this.minHeight;
+        int max = this.maxHeight;
+        long count = 0;
+        if (tops == null) {
+            for (int id = from; id < to; id++) {
+                int height = heights[id];
+                count += height >= min & height <= max ? 1 : 0;
+            }
+        } else {
+            for (int id = from; id < to; id++) {
+                int height = heights[id];
+                count += height >= min & height <= max
+                    & tops[topIds[id] + 1] ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds matching tiles among a range of ids.
+     */
+    private int[] ids(int from, int to) {
+        int[] ids = new int[Math.min(to - from, 1024)];
+        int length = 0;
+        for (int id = from; id < to; id++) {
+            if (this.matches(id)) {
+                if (length == ids.length) {
+                    ids = Arrays.copyOf(ids,
+                        (int) Math.min(to - from, ids.length * 2L));
+                }
+                ids[length++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, length);
+    }
+
+    /**
+     * Counts block types by layer in matching tiles among a range of ids.
+     */
+    private long[][] layerHistogram(int from, int to) {
+        long[][] counts = new long[this.columns.layerCount]
+            [this.columns.getTypeCount()];
+        // One pass per layer keeps each scan reading a single array.
+        int rows = this.columns.layers.length;
+        for (int layer = 0; layer < rows; layer++) {
+            short[] types = this.columns.layers[layer];
+            long[] layerCounts = counts[layer];
+            for (int id = from; id < to; id++) {
+                int type = types[id];
+                if (type != TileColumns.NONE && this.matches(id)) {
+                    layerCounts[type]++;
+                }
+            }
+        }
+        // Layers above the rows only exist on the few tall tiles.
+        int[] tallIds = this.columns.tallIds;
+        int first = Arrays.binarySearch(tallIds, from);
+        for (int i = first < 0 ? -first - 1 : first;
+                i < tallIds.length && tallIds[i] < to; i++) {
+            if (this.matches(tallIds[i])) {
+                Column column = this.columns.tallColumns[i];
+                for (int layer = rows; layer < column.height(); layer++) {
+                    counts[layer][column.type(layer).getId()]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Whether one tile matches every condition.
+     */
+    private boolean matches(int id) {
+        int height = this.columns.heights[id];
+        return height >= this.minHeight && height <= this.maxHeight
+            && (this.tops == null || this.tops[this.columns.tops[id] + 1]);
+    }
+
+    /**
+     * Gets the table of matching top types, creating it to match every
+     * type the first time a top condition is added.
+     */
+    private boolean[] tops() {
+        if (this.tops == null) {
+            this.tops = new boolean[this.columns.getTypeCount() + 1];
+            Arrays.fill(this.tops, true);
+        }
+        return this.tops;
+    }
+
+    /**
+     * Runs a scan over every id, split into chunks across this query's
+     * threads.
+     *
+     * @return the result of each chunk, in id order.
+     */
+    private <T> List<T> scan(Tasks.Chunk<T> scan)
+            throws InterruptedException {
+        return Tasks.runChunks(this.columns.size(), this.threads, scan);
+    }
+}
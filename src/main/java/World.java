@@ -0,0 +1,339 @@
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * A collection of tiles addressed by dense integer ids.
+ *
+ * <p> Ids are assigned in the order tiles are added, starting from 0. The
+ * id space is split into regions of consecutive ids, which are the unit of
+ * work for bulk operations such as generation, saving and parallel edits.
+ *
+ * <p> A tile belongs to at most one world at a time. Changes to a world's
+ * tiles are reported to its {@link TileListener}s, which indexes use to
+ * keep up to date.
+ */
+public class World {
+
+    /** Default number of tiles per region. */
+    static final int DEFAULT_REGION_SIZE = 4096;
+    /** Highest height limit a world can have. */
+    public static final int HEIGHT_LIMIT = Short.MAX_VALUE;
+
+    /** Tiles by id. Only the first size elements are used. */
+    private Tile[] tiles;
+    /** Number of ids in use. */
+    private int size;
+    /** Number of consecutive ids in each region. */
+    private final int regionSize;
+    /** Maximum height of normal blocks on this world's tiles. */
+    private final int maxBlockHeight;
+    /** Maximum height of ground blocks on this world's tiles. */
+    private final int maxGroundHeight;
+    /** Listeners told about changes to tiles, copied on write. */
+    private volatile TileListener[] listeners = new TileListener[0];
+    /** Recorder of actions on this world's tiles, or null if none. */
+    ActionRecorder recorder;
+
+    /**
+     * Creates an empty world with the default region size.
+     */
+    public World() {
+        this(DEFAULT_REGION_SIZE, 16);
+    }
+
+    /**
+     * Creates an empty world with the default height limits.
+     *
+     * @param regionSize number of consecutive tile ids per region, must be
+     *                   positive.
+     * @param capacity   number of tiles to allocate space for up front.
+     */
+    public World(int regionSize, int capacity) {
+        this(regionSize, capacity, Tile.MAX_BLOCK_HEIGHT,
+            Tile.MAX_GROUND_HEIGHT);
+    }
+
+    /**
+     * Creates an empty world with the given height limits. Blocks are
+     * placed on its tiles only below the limit for their type.
+     *
+     * @param regionSize      number of consecutive tile ids per region,
+     *                        must be positive.
+     * @param capacity        number of tiles to allocate space for up
+     *                        front.
+     * @param maxBlockHeight  maximum height of normal blocks, at most
+     *                        {@link #HEIGHT_LIMIT}.
+     * @param maxGroundHeight maximum height of ground blocks, at most
+     *                        maxBlockHeight.
+     */
+    public World(int regionSize, int capacity, int maxBlockHeight,
+            int maxGroundHeight) {
+        if (regionSize <= 0 || capacity < 0 || maxGroundHeight < 0
+                || maxGroundHeight > maxBlockHeight
+                || maxBlockHeight > HEIGHT_LIMIT) {
+            throw new IllegalArgumentException();
+        }
+        this.regionSize = regionSize;
+        this.maxBlockHeight = maxBlockHeight;
+        this.maxGroundHeight = maxGroundHeight;
+        this.tiles = new Tile[capacity];
+    }
+
+    /**
+     * Maximum number of blocks a normal block can be placed on.
+     *
+     * @return the height limit for normal blocks.
+     */
+    public int getMaxBlockHeight() {
+        return this.maxBlockHeight;
+    }
+
+    /**
+     * Maximum number of blocks a ground block can be placed on.
+     *
+     * @return the height limit for ground blocks.
+     */
+    public int getMaxGroundHeight() {
+        return this.maxGroundHeight;
+    }
+
+    /**
+     * Adds a tile with the next free id.
+     *
+     * @param tile the tile to add, cannot be null or in another world.
+     * @return the tile's new id.
+     */
+    public int add(Tile tile) {
+        if (tile.id >= 0) {
+            throw new IllegalArgumentException("Tile is already in a world");
+        }
+        this.ensureCapacity(this.size + 1);
+        int id = this.size++;
+        this.tiles[id] = tile;
+        tile.id = id;
+        tile.world = this;
+        this.tileChanged(id, null);
+        return id;
+    }
+
+    /**
+     * Puts a tile at a given id, growing the world to include it. Any tile
+     * previously at that id is removed from the world.
+     *
+     * <p> Used by bulk builders which fill ids out of order. Several threads
+     * may call this at once as long as they write distinct ids below a size
+     * already set by {@link #extendTo(int)}.
+     *
+     * @param id   id for the tile, must not be negative.
+     * @param tile the tile, cannot be null or in another world.
+     */
+    void set(int id, Tile tile) {
+        if (tile.id >= 0 && tile.id != id) {
+            throw new IllegalArgumentException("Tile is already in a world");
+        }
+        this.ensureCapacity(id + 1);
+        Tile old = this.tiles[id];
+        if (old == tile) {
+            return;
+        }
+        if (old != null) {
+            old.id = -1;
+            old.world = null;
+        }
+        this.tiles[id] = tile;
+        tile.id = id;
+        tile.world = this;
+        if (id >= this.size) {
+            this.size = id + 1;
+        }
+        this.tileChanged(id, old);
+    }
+
+    /**
+     * Starts telling a listener about changes to this world's tiles.
+     *
+     * @param listener the listener to add.
+     */
+    synchronized void addListener(TileListener listener) {
+        TileListener[] next = Arrays.copyOf(this.listeners,
+            this.listeners.length + 1);
+        next[next.length - 1] = listener;
+        this.listeners = next;
+    }
+
+    /**
+     * Stops telling a listener about changes.
+     *
+     * @param listener the listener to remove.
+     */
+    synchronized void removeListener(TileListener listener) {
+        TileListener[] current = this.listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                TileListener[] next = new TileListener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i,
+                    next.length - i);
+                this.listeners = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells listeners the blocks on one of this world's tiles changed.
+     */
+    void blocksChanged(Tile tile) {
+        for (TileListener listener : this.listeners) {
+            listener.blocksChanged(tile);
+        }
+    }
+
+    /**
+     * Tells listeners an exit of one of this world's tiles changed.
+     */
+    void exitChanged(Tile tile, String name, Tile old) {
+        for (TileListener listener : this.listeners) {
+            listener.exitChanged(tile, name, old);
+        }
+    }
+
+    /**
+     * Tells listeners a tile was put at an id.
+     */
+    private void tileChanged(int id, Tile old) {
+        for (TileListener listener : this.listeners) {
+            listener.tileChanged(id, old);
+        }
+    }
+
+    /**
+     * Gets the tile with the given id, first adding an empty tile there if
+     * there is none. Used to resolve references to tiles not yet loaded.
+     *
+     * @param id tile id, must not be negative.
+     * @return the existing or new tile.
+     */
+    Tile getOrCreate(int id) {
+        Tile tile = this.getTile(id);
+        if (tile == null) {
+            try {
+                tile = new Tile(Collections.<Block>emptyList());
+            } catch (TooHighException e) {
+                throw new AssertionError(e); // No blocks, never too high.
+            }
+            this.set(id, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Grows the id space to at least the given size. New ids have no tile
+     * until one is set.
+     *
+     * @param size number of ids the world should have.
+     */
+    void extendTo(int size) {
+        this.ensureCapacity(size);
+        if (size > this.size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Makes room for at least capacity tiles without reallocating.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.tiles.length) {
+            int grown = Math.max(capacity,
+                (int) Math.min(Integer.MAX_VALUE - 8,
+                    this.tiles.length * 2L));
+            this.tiles = Arrays.copyOf(this.tiles, grown);
+        }
+    }
+
+    /**
+     * Gets the tile with the given id.
+     *
+     * @param id tile id.
+     * @return the tile, or null if the id is out of range or unused.
+     */
+    public Tile getTile(int id) {
+        if (id < 0 || id >= this.size) {
+            return null;
+        }
+        return this.tiles[id];
+    }
+
+    /**
+     * Gets the id of a tile in this world.
+     *
+     * @param tile the tile to look up.
+     * @return the tile's id, or -1 if it is null or not in this world.
+     */
+    public int getId(Tile tile) {
+        if (tile == null || this.getTile(tile.id) != tile) {
+            return -1;
+        }
+        return tile.id;
+    }
+
+    /**
+     * Number of ids in use, one more than the highest id.
+     *
+     * @return size of the id space.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Number of consecutive ids in each region.
+     *
+     * @return region size.
+     */
+    public int getRegionSize() {
+        return this.regionSize;
+    }
+
+    /**
+     * Number of regions needed to cover every id.
+     *
+     * @return region count.
+     */
+    public int getRegionCount() {
+        return (int) ((this.size + (long) this.regionSize - 1)
+            / this.regionSize);
+    }
+
+    /**
+     * Gets the region an id belongs to.
+     *
+     * @param id tile id.
+     * @return the region index.
+     */
+    public int regionOf(int id) {
+        return id / this.regionSize;
+    }
+
+    /**
+     * First id of a region.
+     *
+     * @param region region index.
+     * @return the lowest id in the region.
+     */
+    public int regionStart(int region) {
+        return region * this.regionSize;
+    }
+
+    /**
+     * One past the last id of a region, clipped to the world size.
+     *
+     * @param region region index.
+     * @return the exclusive upper bound of ids in the region.
+     */
+    public int regionEnd(int region) {
+        return (int) Math.min(this.size,
+            (long) (region + 1) * this.regionSize);
+    }
+}
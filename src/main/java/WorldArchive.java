@@ -0,0 +1,295 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * World saved as a zip archive with one entry per region, which can be
+ * loaded a region at a time.
+ *
+ * <p> The entry {@value #HEADER} holds the world size, region size and
+ * height limits as properties. Each non-empty region r has an entry
+ * "regions/r" holding its tiles in the text map format of
+ * {@link MapWriter}, raw deflated. Region entries are STORED rather than
+ * DEFLATED in the zip itself, since zip streams can only deflate on the
+ * writing thread; storing data deflated beforehand lets every region be
+ * compressed on a worker thread, with only the writing done in order.
+ *
+ * <p> An opened archive loads regions into its world as they are asked
+ * for. Exits into regions not yet loaded lead to empty placeholder tiles,
+ * which are filled in place when their region loads, so tiles never need
+ * replacing.
+ */
+public class WorldArchive implements AutoCloseable {
+
+    /** Name of the entry holding the world's sizes and limits. */
+    static final String HEADER = "world.properties";
+    /** Prefix of region entry names, followed by the region index. */
+    static final String REGION_PREFIX = "regions/";
+
+    /** Buffer size for compressing and decompressing streams. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The open archive. */
+    private final ZipFile zip;
+    /** World regions are loaded into. */
+    private final World world;
+    /** Parses regions into the world. */
+    private final MapLoader loader;
+    /** Regions loaded so far, including empty ones. */
+    private final BitSet loaded = new BitSet();
+
+    /**
+     * Opens an archive without loading any regions.
+     *
+     * @param path archive written by {@link #save(World, Path, int)}.
+     * @throws IOException if the archive cannot be read or is malformed.
+     */
+    public WorldArchive(Path path) throws IOException {
+        this.zip = new ZipFile(path.toFile());
+        try {
+            ZipEntry header = this.zip.getEntry(HEADER);
+            if (header == null) {
+                throw new MapFormatException("missing " + HEADER);
+            }
+            Properties properties = new Properties();
+            try (InputStream in = this.zip.getInputStream(header)) {
+                properties.load(in);
+            }
+            int size;
+            int regionSize;
+            int maxBlockHeight;
+            int maxGroundHeight;
+            try {
+                size = Integer.parseInt(properties.getProperty("size"));
+                regionSize = Integer.parseInt(
+                    properties.getProperty("regionSize"));
+                // Archives from before height limits have the defaults.
+                maxBlockHeight = Integer.parseInt(properties.getProperty(
+                    "maxBlockHeight", String.valueOf(Tile.MAX_BLOCK_HEIGHT)));
+                maxGroundHeight = Integer.parseInt(properties.getProperty(
+                    "maxGroundHeight",
+                    String.valueOf(Tile.MAX_GROUND_HEIGHT)));
+            } catch (NumberFormatException e) {
+                throw new MapFormatException("bad " + HEADER);
+            }
+            if (size < 0 || regionSize <= 0 || maxGroundHeight < 0
+                    || maxGroundHeight > maxBlockHeight
+                    || maxBlockHeight > World.HEIGHT_LIMIT) {
+                throw new MapFormatException("bad " + HEADER);
+            }
+            this.world = new World(regionSize, size, maxBlockHeight,
+                maxGroundHeight);
+            this.world.extendTo(size);
+            this.loader = new MapLoader(this.world);
+        } catch (IOException e) {
+            this.zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a whole archive into a new world.
+     *
+     * @param path archive written by {@link #save(World, Path, int)}.
+     * @return the loaded world.
+     * @throws IOException if the archive cannot be read or is malformed.
+     */
+    public static World load(Path path) throws IOException {
+        try (WorldArchive archive = new WorldArchive(path)) {
+            archive.loadAll();
+            return archive.getWorld();
+        }
+    }
+
+    /**
+     * Gets the world regions are loaded into. Tiles of regions not yet
+     * loaded are missing or empty placeholders.
+     *
+     * @return the world.
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Gets a tile, first loading its region if needed.
+     *
+     * @param id tile id.
+     * @return the tile, or null if the id is out of range or unused.
+     * @throws IOException if the region cannot be read or is malformed.
+     */
+    public Tile getTile(int id) throws IOException {
+        if (id >= 0 && id < this.world.size()) {
+            this.loadRegion(this.world.regionOf(id));
+        }
+        return this.world.getTile(id);
+    }
+
+    /**
+     * Whether a region has been loaded.
+     *
+     * @param region region index.
+     * @return true if loaded.
+     */
+    public synchronized boolean isLoaded(int region) {
+        return this.loaded.get(region);
+    }
+
+    /**
+     * Loads a region unless it is already loaded.
+     *
+     * @param region region index.
+     * @throws IOException if the region cannot be read or is malformed.
+     */
+    public synchronized void loadRegion(int region) throws IOException {
+        if (this.loaded.get(region)) {
+            return;
+        }
+        ZipEntry entry = this.zip.getEntry(REGION_PREFIX + region);
+        if (entry != null) {
+            try (InputStream in = new InflaterInputStream(
+                    this.zip.getInputStream(entry), new Inflater(true),
+                    BUFFER_SIZE)) {
+                this.loader.read(Channels.newChannel(in));
+            }
+        }
+        this.loaded.set(region);
+    }
+
+    /**
+     * Loads every region not yet loaded, and checks every exit leads to a
+     * tile which was saved.
+     *
+     * @throws IOException if a region cannot be read or is malformed.
+     */
+    public synchronized void loadAll() throws IOException {
+        for (int region = 0; region < this.world.getRegionCount();
+                region++) {
+            this.loadRegion(region);
+        }
+        this.loader.finish();
+    }
+
+    /**
+     * Closes the archive. Loaded tiles stay usable.
+     *
+     * @throws IOException if the archive cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.zip.close();
+    }
+
+    /**
+     * Saves a world, compressing regions on worker threads. The world must
+     * not change until this returns.
+     *
+     * @param world   the world to save.
+     * @param path    file to write, replaced if it exists.
+     * @param threads worker threads to use, must be positive.
+     * @throws IOException          if the file cannot be written.
+     * @throws InterruptedException if interrupted while waiting for workers.
+     */
+    public static void save(final World world, Path path, int threads)
+            throws IOException, InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        try (ZipOutputStream out =
+                new ZipOutputStream(Files.newOutputStream(path))) {
+            Properties properties = new Properties();
+            properties.setProperty("size", String.valueOf(world.size()));
+            properties.setProperty("regionSize",
+                String.valueOf(world.getRegionSize()));
+            properties.setProperty("maxBlockHeight",
+                String.valueOf(world.getMaxBlockHeight()));
+            properties.setProperty("maxGroundHeight",
+                String.valueOf(world.getMaxGroundHeight()));
+            out.putNextEntry(new ZipEntry(HEADER));
+            properties.store(out, "Block world");
+            out.closeEntry();
+
+            Tasks.runPipeline(world.getRegionCount(), threads,
+                    IOException.class,
+                    new Tasks.Pipeline<Region, IOException>() {
+                Region produce(int region) throws IOException {
+                    return compress(world, region);
+                }
+
+                void consume(Region region) throws IOException {
+                    if (region != null) {
+                        out.putNextEntry(region.entry);
+                        out.write(region.payload);
+                        out.closeEntry();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a region's tiles in the map format and deflates them.
+     *
+     * @return the region's entry and payload, or null if it has no tiles.
+     */
+    private static Region compress(World world, int region)
+            throws IOException {
+        MapWriter writer = new MapWriter(BUFFER_SIZE);
+        for (int id = world.regionStart(region);
+                id < world.regionEnd(region); id++) {
+            Tile tile = world.getTile(id);
+            if (tile != null) {
+                writer.tile(tile, world);
+            }
+        }
+        if (writer.length() == 0) {
+            return null;
+        }
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(writer.length() / 4);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (OutputStream out =
+                new DeflaterOutputStream(bytes, deflater, BUFFER_SIZE)) {
+            writer.writeTo(Channels.newChannel(out));
+        } finally {
+            deflater.end();
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ZipEntry entry = new ZipEntry(REGION_PREFIX + region);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(payload.length);
+        entry.setCompressedSize(payload.length);
+        entry.setCrc(crc.getValue());
+        return new Region(entry, payload);
+    }
+
+    /** A compressed region ready to write. */
+    private static class Region {
+
+        /** The region's zip entry. */
+        private final ZipEntry entry;
+        /** The deflated tiles. */
+        private final byte[] payload;
+
+        Region(ZipEntry entry, byte[] payload) {
+            this.entry = entry;
+            this.payload = payload;
+        }
+    }
+}
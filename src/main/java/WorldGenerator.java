@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Seedable procedural generator for rectangular worlds.
+ *
+ * <p> The tile at column x and row y gets id y * width + x and exits named
+ * north, east, south and west to its neighbours. Every column is a pure
+ * function of the seed and its coordinates, so regions can be generated
+ * on separate threads in any order and still give the same world.
+ *
+ * <p> Columns have up to the ground height limit of ground blocks (soil
+ * under a grass top) following smooth rolling terrain, with occasional
+ * stone and stacks of wood on top, all within the block height limit. The
+ * limits are the defaults of {@link World} unless given.
+ */
+public class WorldGenerator {
+
+    /** Exit to the tile with y - 1. */
+    static final String NORTH = "north";
+    /** Exit to the tile with x + 1. */
+    static final String EAST = "east";
+    /** Exit to the tile with y + 1. */
+    static final String SOUTH = "south";
+    /** Exit to the tile with x - 1. */
+    static final String WEST = "west";
+
+    /** Exit names as written in the map format. */
+    private static final byte[][] ENCODED = {MapWriter.encodeName(NORTH),
+        MapWriter.encodeName(EAST), MapWriter.encodeName(SOUTH),
+        MapWriter.encodeName(WEST)};
+
+    /** Width and depth in tiles of one cell of the terrain noise. */
+    private static final int CELL = 8;
+    /** Flush a streamed region once its buffer holds this many bytes. */
+    private static final int FLUSH_BYTES = 1 << 16;
+
+    /** Seed all randomness is derived from. */
+    private final long seed;
+    /** Number of columns (x coordinates). */
+    private final int width;
+    /** Number of rows (y coordinates). */
+    private final int depth;
+    /** Tiles per region, the unit of parallel work. */
+    private final int regionSize;
+    /** Worker threads to use. */
+    private final int threads;
+    /** Height limit for normal blocks of the generated world. */
+    private final int maxBlockHeight;
+    /** Height limit for ground blocks of the generated world. */
+    private final int maxGroundHeight;
+
+    /**
+     * Creates a generator using one thread per available processor.
+     *
+     * @param seed  seed for the terrain.
+     * @param width number of columns, must be positive.
+     * @param depth number of rows, must be positive.
+     */
+    public WorldGenerator(long seed, int width, int depth) {
+        this(seed, width, depth, World.DEFAULT_REGION_SIZE,
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed       seed for the terrain.
+     * @param width      number of columns, must be positive.
+     * @param depth      number of rows, must be positive.
+     * @param regionSize tiles per region, must be positive.
+     * @param threads    worker threads to use, must be positive.
+     */
+    WorldGenerator(long seed, int width, int depth, int regionSize,
+            int threads) {
+        this(seed, width, depth, regionSize, threads, Tile.MAX_BLOCK_HEIGHT,
+            Tile.MAX_GROUND_HEIGHT);
+    }
+
+    /**
+     * Creates a generator for a world with the given height limits, as in
+     * {@link World#World(int, int, int, int)}. Maps it writes load into
+     * worlds with the same limits.
+     *
+     * @param seed            seed for the terrain.
+     * @param width           number of columns, must be positive.
+     * @param depth           number of rows, must be positive.
+     * @param regionSize      tiles per region, must be positive.
+     * @param threads         worker threads to use, must be positive.
+     * @param maxBlockHeight  maximum height of normal blocks.
+     * @param maxGroundHeight maximum height of ground blocks.
+     */
+    WorldGenerator(long seed, int width, int depth, int regionSize,
+            int threads, int maxBlockHeight, int maxGroundHeight) {
+        if (width <= 0 || depth <= 0 || regionSize <= 0 || threads <= 0
+                || (long) width * depth > Integer.MAX_VALUE - 8
+                || maxGroundHeight < 0 || maxGroundHeight > maxBlockHeight
+                || maxBlockHeight > World.HEIGHT_LIMIT) {
+            throw new IllegalArgumentException();
+        }
+        this.seed = seed;
+        this.width = width;
+        this.depth = depth;
+        this.regionSize = regionSize;
+        this.threads = threads;
+        this.maxBlockHeight = maxBlockHeight;
+        this.maxGroundHeight = maxGroundHeight;
+    }
+
+    /**
+     * Number of tiles this generator creates.
+     *
+     * @return width * depth.
+     */
+    public int size() {
+        return this.width * this.depth;
+    }
+
+    /**
+     * Generates the whole world in memory.
+     *
+     * @return the new world.
+     * @throws InterruptedException if interrupted while waiting for workers.
+     */
+    public World generate() throws InterruptedException {
+        final World world = new World(this.regionSize, this.size(),
+            this.maxBlockHeight, this.maxGroundHeight);
+        world.extendTo(this.size());
+        List<Callable<Void>> columns = new ArrayList<Callable<Void>>();
+        List<Callable<Void>> exits = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < this.size(); start += this.regionSize) {
+            final int from = start;
+            final int to = Math.min(this.size(), start + this.regionSize);
+            columns.add(new Callable<Void>() {
+                public Void call() {
+                    WorldGenerator.this.buildTiles(world, from, to);
+                    return null;
+                }
+            });
+            exits.add(new Callable<Void>() {
+                public Void call() {
+                    WorldGenerator.this.wireExits(world, from, to);
+                    return null;
+                }
+            });
+        }
+        // All tiles must exist before any exit can point at them.
+        this.runAll(columns);
+        this.runAll(exits);
+        return world;
+    }
+
+    /**
+     * Streams the world to a channel in the text map format described in
+     * {@link MapWriter}, without creating any tiles. Regions are rendered
+     * in parallel and written in id order, with only a few regions held in
+     * memory at once.
+     *
+     * @param out channel to write to.
+     * @throws IOException          if out cannot be written.
+     * @throws InterruptedException if interrupted while waiting for workers.
+     */
+    public void writeMap(final WritableByteChannel out)
+            throws IOException, InterruptedException {
+        int regions = (this.size() + this.regionSize - 1) / this.regionSize;
+        Tasks.runPipeline(regions, this.threads, IOException.class,
+                new Tasks.Pipeline<MapWriter, IOException>() {
+            MapWriter produce(int region) {
+                int from = region * WorldGenerator.this.regionSize;
+                return WorldGenerator.this.render(from, Math.min(
+                    WorldGenerator.this.size(),
+                    from + WorldGenerator.this.regionSize));
+            }
+
+            void consume(MapWriter writer) throws IOException {
+                writer.writeTo(out);
+            }
+        });
+    }
+
+    /**
+     * Fills out with the column for the given coordinates.
+     *
+     * @param x   column coordinate.
+     * @param y   row coordinate.
+     * @param out array of at least as many elements as the block height
+     *            limit.
+     * @return number of blocks placed in out.
+     */
+    int column(int x, int y, Block[] out) {
+        int height = 0;
+        int ground = this.groundHeight(x, y);
+        for (; height < ground - 1; height++) {
+            out[height] = BlockTypes.SOIL.getBlock();
+        }
+        if (ground > 0) {
+            out[height++] = BlockTypes.GRASS.getBlock();
+        }
+
+        long features = mix(this.seed ^ 0x5DEECE66DL, x, y);
+        if ((features & 15) == 0) {
+            int stones = 1 + (int) ((features >>> 4) & 1);
+            for (int i = 0; i < stones && height < this.maxBlockHeight;
+                    i++) {
+                out[height++] = BlockTypes.STONE.getBlock();
+            }
+        }
+        if (((features >>> 8) & 7) == 0) {
+            int wood = 1 + (int) ((features >>> 11) % 3);
+            for (int i = 0; i < wood && height < this.maxBlockHeight; i++) {
+                out[height++] = BlockTypes.WOOD.getBlock();
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Ground height from bilinear value noise over a coarse lattice, in
+     * 0..maxGroundHeight.
+     */
+    private int groundHeight(int x, int y) {
+        int cellX = x / CELL;
+        int cellY = y / CELL;
+        double fx = (x % CELL) / (double) CELL;
+        double fy = (y % CELL) / (double) CELL;
+        double top = lerp(this.lattice(cellX, cellY),
+            this.lattice(cellX + 1, cellY), fx);
+        double bottom = lerp(this.lattice(cellX, cellY + 1),
+            this.lattice(cellX + 1, cellY + 1), fx);
+        int height = (int) (lerp(top, bottom, fy)
+            * (this.maxGroundHeight + 1));
+        return Math.min(height, this.maxGroundHeight);
+    }
+
+    /** Noise value in [0, 1) at a lattice point. */
+    private double lattice(int cellX, int cellY) {
+        return (mix(this.seed, cellX, cellY) >>> 11) * 0x1.0p-53;
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Hashes a seed and coordinates with the SplitMix64 finaliser.
+     */
+    private static long mix(long seed, int x, int y) {
+        long z = seed + ((long) x << 32 | (y & 0xffffffffL))
+            * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Creates the tiles with ids from (inclusive) to to (exclusive).
+     */
+    private void buildTiles(World world, int from, int to) {
+        Block[] blocks = new Block[this.maxBlockHeight];
+        for (int id = from; id < to; id++) {
+            int height = this.column(id % this.width, id / this.width, blocks);
+            // Columns are generated within the height limits, and pushing
+            // the shared blocks finds the shared columns without copying.
+            Column column = Column.EMPTY;
+            for (int i = 0; i < height; i++) {
+                column = column.push(blocks[i]);
+            }
+            world.set(id, new Tile(column));
+        }
+    }
+
+    /**
+     * Adds exits to the tiles with ids from (inclusive) to to (exclusive).
+     */
+    private void wireExits(World world, int from, int to) {
+        for (int id = from; id < to; id++) {
+            int x = id % this.width;
+            int y = id / this.width;
+            // Built up and added in one go, so the tile's exits are only
+            // copied once. Every neighbour exists once buildTiles has run.
+            Map<String, Tile> exits = new HashMap<String, Tile>(8);
+            if (y > 0) {
+                exits.put(NORTH, world.getTile(id - this.width));
+            }
+            if (x + 1 < this.width) {
+                exits.put(EAST, world.getTile(id + 1));
+            }
+            if (y + 1 < this.depth) {
+                exits.put(SOUTH, world.getTile(id + this.width));
+            }
+            if (x > 0) {
+                exits.put(WEST, world.getTile(id - 1));
+            }
+            world.getTile(id).addExits(exits);
+        }
+    }
+
+    /**
+     * Renders the lines for ids from (inclusive) to to (exclusive).
+     */
+    private MapWriter render(int from, int to) {
+        MapWriter writer = new MapWriter(FLUSH_BYTES);
+        Block[] column = new Block[this.maxBlockHeight];
+        for (int id = from; id < to; id++) {
+            int x = id % this.width;
+            int y = id / this.width;
+            writer.startTile(id);
+            try {
+                writer.blocks(column, this.column(x, y, column));
+            } catch (MapFormatException e) {
+                throw new AssertionError(e); // Built-in blocks have codes.
+            }
+            if (y > 0) {
+                writer.exit(ENCODED[0], id - this.width);
+            }
+            if (x + 1 < this.width) {
+                writer.exit(ENCODED[1], id + 1);
+            }
+            if (y + 1 < this.depth) {
+                writer.exit(ENCODED[2], id + this.width);
+            }
+            if (x > 0) {
+                writer.exit(ENCODED[3], id - 1);
+            }
+            writer.endTile();
+        }
+        return writer;
+    }
+
+    /**
+     * Runs tasks on a pool of this generator's threads and waits for all of
+     * them to finish.
+     */
+    private void runAll(List<Callable<Void>> tasks)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                Tasks.getResult(result);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo and redo over versions of a {@link PersistentWorld}.
+ *
+ * <p> Because versions share structure, keeping every past version costs
+ * only the nodes each edit copied.
+ */
+public class WorldHistory {
+
+    /** The version currently being edited. */
+    private PersistentWorld current;
+    /** Earlier versions, most recent first. */
+    private final Deque<PersistentWorld> undoStack =
+        new ArrayDeque<PersistentWorld>();
+    /** Undone versions, most recently undone first. */
+    private final Deque<PersistentWorld> redoStack =
+        new ArrayDeque<PersistentWorld>();
+
+    /**
+     * Creates a history starting at the given version.
+     *
+     * @param initial the starting version, cannot be null.
+     */
+    public WorldHistory(PersistentWorld initial) {
+        this.current = initial;
+    }
+
+    /**
+     * Gets the current version.
+     *
+     * @return current version.
+     */
+    public PersistentWorld getCurrent() {
+        return this.current;
+    }
+
+    /**
+     * Makes next the current version. Clears anything that could be redone.
+     *
+     * @param next the new version, cannot be null.
+     */
+    public void commit(PersistentWorld next) {
+        if (next == this.current) {
+            return; // Nothing changed, nothing to undo.
+        }
+        this.undoStack.push(this.current);
+        this.redoStack.clear();
+        this.current = next;
+    }
+
+    /**
+     * Whether there is a version to go back to.
+     *
+     * @return true if undo() will change the current version.
+     */
+    public boolean canUndo() {
+        return !this.undoStack.isEmpty();
+    }
+
+    /**
+     * Whether there is an undone version to go forward to.
+     *
+     * @return true if redo() will change the current version.
+     */
+    public boolean canRedo() {
+        return !this.redoStack.isEmpty();
+    }
+
+    /**
+     * Goes back to the previous version, if any.
+     *
+     * @return the current version after undoing.
+     */
+    public PersistentWorld undo() {
+        if (this.canUndo()) {
+            this.redoStack.push(this.current);
+            this.current = this.undoStack.pop();
+        }
+        return this.current;
+    }
+
+    /**
+     * Goes forward to the most recently undone version, if any.
+     *
+     * @return the current version after redoing.
+     */
+    public PersistentWorld redo() {
+        if (this.canRedo()) {
+            this.undoStack.push(this.current);
+            this.current = this.redoStack.pop();
+        }
+        return this.current;
+    }
+}
@@ -0,0 +1,755 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * One process's share of a world split across several processes, each
+ * owning a contiguous run of regions.
+ *
+ * <p> Every shard has a copy of the whole world's layout, but only the
+ * tiles it owns are authoritative, and builders live on the shard owning
+ * their tile. Actions are done by tile id and builder name, and return an
+ * {@link Action} outcome code. Actions within a shard are done directly.
+ * A block move or builder move across a shard boundary becomes a two
+ * phase handoff over a loopback socket to the owning shard:
+ * <ol>
+ * <li> The coordinating shard reserves its source tile and sends PREPARE
+ *      with everything the other side needs to decide: the source height
+ *      and block, or the builder's height, name and inventory. </li>
+ * <li> The owning shard checks the move exactly as {@link Tile#moveBlock}
+ *      or {@link Builder#moveTo} would, and if it can go ahead reserves the
+ *      target tile and votes OK, or else votes the outcome. </li>
+ * <li> On OK the coordinator sends COMMIT, the owner applies its half and
+ *      acknowledges, and then the coordinator applies its half. Otherwise
+ *      the coordinator drops its reservation, the owner having made
+ *      none. </li>
+ * </ol>
+ * A reserved tile refuses other actions with {@link #BUSY} rather than
+ * waiting, so two shards handing off towards each other cannot deadlock;
+ * the coordinator retries a few times before giving up.
+ *
+ * <p> Thread safe. There is no recovery log, but nothing is lost when a
+ * connection fails: a connection lost before the owner applies its half
+ * aborts both halves, and the action throws IOException. Only a lost
+ * acknowledgement, after the owner applied its half, leaves the block or
+ * builder on both shards.
+ */
+public class WorldShard implements AutoCloseable {
+
+    /** Outcome of an action refused because a tile is mid-handoff. */
+    public static final int BUSY = Action.NO_EXIT + 1;
+
+    /** Message: prepare to receive a block. */
+    private static final int PREPARE_BLOCK = 1;
+    /** Message: prepare to receive a builder. */
+    private static final int PREPARE_ENTER = 2;
+    /** Message: apply the prepared handoff. */
+    private static final int COMMIT = 3;
+    /** Times a handoff is tried while the other side is busy. */
+    private static final int ATTEMPTS = 8;
+
+    /** This shard's copy of the world. */
+    private final World world;
+    /** This shard's index. */
+    private final int index;
+    /** Addresses of every shard, by index. */
+    private final InetSocketAddress[] peers;
+    /** Accepts connections from other shards. */
+    private final ServerSocket server;
+    /** Connections to other shards, made when first needed. */
+    private final Peer[] connections;
+    /** Builders on tiles this shard owns, by name. */
+    private final Map<String, Builder> builders =
+        new HashMap<String, Builder>();
+    /** Ids of tiles reserved by a handoff in progress. */
+    private final Set<Integer> reserved = new HashSet<Integer>();
+    /** Connections accepted from other shards. */
+    private final List<Socket> accepted = new ArrayList<Socket>();
+    /** Spreads out retries. */
+    private final Random random = new Random();
+    /** Set once closed. */
+    private volatile boolean closed;
+
+    /**
+     * Starts a shard listening on its own address. Other shards are only
+     * connected to when first needed, so shards may start in any order.
+     *
+     * @param world this shard's copy of the world, the same layout in
+     *              every shard.
+     * @param index this shard's index into peers.
+     * @param peers address of every shard. Port 0 for this shard's own
+     *              address picks any free port; see {@link #getPort()}.
+     * @throws IOException if this shard cannot listen.
+     */
+    public WorldShard(World world, int index, InetSocketAddress[] peers)
+            throws IOException {
+        if (index < 0 || index >= peers.length) {
+            throw new IllegalArgumentException();
+        }
+        this.world = world;
+        this.index = index;
+        this.peers = peers.clone();
+        this.connections = new Peer[peers.length];
+        this.server = new ServerSocket();
+        this.server.bind(peers[index]);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WorldShard.this.accept();
+            }
+        }, "shard-" + index + "-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Sets the address of another shard, for shards started on any port.
+     *
+     * @param shard   the other shard's index.
+     * @param address its address.
+     */
+    public synchronized void setPeer(int shard, InetSocketAddress address) {
+        this.peers[shard] = address;
+    }
+
+    /**
+     * Gets the port this shard listens on.
+     *
+     * @return the local port.
+     */
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Gets the index of the shard owning a tile.
+     *
+     * @param id tile id.
+     * @return the owner's index.
+     */
+    public int ownerOf(int id) {
+        int regions = Math.max(1, this.world.getRegionCount());
+        return (int) ((long) this.world.regionOf(id) * this.peers.length
+            / regions);
+    }
+
+    /**
+     * Whether this shard owns a tile.
+     *
+     * @param id tile id.
+     * @return true if owned here.
+     */
+    public boolean owns(int id) {
+        return id >= 0 && id < this.world.size()
+            && this.ownerOf(id) == this.index;
+    }
+
+    /**
+     * Puts a new builder on a tile this shard owns.
+     *
+     * @param name      builder name, not already used on this shard.
+     * @param id        id of an owned tile.
+     * @param inventory starting inventory.
+     * @throws InvalidBlockException if the inventory holds an uncarryable
+     *                               block.
+     */
+    public synchronized void addBuilder(String name, int id,
+            List<Block> inventory) throws InvalidBlockException {
+        Tile tile = this.ownedTile(id);
+        if (this.builders.containsKey(name)) {
+            throw new IllegalArgumentException("Builder exists: " + name);
+        }
+        this.builders.put(name, new Builder(name, tile, inventory));
+    }
+
+    /**
+     * Gets a builder on this shard.
+     *
+     * @param name builder name.
+     * @return the builder, or null if it is not on this shard.
+     */
+    public synchronized Builder getBuilder(String name) {
+        return this.builders.get(name);
+    }
+
+    /**
+     * Digs with a builder, as {@link Builder#digOnCurrentTile()}.
+     *
+     * @param name name of a builder on this shard.
+     * @return the outcome.
+     */
+    public synchronized int dig(String name) {
+        Builder builder = this.builder(name);
+        if (this.isReserved(builder.getCurrentTile())) {
+            return BUSY;
+        }
+        try {
+            builder.digOnCurrentTile();
+            return Action.OK;
+        } catch (BlockWorldException e) {
+            return Action.outcomeOf(e);
+        }
+    }
+
+    /**
+     * Drops a block with a builder, as {@link Builder#dropFromInventory}.
+     *
+     * @param name  name of a builder on this shard.
+     * @param index inventory index.
+     * @return the outcome.
+     */
+    public synchronized int drop(String name, int index) {
+        Builder builder = this.builder(name);
+        if (this.isReserved(builder.getCurrentTile())) {
+            return BUSY;
+        }
+        try {
+            builder.dropFromInventory(index);
+            return Action.OK;
+        } catch (BlockWorldException e) {
+            return Action.outcomeOf(e);
+        }
+    }
+
+    /**
+     * Moves the top block of an owned tile through an exit, as
+     * {@link Tile#moveBlock(String)}, handing it to another shard if the
+     * exit leads there.
+     *
+     * @param id       id of an owned tile.
+     * @param exitName exit to move the block through.
+     * @return the outcome, or {@link #BUSY}.
+     * @throws IOException if the other shard cannot be reached.
+     */
+    public int moveBlock(int id, String exitName) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            int outcome = this.tryMoveBlock(id, exitName);
+            if (outcome != BUSY || attempt + 1 == ATTEMPTS) {
+                return outcome;
+            }
+            this.backOff(attempt);
+        }
+    }
+
+    /**
+     * Moves a builder through an exit of its tile, as
+     * {@link Builder#moveTo(Tile)}, handing it to another shard if the
+     * exit leads there.
+     *
+     * @param name     name of a builder on this shard.
+     * @param exitName exit to move through.
+     * @return the outcome, or {@link #BUSY}.
+     * @throws IOException if the other shard cannot be reached.
+     */
+    public int moveBuilder(String name, String exitName) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            int outcome = this.tryMoveBuilder(name, exitName);
+            if (outcome != BUSY || attempt + 1 == ATTEMPTS) {
+                return outcome;
+            }
+            this.backOff(attempt);
+        }
+    }
+
+    /**
+     * Stops listening and closes every connection.
+     *
+     * @throws IOException if the listening socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.server.close();
+        synchronized (this) {
+            for (Peer peer : this.connections) {
+                if (peer != null) {
+                    peer.socket.close();
+                }
+            }
+            for (Socket socket : this.accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * One attempt at moveBlock.
+     */
+    private int tryMoveBlock(int id, String exitName) throws IOException {
+        int target;
+        int height;
+        int type;
+        synchronized (this) {
+            Tile tile = this.ownedTile(id);
+            if (this.isReserved(tile)) {
+                return BUSY;
+            }
+            Tile targetTile = exitName == null
+                ? null : tile.getExits().get(exitName);
+            target = this.world.getId(targetTile);
+            if (target < 0) {
+                return Action.NO_EXIT;
+            }
+            if (this.owns(target)) {
+                if (this.isReserved(targetTile)) {
+                    return BUSY;
+                }
+                try {
+                    tile.moveBlock(exitName);
+                    return Action.OK;
+                } catch (BlockWorldException e) {
+                    return Action.outcomeOf(e);
+                }
+            }
+            height = tile.height();
+            type = height == 0 ? -1 : tile.typeAt(height - 1).getId();
+            this.reserved.add(id);
+        }
+
+        int shard = this.ownerOf(target);
+        Peer peer = null;
+        try {
+            // Connecting may fail too, so it is inside the release.
+            peer = this.peer(shard);
+            synchronized (peer) {
+                peer.out.writeByte(PREPARE_BLOCK);
+                peer.out.writeInt(target);
+                peer.out.writeInt(height);
+                peer.out.writeInt(type);
+                peer.out.flush();
+                int vote = peer.in.readByte();
+                if (vote == Action.OK) {
+                    // Only once acknowledged, so a failed commit loses
+                    // nothing. The tile is reserved until then.
+                    peer.commit();
+                    synchronized (this) {
+                        this.world.getTile(id).removeTopBlock();
+                    }
+                }
+                return vote;
+            }
+        } catch (TooLowException e) {
+            throw new AssertionError(e); // Reserved, so still not empty.
+        } catch (IOException e) {
+            if (peer != null) {
+                this.disconnect(shard, peer);
+            }
+            throw e;
+        } finally {
+            this.release(id);
+        }
+    }
+
+    /**
+     * One attempt at moveBuilder.
+     */
+    private int tryMoveBuilder(String name, String exitName)
+            throws IOException {
+        Builder builder;
+        int from;
+        int target;
+        synchronized (this) {
+            builder = this.builder(name);
+            Tile tile = builder.getCurrentTile();
+            if (this.isReserved(tile)) {
+                return BUSY;
+            }
+            Tile targetTile = exitName == null
+                ? null : tile.getExits().get(exitName);
+            target = this.world.getId(targetTile);
+            if (target < 0) {
+                return Action.NO_EXIT;
+            }
+            if (this.owns(target)) {
+                if (this.isReserved(targetTile)) {
+                    return BUSY;
+                }
+                try {
+                    builder.moveTo(targetTile);
+                    return Action.OK;
+                } catch (NoExitException e) {
+                    return Action.NO_EXIT;
+                }
+            }
+            from = tile.id;
+            this.reserved.add(from);
+        }
+
+        int shard = this.ownerOf(target);
+        Peer peer = null;
+        try {
+            peer = this.peer(shard);
+            synchronized (peer) {
+                peer.out.writeByte(PREPARE_ENTER);
+                peer.out.writeInt(target);
+                peer.out.writeInt(builder.getCurrentTile().height());
+                peer.out.writeUTF(name);
+                List<Block> inventory = builder.getInventory();
+                peer.out.writeInt(inventory.size());
+                for (Block block : inventory) {
+                    peer.out.writeInt(BlockTypes.of(block).getId());
+                }
+                peer.out.flush();
+                int vote = peer.in.readByte();
+                if (vote == Action.OK) {
+                    peer.commit();
+                    synchronized (this) {
+                        this.builders.remove(name);
+                    }
+                }
+                return vote;
+            }
+        } catch (IOException e) {
+            if (peer != null) {
+                this.disconnect(shard, peer);
+            }
+            throw e;
+        } finally {
+            this.release(from);
+        }
+    }
+
+    /**
+     * Serves one connection from another shard until it closes, dropping
+     * any handoff it prepared and never committed.
+     */
+    private void serve(Socket socket) {
+        Prepared prepared = null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int message = in.readByte();
+                switch (message) {
+                    case PREPARE_BLOCK:
+                        prepared = new Prepared(in.readInt(), in.readInt());
+                        prepared.type = in.readInt();
+                        break;
+                    case PREPARE_ENTER:
+                        prepared = new Prepared(in.readInt(), in.readInt());
+                        prepared.builder = in.readUTF();
+                        prepared.inventory = new ArrayList<Block>();
+                        for (int i = in.readInt(); i > 0; i--) {
+                            prepared.inventory.add(
+                                this.blockOf(in.readInt()));
+                        }
+                        break;
+                    case COMMIT:
+                        this.commit(prepared);
+                        prepared = null;
+                        break;
+                    default:
+                        throw new IOException("Unknown message " + message);
+                }
+                if (prepared != null) {
+                    int vote = this.prepare(prepared);
+                    if (vote != Action.OK) {
+                        prepared = null;
+                    }
+                    out.writeByte(vote);
+                } else {
+                    out.writeByte(Action.OK);
+                }
+                out.flush();
+            }
+        } catch (EOFException e) {
+            // The other shard hung up.
+        } catch (IOException e) {
+            // Connection lost.
+        } finally {
+            if (prepared != null) {
+                this.release(prepared.target);
+            }
+        }
+    }
+
+    /**
+     * Decides whether a prepared handoff can go ahead, reserving its target
+     * if so.
+     *
+     * @return the vote, an outcome code.
+     */
+    private synchronized int prepare(Prepared prepared) {
+        if (!this.owns(prepared.target)) {
+            return Action.NO_EXIT;
+        }
+        Tile tile = this.world.getTile(prepared.target);
+        if (this.isReserved(tile)) {
+            return BUSY;
+        }
+        int height = tile.height();
+        if (prepared.builder != null) {
+            // As Builder.canEnter, given there is an exit.
+            if (Math.abs(height - prepared.height) > 1
+                    || this.builders.containsKey(prepared.builder)) {
+                return Action.NO_EXIT;
+            }
+            for (Block block : prepared.inventory) {
+                if (!BlockTypes.of(block).is(BlockType.CARRYABLE)) {
+                    return Action.INVALID_BLOCK;
+                }
+            }
+        } else {
+            // As Tile.moveBlock, in the same order.
+            if (height >= prepared.height) {
+                return Action.TOO_HIGH;
+            }
+            BlockType type = BlockTypes.byId(prepared.type);
+            if (type == null || !type.is(BlockType.MOVEABLE)) {
+                return Action.INVALID_BLOCK;
+            }
+            if (height >= tile.maxHeightFor(type)) {
+                return Action.TOO_HIGH;
+            }
+        }
+        this.reserved.add(prepared.target);
+        return Action.OK;
+    }
+
+    /**
+     * Applies this shard's half of a prepared handoff.
+     */
+    private synchronized void commit(Prepared prepared) throws IOException {
+        if (prepared == null) {
+            throw new IOException("Commit without prepare");
+        }
+        Tile tile = this.world.getTile(prepared.target);
+        try {
+            if (prepared.builder != null) {
+                this.builders.put(prepared.builder, new Builder(
+                    prepared.builder, tile, prepared.inventory));
+            } else {
+                tile.placeBlock(BlockTypes.byId(prepared.type).getBlock());
+            }
+        } catch (BlockWorldException e) {
+            throw new AssertionError(e); // Checked when prepared.
+        } finally {
+            this.reserved.remove(prepared.target);
+        }
+    }
+
+    /**
+     * Accepts connections from other shards until closed.
+     */
+    private void accept() {
+        while (!this.closed) {
+            final Socket socket;
+            try {
+                socket = this.server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return; // Closed.
+            }
+            synchronized (this) {
+                this.accepted.add(socket);
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    WorldShard.this.serve(socket);
+                }
+            }, "shard-" + this.index + "-serve");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Gets the connection to another shard, connecting if needed.
+     */
+    private Peer peer(int shard) throws IOException {
+        InetSocketAddress address;
+        synchronized (this) {
+            if (this.connections[shard] != null) {
+                return this.connections[shard];
+            }
+            address = this.peers[shard];
+        }
+        Peer peer = new Peer(new Socket(address.getAddress(),
+            address.getPort()));
+        synchronized (this) {
+            if (this.connections[shard] == null && !this.closed) {
+                this.connections[shard] = peer;
+                return peer;
+            }
+        }
+        peer.socket.close(); // Lost a race, or closed meanwhile.
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("Shard closed");
+            }
+            return this.connections[shard];
+        }
+    }
+
+    /**
+     * Forgets a broken connection, so the next handoff reconnects.
+     */
+    private void disconnect(int shard, Peer peer) {
+        synchronized (this) {
+            if (this.connections[shard] == peer) {
+                this.connections[shard] = null;
+            }
+        }
+        try {
+            peer.socket.close();
+        } catch (IOException e) {
+            // Already broken.
+        }
+    }
+
+    /**
+     * Gets an owned tile, throwing if it is not owned.
+     */
+    private Tile ownedTile(int id) {
+        Tile tile = this.owns(id) ? this.world.getTile(id) : null;
+        if (tile == null) {
+            throw new IllegalArgumentException("Tile not on this shard: "
+                + id);
+        }
+        return tile;
+    }
+
+    /**
+     * Gets a builder on this shard, throwing if it is not here.
+     */
+    private Builder builder(String name) {
+        Builder builder = this.builders.get(name);
+        if (builder == null) {
+            throw new IllegalArgumentException("Builder not on this shard: "
+                + name);
+        }
+        return builder;
+    }
+
+    /**
+     * Whether a tile is reserved by a handoff in progress.
+     */
+    private boolean isReserved(Tile tile) {
+        return this.reserved.contains(tile.id);
+    }
+
+    /**
+     * Drops a reservation.
+     */
+    private synchronized void release(int id) {
+        this.reserved.remove(id);
+    }
+
+    /**
+     * Gets a block of the type with an id, for a received inventory.
+     */
+    private Block blockOf(int typeId) throws IOException {
+        BlockType type = BlockTypes.byId(typeId);
+        if (type == null) {
+            throw new IOException("Unknown block type " + typeId);
+        }
+        return type.getBlock();
+    }
+
+    /**
+     * Waits a random, growing time before retrying a busy handoff.
+     */
+    private void backOff(int attempt) throws IOException {
+        int limit = 1 + this.random.nextInt(1 << Math.min(attempt, 4));
+        try {
+            Thread.sleep(limit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    /** An outgoing connection to another shard. */
+    private static final class Peer {
+
+        /** The connection. */
+        private final Socket socket;
+        /** Messages to the other shard. */
+        private final DataOutputStream out;
+        /** Votes and acknowledgements from the other shard. */
+        private final DataInputStream in;
+
+        Peer(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            this.socket = socket;
+            this.out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * Sends COMMIT and waits for it to be acknowledged.
+         */
+        void commit() throws IOException {
+            this.out.writeByte(COMMIT);
+            this.out.flush();
+            this.in.readByte();
+        }
+    }
+
+    /** A handoff prepared on the receiving side. */
+    private static final class Prepared {
+
+        /** Id of the target tile. */
+        private final int target;
+        /** Height of the source tile. */
+        private final int height;
+        /** Type id of the moved block, for block handoffs. */
+        private int type;
+        /** Name of the moved builder, for builder handoffs. */
+        private String builder;
+        /** Inventory of the moved builder. */
+        private List<Block> inventory;
+
+        Prepared(int target, int height) {
+            this.target = target;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Runs one shard of a generated world until killed.
+     *
+     * <p> Usage: WorldShard SEED WIDTH DEPTH INDEX PORT... with one loopback
+     * port for every shard, in order.
+     *
+     * @param args command line arguments.
+     * @throws Exception if the shard cannot start.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println(
+                "Usage: WorldShard SEED WIDTH DEPTH INDEX PORT...");
+            System.exit(2);
+        }
+        World world = new WorldGenerator(Long.parseLong(args[0]),
+            Integer.parseInt(args[1]), Integer.parseInt(args[2])).generate();
+        InetSocketAddress[] peers = new InetSocketAddress[args.length - 4];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(args[i + 4]));
+        }
+        WorldShard shard = new WorldShard(world, Integer.parseInt(args[3]),
+            peers);
+        System.out.println("shard " + args[3] + " listening on "
+            + shard.getPort());
+        Thread.currentThread().join();
+    }
+}
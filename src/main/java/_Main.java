@@ -1,14 +1,413 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 /**
- * Hello world!
+ * Headless driver which runs builder actions against a world and reports
+ * how fast they went.
  *
+ * <p> The world is loaded from a map file or generated. Actions come from
+ * a script or a seeded random walk by any number of builders. The report
+ * gives actions per second, how many actions each exception rejected, and
+ * latency percentiles. Run with --help for the options.
+ *
+ * <p> Script lines are one command each, blank lines and lines starting
+ * with # being ignored:
+ * <ul>
+ * <li> builder ID: put a new builder on tile ID and act with it. </li>
+ * <li> move EXIT: move the builder through an exit. </li>
+ * <li> goto ID: move the builder to tile ID. </li>
+ * <li> dig: dig on the builder's tile. </li>
+ * <li> drop INDEX: drop a block from the builder's inventory. </li>
+ * <li> moveblock EXIT: move the top block of the builder's tile. </li>
+ * </ul>
+ * Scripts start with a builder on the first tile of the world.
  */
-public class _Main 
-{
-    public static void main( String[] args )
-    {
-        System.out.println( "Hello World!" );
-        System.out.println( "Hello World 2!" );
-        System.out.println( "Hello World 3!" );
-        Builder a = new Builder("asdf", new Tile());
+public class _Main {
+
+    /** Command line help. */
+    private static final String USAGE = "Usage: _Main [options]\n"
+        + "  --map FILE         load a world from a map file\n"
+        + "  --generate W D     generate a W by D world (default 64 64)\n"
+        + "  --seed N           seed for generating and random actions\n"
+        + "  --script FILE      run a script of commands, - for stdin\n"
+        + "  --random N         run N random actions (default 1000000)\n"
+        + "  --builders N       builders for random actions (default 4)\n"
+        + "  --warmup N         random actions to run before measuring\n";
+
+    /** Script command moving through an exit, beside the Action codes. */
+    private static final int MOVE = -1;
+    /** Script command adding a builder, beside the Action codes. */
+    private static final int NEW_BUILDER = -2;
+
+    public static void main(String[] args) {
+        int status = run(args, System.out);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the driver.
+     *
+     * @param args command line arguments.
+     * @param out  where the report goes.
+     * @return exit status, 0 on success and 2 for bad arguments.
+     */
+    static int run(String[] args, PrintStream out) {
+        String map = null;
+        String script = null;
+        int width = 64;
+        int depth = 64;
+        long seed = 1;
+        long actions = 1000000;
+        int builders = 4;
+        long warmup = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--map":
+                        map = args[++i];
+                        break;
+                    case "--generate":
+                        width = Integer.parseInt(args[++i]);
+                        depth = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--script":
+                        script = args[++i];
+                        break;
+                    case "--random":
+                        actions = Long.parseLong(args[++i]);
+                        break;
+                    case "--builders":
+                        builders = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Long.parseLong(args[++i]);
+                        break;
+                    case "--help":
+                        out.print(USAGE);
+                        return 0;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (builders <= 0 || actions < 0 || warmup < 0 || width <= 0
+                    || depth <= 0
+                    || (long) width * depth > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException
+                | ArrayIndexOutOfBoundsException e) {
+            out.print(USAGE);
+            return 2;
+        }
+
+        try {
+            long start = System.nanoTime();
+            World world = map != null ? MapLoader.load(Paths.get(map))
+                : new WorldGenerator(seed, width, depth).generate();
+            Tile first = null;
+            for (int id = 0; first == null && id < world.size(); id++) {
+                first = world.getTile(id);
+            }
+            if (first == null) {
+                out.println("World has no tiles");
+                return 1;
+            }
+            out.printf("world          %d tiles in %.3f s%n", world.size(),
+                (System.nanoTime() - start) / 1e9);
+
+            Report report;
+            if (script != null) {
+                List<Command> commands = parse(script.equals("-")
+                    ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                    : Files.newBufferedReader(Paths.get(script),
+                        StandardCharsets.UTF_8));
+                report = runScript(world, first, commands);
+            } else {
+                List<Builder> walkers = new ArrayList<Builder>();
+                for (int i = 0; i < builders; i++) {
+                    Tile tile = world.getTile(
+                        (int) ((long) i * world.size() / builders));
+                    walkers.add(new Builder("walker-" + i,
+                        tile == null ? first : tile));
+                }
+                Random random = new Random(seed);
+                runRandom(walkers, random, warmup);
+                report = runRandom(walkers, random, actions);
+            }
+            report.print(out);
+            return 0;
+        } catch (ScriptException e) {
+            out.println(e.getMessage());
+            return 2;
+        } catch (IOException | InterruptedException e) {
+            out.println("Failed: " + e);
+            return 1;
+        }
+    }
+
+    /**
+     * Runs random actions, each by the next builder in turn.
+     */
+    private static Report runRandom(List<Builder> builders, Random random,
+            long actions) {
+        Report report = new Report();
+        for (long i = 0; i < actions; i++) {
+            Builder builder = builders.get((int) (i % builders.size()));
+            Tile tile = builder.getCurrentTile();
+            int choice = random.nextInt(8);
+            long start = System.nanoTime();
+            try {
+                if (choice < 4) {
+                    builder.moveTo(randomExit(tile, random));
+                } else if (choice < 6) {
+                    builder.digOnCurrentTile();
+                } else if (choice < 7) {
+                    builder.dropFromInventory(
+                        random.nextInt(builder.getInventory().size() + 1));
+                } else {
+                    Map<String, Tile> exits = tile.getExits();
+                    tile.moveBlock(exits.isEmpty() ? null
+                        : nth(exits.keySet().iterator(),
+                            random.nextInt(exits.size())));
+                }
+                report.add(System.nanoTime() - start, Action.OK);
+            } catch (BlockWorldException e) {
+                report.add(System.nanoTime() - start, Action.outcomeOf(e));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Gets a random exit of a tile, or null if it has none.
+     */
+    private static Tile randomExit(Tile tile, Random random) {
+        Map<String, Tile> exits = tile.getExits();
+        if (exits.isEmpty()) {
+            return null;
+        }
+        return nth(exits.values().iterator(), random.nextInt(exits.size()));
+    }
+
+    /**
+     * Helper method to get the nth element of an iterator.
+     */
+    private static <T> T nth(Iterator<T> iterator, int n) {
+        for (int i = 0; i < n; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Runs parsed script commands.
+     */
+    private static Report runScript(World world, Tile first,
+            List<Command> commands) throws ScriptException {
+        Report report = new Report();
+        Builder builder = new Builder("script-0", first);
+        int created = 1;
+        for (Command command : commands) {
+            if (command.code == NEW_BUILDER) {
+                Tile tile = world.getTile(command.number);
+                if (tile == null) {
+                    throw new ScriptException("No tile " + command.number);
+                }
+                builder = new Builder("script-" + created++, tile);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                switch (command.code) {
+                    case MOVE:
+                        builder.moveTo(builder.getCurrentTile().getExits()
+                            .get(command.exit));
+                        break;
+                    case Action.MOVE_TO:
+                        builder.moveTo(world.getTile(command.number));
+                        break;
+                    case Action.DIG:
+                        builder.digOnCurrentTile();
+                        break;
+                    case Action.DROP:
+                        builder.dropFromInventory(command.number);
+                        break;
+                    default:
+                        builder.getCurrentTile().moveBlock(command.exit);
+                        break;
+                }
+                report.add(System.nanoTime() - start, Action.OK);
+            } catch (BlockWorldException e) {
+                report.add(System.nanoTime() - start, Action.outcomeOf(e));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Parses a whole script before anything runs, so parsing is not timed.
+     *
+     * @return the commands.
+     * @throws ScriptException if a line is not a command.
+     */
+    private static List<Command> parse(Reader script)
+            throws IOException, ScriptException {
+        List<Command> commands = new ArrayList<Command>();
+        try (BufferedReader in = new BufferedReader(script)) {
+            int number = 0;
+            for (String line; (line = in.readLine()) != null;) {
+                number++;
+                String[] words = line.trim().split("\\s+");
+                if (words[0].isEmpty() || words[0].startsWith("#")) {
+                    continue;
+                }
+                try {
+                    commands.add(parseCommand(words));
+                } catch (IllegalArgumentException e) {
+                    throw new ScriptException("Bad command on line "
+                        + number + ": " + line);
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Parses one command.
+     *
+     * @throws IllegalArgumentException if it is not a command.
+     */
+    private static Command parseCommand(String[] words) {
+        int arguments = words.length - 1;
+        switch (words[0]) {
+            case "builder":
+                if (arguments == 1) {
+                    return new Command(NEW_BUILDER, parseId(words[1]), null);
+                }
+                break;
+            case "move":
+                if (arguments == 1) {
+                    return new Command(MOVE, 0, words[1]);
+                }
+                break;
+            case "goto":
+                if (arguments == 1) {
+                    return new Command(Action.MOVE_TO, parseId(words[1]),
+                        null);
+                }
+                break;
+            case "dig":
+                if (arguments == 0) {
+                    return new Command(Action.DIG, 0, null);
+                }
+                break;
+            case "drop":
+                if (arguments == 1) {
+                    return new Command(Action.DROP,
+                        Integer.parseInt(words[1]), null);
+                }
+                break;
+            case "moveblock":
+                if (arguments == 1) {
+                    return new Command(Action.MOVE_BLOCK, 0, words[1]);
+                }
+                break;
+            default:
+                break;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Helper method to parse a tile id.
+     */
+    private static int parseId(String word) {
+        int id = Integer.parseInt(word);
+        if (id < 0) {
+            throw new IllegalArgumentException();
+        }
+        return id;
+    }
+
+    /** One parsed script command. */
+    private static final class Command {
+
+        /** Action code, or MOVE or NEW_BUILDER. */
+        private final int code;
+        /** Tile id or inventory index, for commands taking a number. */
+        private final int number;
+        /** Exit name, for commands taking one, otherwise null. */
+        private final String exit;
+
+        Command(int code, int number, String exit) {
+            this.code = code;
+            this.number = number;
+            this.exit = exit;
+        }
+    }
+
+    /** A script which cannot be parsed. */
+    private static class ScriptException extends Exception {
+        ScriptException(String message) {
+            super(message);
+        }
+    }
+
+    /** Counts and latencies of measured actions. */
+    private static class Report {
+
+        /** Latencies of the actions in nanoseconds. */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        /** Number of actions with each outcome. */
+        private final long[] outcomes = new long[Action.NO_EXIT + 1];
+        /** Time the first action started. */
+        private final long start = System.nanoTime();
+
+        /**
+         * Records one action.
+         */
+        void add(long latency, int outcome) {
+            this.latencies.record(latency);
+            this.outcomes[outcome]++;
+        }
+
+        /**
+         * Prints the report.
+         */
+        void print(PrintStream out) {
+            double seconds = (System.nanoTime() - this.start) / 1e9;
+            long count = this.latencies.getCount();
+            out.printf("actions        %d%n", count);
+            out.printf("seconds        %.3f%n", seconds);
+            out.printf("ops/sec        %.0f%n",
+                seconds > 0 ? count / seconds : 0.0);
+            for (int outcome = Action.OK; outcome <= Action.NO_EXIT;
+                    outcome++) {
+                out.printf("%-14s %d%n", Action.outcomeName(outcome),
+                    this.outcomes[outcome]);
+            }
+            double[] percentiles = {50, 90, 99, 99.9, 100};
+            for (double percentile : percentiles) {
+                out.printf("latency %-6s %d ns%n", percentile == 100 ? "max"
+                    : "p" + String.valueOf(percentile).replace(".0", ""),
+                    this.latencies.getValueAt(percentile));
+            }
+        }
     }
 }
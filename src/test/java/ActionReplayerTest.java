@@ -0,0 +1,109 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * ActionReplayerTest
+ */
+public class ActionReplayerTest {
+
+    /** Exit names used by random actions, including a missing one. */
+    private static final String[] EXITS = {WorldGenerator.NORTH,
+        WorldGenerator.EAST, WorldGenerator.SOUTH, WorldGenerator.WEST,
+        "nowhere", null};
+
+    /**
+     * Helper method to record a random session on a generated world.
+     */
+    private static byte[] record(World world, long seed) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ActionRecorder recorder =
+            new ActionRecorder(world, Channels.newChannel(bytes));
+        Builder[] builders = {
+            new Builder("Alice", world.getTile(0)),
+            new Builder("Bob", world.getTile(world.size() - 1),
+                new ArrayList<Block>(Arrays.<Block>asList(new WoodBlock(),
+                    new SoilBlock())))
+        };
+        for (Builder builder : builders) {
+            recorder.attach(builder);
+        }
+        Random random = new Random(seed);
+        for (int step = 0; step < 3000; step++) {
+            Builder builder = builders[random.nextInt(builders.length)];
+            String exit = EXITS[random.nextInt(EXITS.length)];
+            try {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        builder.moveTo(builder.getCurrentTile().getExits()
+                            .get(exit));
+                        break;
+                    case 1:
+                        builder.digOnCurrentTile();
+                        break;
+                    case 2:
+                        builder.dropFromInventory(random.nextInt(3) - 1);
+                        break;
+                    default:
+                        builder.getCurrentTile().moveBlock(exit);
+                        break;
+                }
+            } catch (BlockWorldException e) {
+                // Failed actions are recorded too.
+            }
+            if (step % 500 == 0) {
+                recorder.checkpoint();
+            }
+        }
+        recorder.checkpoint();
+        recorder.close();
+        return bytes.toByteArray();
+    }
+
+    /** A replay on the same starting world must match the recording. */
+    @Test
+    public void testReplay() throws Exception {
+        World recorded = new WorldGenerator(4, 10, 10).generate();
+        byte[] trace = record(recorded, 7);
+        assertTrue("Trace not compact.", trace.length < 3000 * 5);
+
+        World replayed = new WorldGenerator(4, 10, 10).generate();
+        ActionReplayer replayer = new ActionReplayer(replayed);
+        long actions = replayer.replay(
+            Channels.newChannel(new ByteArrayInputStream(trace)));
+        assertEquals("Wrong action count.", 3000, actions);
+        List<Builder> builders = replayer.getBuilders();
+        assertEquals("Wrong builder.", "Bob", builders.get(1).getName());
+        List<Builder> none = new ArrayList<Builder>();
+        assertEquals("Worlds differ.", Action.stateHash(recorded, none),
+                Action.stateHash(replayed, none));
+    }
+
+    /** A replay on a different world must report where it differs. */
+    @Test
+    public void testDesync() throws Exception {
+        byte[] trace = record(new WorldGenerator(4, 10, 10).generate(), 9);
+        World changed = new WorldGenerator(4, 10, 10).generate();
+        changed.getTile(55).placeBlock(new StoneBlock());
+        try {
+            new ActionReplayer(changed).replay(
+                Channels.newChannel(new ByteArrayInputStream(trace)));
+            fail("Replay on a different world matched.");
+        } catch (ReplayException e) {
+            assertTrue("No action number.", e.getAction() >= 0);
+        }
+
+        ActionReplayer unchecked = new ActionReplayer(
+            new WorldGenerator(5, 10, 10).generate());
+        unchecked.setVerify(false);
+        assertEquals("Wrong action count.", 3000, unchecked.replay(
+            Channels.newChannel(new ByteArrayInputStream(trace))));
+    }
+}
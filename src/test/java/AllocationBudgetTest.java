@@ -0,0 +1,132 @@
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AllocationBudgetTest
+ *
+ * <p> Checks the bytes allocated by the successful paths of the world's
+ * hot operations, as counted by the JVM for the running thread. Skipped
+ * on JVMs without per-thread allocation counters.
+ */
+public class AllocationBudgetTest {
+
+    /** Operations run before measuring, so they are compiled. */
+    private static final int WARMUP = 50000;
+    /** Operations measured. */
+    private static final int RUNS = 100000;
+    /**
+     * Bytes allowed per measurement on top of the budget, for the counter
+     * itself and anything the JVM does on the thread meanwhile.
+     */
+    private static final long SLACK = 16 * 1024;
+
+    /** Allocation counters of the running thread. */
+    private com.sun.management.ThreadMXBean threads;
+
+    private World world;
+    private Tile high;
+    private Tile low;
+    /** Holds the columns the tested tiles move between, so they stay. */
+    private Tile pin;
+
+    @Before
+    public void setUp() throws Exception {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        this.threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        this.world = new World();
+        this.high = new Tile();
+        this.low = new Tile();
+        this.pin = new Tile();
+        this.world.add(this.high);
+        this.world.add(this.low);
+        this.high.addExit("down", this.low);
+        this.low.addExit("up", this.high);
+        this.low.removeTopBlock();
+        this.pin.placeBlock(new WoodBlock());
+    }
+
+    /** An operation measured, repeatable forever when run in pairs. */
+    private abstract static class Operation {
+        abstract void run(int i) throws Exception;
+    }
+
+    /**
+     * Helper method to check an operation allocates no more than a budget
+     * per run once warmed up.
+     */
+    private void assertBudget(String name, long budget, Operation operation)
+            throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = this.threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < RUNS; i++) {
+            operation.run(i);
+        }
+        long allocated = this.threads.getThreadAllocatedBytes(thread)
+            - before;
+        assertTrue(name + " allocated " + allocated + " bytes over "
+            + RUNS + " runs", allocated <= budget * RUNS + SLACK);
+    }
+
+    /** Placing and digging reuse shared columns. */
+    @Test
+    public void testPlaceAndDig() throws Exception {
+        final Block wood = new WoodBlock();
+        this.pin.setColumn(this.high.getColumn().push(wood));
+        this.assertBudget("placeBlock/dig", 0, new Operation() {
+            void run(int i) throws Exception {
+                if ((i & 1) == 0) {
+                    AllocationBudgetTest.this.high.placeBlock(wood);
+                } else {
+                    AllocationBudgetTest.this.high.dig();
+                }
+            }
+        });
+    }
+
+    /** Moving blocks back and forth allocates nothing. */
+    @Test
+    public void testMoveBlock() throws Exception {
+        this.high.placeBlock(new WoodBlock());
+        this.low.placeBlock(new SoilBlock());
+        this.assertBudget("moveBlock", 0, new Operation() {
+            void run(int i) throws Exception {
+                if ((i & 1) == 0) {
+                    AllocationBudgetTest.this.high.moveBlock("down");
+                } else {
+                    AllocationBudgetTest.this.low.moveBlock("up");
+                }
+            }
+        });
+    }
+
+    /** Checking and moving builders allocates nothing. */
+    @Test
+    public void testBuilderMoves() throws Exception {
+        final Builder builder = new Builder("Bob", this.high);
+        this.assertBudget("canEnter", 0, new Operation() {
+            void run(int i) {
+                if (!builder.canEnter(AllocationBudgetTest.this.low)) {
+                    throw new AssertionError("Cannot enter.");
+                }
+            }
+        });
+        this.assertBudget("moveTo", 0, new Operation() {
+            void run(int i) throws Exception {
+                builder.moveTo((i & 1) == 0 ? AllocationBudgetTest.this.low
+                    : AllocationBudgetTest.this.high);
+            }
+        });
+    }
+}
@@ -0,0 +1,173 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+/**
+ * BlockTypesTest
+ */
+public class BlockTypesTest {
+
+    /** Built-in block classes must map to the built-in types. */
+    @Test
+    public void testBuiltInTypes() {
+        assertSame("Wrong soil type.",
+                BlockTypes.SOIL, BlockTypes.of(new SoilBlock()));
+        assertSame("Wrong grass type.",
+                BlockTypes.GRASS, BlockTypes.of(new GrassBlock()));
+        assertSame("Wrong wood type.",
+                BlockTypes.WOOD, BlockTypes.of(new WoodBlock()));
+        assertSame("Wrong stone type.",
+                BlockTypes.STONE, BlockTypes.of(new StoneBlock()));
+
+        assertEquals("Wrong soil id.", 0, BlockTypes.SOIL.getId());
+        assertEquals("Wrong stone id.", 3, BlockTypes.STONE.getId());
+        assertSame("Wrong lookup by id.",
+                BlockTypes.WOOD, BlockTypes.byId(BlockTypes.WOOD.getId()));
+        assertSame("Wrong lookup by name.",
+                BlockTypes.GRASS, BlockTypes.byName("grass"));
+        assertSame("Wrong lookup by code.",
+                BlockTypes.STONE, BlockTypes.byCode('t'));
+
+        assertTrue("Soil not ground.", BlockTypes.SOIL.isGround());
+        assertFalse("Wood is ground.", BlockTypes.WOOD.isGround());
+        assertTrue("Wood not moveable and carryable.", BlockTypes.WOOD
+                .is(BlockType.MOVEABLE | BlockType.CARRYABLE));
+        assertFalse("Grass carryable.",
+                BlockTypes.GRASS.is(BlockType.CARRYABLE));
+        assertEquals("Stone has flags.", 0, BlockTypes.STONE.getFlags());
+    }
+
+    /** Block classes not known in advance are described once. */
+    @Test
+    public void testCustomClass() {
+        BlockType type = BlockTypes.of(new GlassBlock());
+        assertEquals("Wrong name.", "test glass", type.getName());
+        assertTrue("Wrong flags.", type.is(BlockType.MOVEABLE));
+        assertFalse("Wrong flags.", type.is(BlockType.DIGGABLE));
+        assertEquals("Has a code.", '?', type.getCode());
+        assertSame("Not cached per class.",
+                type, BlockTypes.of(new GlassBlock()));
+    }
+
+    /** Blocks of one class which behave differently differ in type. */
+    @Test
+    public void testInstanceCapabilities() throws Exception {
+        BlockType loose = BlockTypes.of(new CrateBlock(true));
+        BlockType fixed = BlockTypes.of(new CrateBlock(false));
+        assertTrue("Wrong flags.", loose.is(BlockType.CARRYABLE));
+        assertFalse("First block's flags taken.",
+                fixed.is(BlockType.CARRYABLE));
+        assertSame("Same description not shared.",
+                loose, BlockTypes.of(new CrateBlock(true)));
+
+        Tile tile = new Tile();
+        tile.placeBlock(new CrateBlock(false));
+        Builder builder = new Builder("Bob", tile);
+        builder.digOnCurrentTile();
+        assertTrue("Uncarryable crate carried.",
+                builder.getInventory().isEmpty());
+        tile.placeBlock(new CrateBlock(true));
+        builder.digOnCurrentTile();
+        assertEquals("Carryable crate not carried.", 1,
+                builder.getInventory().size());
+    }
+
+    /** Loaded types place with their configured rules. */
+    @Test
+    public void testLoad() throws Exception {
+        BlockTypes.load(new StringReader("# name code colour flags\n"
+            + "\n"
+            + "test_sand  a  yellow  ground diggable carryable\n"));
+        BlockType sand = BlockTypes.byName("test_sand");
+        assertNotNull("Type not loaded.", sand);
+        assertSame("Code not registered.", sand, BlockTypes.byCode('a'));
+        assertSame("Block type wrong.",
+                sand, BlockTypes.of(sand.getBlock()));
+
+        Tile tile = new Tile();
+        tile.placeBlock(new WoodBlock());
+        try {
+            tile.placeBlock(sand.getBlock());
+            fail("Ground type placed above ground height.");
+        } catch (TooHighException e) {
+            // Expected.
+        }
+        tile = new Tile();
+        tile.dig();
+        tile.placeBlock(sand.getBlock());
+        Builder builder = new Builder("Bob", tile);
+        builder.digOnCurrentTile();
+        assertSame("Carryable type not carried.",
+                sand.getBlock(), builder.getInventory().get(0));
+    }
+
+    /** Bad configuration lines must be reported. */
+    @Test
+    public void testLoadErrors() {
+        String[] bad = {"test_missing x", "test_flag b red shiny",
+            "soil c red", "test_code s red", "test_long bb red"};
+        for (String line : bad) {
+            try {
+                BlockTypes.load(new StringReader(line));
+                fail("Loaded bad line " + line);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+        assertNull("Bad type registered.", BlockTypes.byName("test_code"));
+    }
+
+    /** Block whose carryability is set per instance. */
+    private static class CrateBlock implements Block {
+        private final boolean carryable;
+
+        CrateBlock(boolean carryable) {
+            this.carryable = carryable;
+        }
+
+        public String getColour() {
+            return "brown";
+        }
+
+        public String getBlockType() {
+            return "test crate";
+        }
+
+        public boolean isDiggable() {
+            return true;
+        }
+
+        public boolean isMoveable() {
+            return true;
+        }
+
+        public boolean isCarryable() {
+            return this.carryable;
+        }
+    }
+
+    /** Block implemented outside the registry. */
+    private static class GlassBlock implements Block {
+        public String getColour() {
+            return "clear";
+        }
+
+        public String getBlockType() {
+            return "test glass";
+        }
+
+        public boolean isDiggable() {
+            return false;
+        }
+
+        public boolean isMoveable() {
+            return true;
+        }
+
+        public boolean isCarryable() {
+            return false;
+        }
+    }
+}
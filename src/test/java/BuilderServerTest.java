@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.junit.Test;
+
+/**
+ * BuilderServerTest
+ */
+public class BuilderServerTest {
+
+    /**
+     * Helper method to start a server on a generated world.
+     */
+    private static BuilderServer start(World world, final Throwable[] error)
+            throws IOException {
+        final BuilderServer server = new BuilderServer(world,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /** Every pipelined request must be answered once. */
+    @Test
+    public void testLoad() throws Exception {
+        World world = new WorldGenerator(3, 20, 20).generate();
+        Throwable[] error = new Throwable[1];
+        BuilderServer server = start(world, error);
+        try {
+            LoadClient client = new LoadClient(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), server.getPort()),
+                8, 64, world.size(), 5);
+            assertEquals("Wrong answer count.", 8 * 5000, client.run(5000));
+            long total = 0;
+            for (int outcome = Action.OK; outcome <= Action.NO_EXIT;
+                    outcome++) {
+                total += client.getOutcomeCount(outcome);
+            }
+            assertEquals("Wrong outcome count.", 8 * 5000, total);
+            assertTrue("No successes.",
+                client.getOutcomeCount(Action.OK) > 0);
+            assertTrue("No failures.",
+                client.getOutcomeCount(Action.NO_EXIT) > 0);
+            assertEquals("Wrong request count.", 8 * 5000,
+                server.getRequests());
+        } finally {
+            server.close();
+        }
+        assertNull("Server failed.", error[0]);
+    }
+
+    /** Requests split across writes must wait for the rest. */
+    @Test
+    public void testSplitRequest() throws Exception {
+        World world = new WorldGenerator(3, 4, 4).generate();
+        BuilderServer server = start(world, new Throwable[1]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                server.getPort())) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] name = WorldGenerator.EAST.getBytes("UTF-8");
+            out.write(new byte[] {Action.MOVE_BLOCK, (byte) name.length});
+            out.write(name, 0, 2);
+            out.flush();
+            Thread.sleep(50);
+            out.write(name, 2, name.length - 2);
+            out.write(new byte[] {Action.MOVE_TO, 0});
+            out.flush();
+            int first = in.read();
+            assertTrue("Unknown outcome.",
+                first >= Action.OK && first <= Action.NO_EXIT);
+            assertEquals("Moved to a missing tile.", Action.NO_EXIT,
+                in.read());
+
+            out.write(99);
+            out.flush();
+            assertEquals("Unknown request not refused.", -1, in.read());
+        } finally {
+            server.close();
+        }
+    }
+}
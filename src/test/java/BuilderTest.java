@@ -42,6 +42,15 @@ public class BuilderTest
 
         Assert.assertEquals(
             "Incorrect starting inventory.", l, b.getInventory());
+
+        // The inventory is read-only and no longer shares the given list.
+        l.add(new StoneBlock());
+        Assert.assertEquals("Inventory shares the starting list.",
+            3, b.getInventory().size());
+        try {
+            b.getInventory().add(new StoneBlock());
+            Assert.fail("Inventory changed through the view.");
+        } catch (UnsupportedOperationException e) {}
     }
 
     @Test
@@ -121,4 +130,52 @@ public class BuilderTest
         Assert.assertFalse("Can enter a tile 2 blocks lower.",
             b.canEnter(t2));
     }
+
+    @Test
+    public void testCanEnterCache() throws Exception {
+        CountingTile t = new CountingTile();
+        Tile[] neighbours = new Tile[4];
+        for (int i = 0; i < neighbours.length; i++) {
+            neighbours[i] = new Tile();
+            t.addExit("exit " + i, neighbours[i]);
+        }
+        Builder b = new Builder("test", t);
+        for (int tick = 0; tick < 100; tick++) {
+            for (Tile n : neighbours) {
+                Assert.assertTrue("Cannot enter neighbour.", b.canEnter(n));
+            }
+        }
+        // Only answers worked out afresh look at the tile's exits.
+        Assert.assertTrue("Cache hit rate too low.", t.exitChecks <= 10);
+
+        // Every kind of change must be seen straight away.
+        neighbours[0].placeBlock(new WoodBlock());
+        neighbours[0].placeBlock(new WoodBlock());
+        Assert.assertFalse("Raised neighbour still enterable.",
+            b.canEnter(neighbours[0]));
+        neighbours[0].removeTopBlock();
+        Assert.assertTrue("Lowered neighbour not enterable.",
+            b.canEnter(neighbours[0]));
+        t.removeExit("exit 1");
+        Assert.assertFalse("Removed exit still enterable.",
+            b.canEnter(neighbours[1]));
+        t.placeBlock(new WoodBlock());
+        t.placeBlock(new WoodBlock());
+        Assert.assertFalse("Neighbour enterable from raised tile.",
+            b.canEnter(neighbours[2]));
+        b.moveTo(neighbours[0]);
+        Assert.assertFalse("Old tile's exits used after moving.",
+            b.canEnter(neighbours[3]));
+    }
+
+    /** Tile counting how often its exits are checked. */
+    private static class CountingTile extends Tile {
+        int exitChecks;
+
+        @Override
+        boolean hasExitTo(Tile target) {
+            this.exitChecks++;
+            return super.hasExitTo(target);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * ColumnTest
+ */
+public class ColumnTest {
+
+    /** Identical stacks must be the same column. */
+    @Test
+    public void testInterning() {
+        Block soil = BlockTypes.SOIL.getBlock();
+        Block wood = new WoodBlock();
+        Column first = Column.EMPTY.push(soil).push(wood);
+        Column second = Column.of(Arrays.asList(soil, wood));
+        assertSame("Equal stacks not shared.", first, second);
+        assertSame("Pop not shared.", Column.EMPTY.push(soil), first.pop());
+        assertNotSame("Different blocks shared.",
+                first, first.pop().push(new WoodBlock()));
+        assertEquals("Wrong height.", 2, first.height());
+        assertSame("Wrong top.", wood, first.top());
+    }
+
+    /** Many distinct blocks on one column must all be found again. */
+    @Test
+    public void testManyChildren() {
+        Block[] blocks = new Block[100];
+        Column[] columns = new Column[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = new WoodBlock();
+            columns[i] = Column.EMPTY.push(blocks[i]);
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            assertSame("Child lost.", columns[i],
+                    Column.EMPTY.push(blocks[i]));
+        }
+    }
+
+    /** Tall columns of many runs must read back and pop as pushed. */
+    @Test
+    public void testTallRuns() {
+        Block[] strata = {BlockTypes.SOIL.getBlock(),
+            BlockTypes.STONE.getBlock(), BlockTypes.WOOD.getBlock()};
+        Block[] layers = new Block[3000];
+        Column[] columns = new Column[layers.length + 1];
+        columns[0] = Column.EMPTY;
+        for (int i = 0; i < layers.length; i++) {
+            // Runs of every length from 1 up, in turn.
+            layers[i] = strata[(int) Math.sqrt(2 * i) % strata.length];
+            columns[i + 1] = columns[i].push(layers[i]);
+        }
+        Column tall = columns[layers.length];
+        assertEquals("Wrong height.", layers.length, tall.height());
+        assertSame("Wrong top.", layers[layers.length - 1], tall.top());
+        for (int i = 0; i < layers.length; i++) {
+            assertSame("Wrong layer " + i + ".", layers[i], tall.get(i));
+        }
+        assertEquals("Wrong list.", Arrays.asList(layers), tall.asList());
+        int soil = 0;
+        for (Block block : layers) {
+            soil += block == strata[0] ? 1 : 0;
+        }
+        assertEquals("Wrong soil count.", soil,
+                tall.count(BlockTypes.SOIL));
+        assertEquals("Wrong ground count.", soil, tall.groundCount());
+        assertSame("Equal stacks not shared.", tall,
+                Column.of(Arrays.asList(layers)));
+        Column column = tall;
+        for (int i = layers.length; i > 0; i--) {
+            assertSame("Wrong pop at " + i + ".", columns[i], column);
+            column = column.pop();
+        }
+        assertSame("Not popped to empty.", Column.EMPTY, column);
+    }
+
+    /** Default tiles share one column, and edits copy on write. */
+    @Test
+    public void testTilesShareColumns() throws Exception {
+        Tile first = new Tile();
+        Tile second = new Tile();
+        assertSame("Default tiles not shared.",
+                first.getColumn(), second.getColumn());
+
+        first.placeBlock(BlockTypes.WOOD.getBlock());
+        assertEquals("Other tile changed.", 3, second.getBlocks().size());
+        second.placeBlock(BlockTypes.WOOD.getBlock());
+        assertSame("Equal tiles not shared.",
+                first.getColumn(), second.getColumn());
+
+        first.dig();
+        assertEquals("Other tile changed.", 4, second.getBlocks().size());
+    }
+
+    /** getBlocks() must be a read-only view following the tile. */
+    @Test
+    public void testBlockListReadOnly() throws Exception {
+        Tile tile = new Tile();
+        List<Block> blocks = tile.getBlocks();
+        Block wood = new WoodBlock();
+        try {
+            blocks.add(wood);
+            fail("Blocks changed through the view.");
+        } catch (UnsupportedOperationException e) {}
+        assertEquals("Tile changed.", 3, tile.getBlocks().size());
+        tile.placeBlock(wood);
+        assertSame("View not live.", wood, blocks.get(3));
+        tile.removeTopBlock();
+        tile.removeTopBlock();
+        tile.removeTopBlock();
+        tile.removeTopBlock();
+        assertTrue("View not live.", blocks.isEmpty());
+        assertSame("Empty tile not shared.",
+                Column.EMPTY, tile.getColumn());
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * CommandRingTest
+ */
+public class CommandRingTest {
+
+    /** Handler remembering what it was given. */
+    private static class Recorder implements CommandRing.Handler {
+        private final List<Builder> builders = new ArrayList<Builder>();
+        private final List<Integer> arguments = new ArrayList<Integer>();
+        private int batches;
+
+        @Override
+        public void handle(Builder builder, int code, int argument,
+                String name, boolean endOfBatch) {
+            this.builders.add(builder);
+            this.arguments.add(argument);
+            if (endOfBatch) {
+                this.batches++;
+            }
+        }
+    }
+
+    /** A full ring must refuse commands until some are taken. */
+    @Test
+    public void testBackPressure() throws Exception {
+        CommandRing ring = new CommandRing(4, CommandRing.Wait.SPIN);
+        Builder builder = new Builder("Bob", new Tile());
+        for (int i = 0; i < 4; i++) {
+            assertTrue("Command refused.",
+                ring.offer(builder, Action.DROP, i, null));
+        }
+        assertFalse("Full ring took a command.",
+            ring.offer(builder, Action.DIG, 0, null));
+        assertEquals("Wrong size.", 4, ring.size());
+
+        Recorder recorder = new Recorder();
+        assertEquals("Wrong batch size.", 3, ring.drain(recorder, 3));
+        assertEquals("Wrong batch count.", 1, recorder.batches);
+        assertTrue("Freed slot refused.",
+            ring.offer(builder, Action.DROP, 4, null));
+        assertEquals("Wrong drain count.", 2, ring.drain(recorder, 10));
+        assertEquals("Wrong order.", Arrays.asList(0, 1, 2, 3, 4),
+            recorder.arguments);
+        assertEquals("Empty ring drained.", 0, ring.drain(recorder, 10));
+    }
+
+    /** Commands from many producers must all arrive, each in order. */
+    @Test
+    public void testProducers() throws Exception {
+        final CommandRing ring = new CommandRing(64, CommandRing.Wait.YIELD);
+        final int producers = 4;
+        final int count = 20000;
+        final Builder[] builders = new Builder[producers];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final Builder builder = new Builder("p" + p, new Tile());
+            builders[p] = builder;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; i++) {
+                            ring.put(builder, Action.DROP, i, null);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        final int[] expected = new int[producers];
+        CommandRing.Handler checker = new CommandRing.Handler() {
+            @Override
+            public void handle(Builder builder, int code, int argument,
+                    String name, boolean endOfBatch) {
+                int p = builder.getName().charAt(1) - '0';
+                assertEquals("Out of order.", expected[p]++, argument);
+            }
+        };
+        int taken = 0;
+        while (taken < producers * count) {
+            taken += ring.take(checker, 16);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int p = 0; p < producers; p++) {
+            assertEquals("Commands lost.", count, expected[p]);
+        }
+        assertEquals("Ring not empty.", 0, ring.size());
+    }
+
+    /** Executed commands must act on the world and report outcomes. */
+    @Test
+    public void testExecute() throws Exception {
+        World world = new World();
+        Tile start = new Tile();
+        Tile next = new Tile();
+        start.addExit("east", next);
+        world.add(start);
+        world.add(next);
+        Builder builder = new Builder("Bob", start);
+        assertEquals("Move refused.", Action.OK, CommandRing.execute(world,
+            builder, Action.MOVE_TO, world.getId(next), null));
+        assertEquals("Dig refused.", Action.OK, CommandRing.execute(world,
+            builder, Action.DIG, 0, null));
+        assertEquals("Bad drop accepted.", Action.INVALID_BLOCK,
+            CommandRing.execute(world, builder, Action.DROP, 5, null));
+        assertEquals("Missing exit accepted.", Action.NO_EXIT,
+            CommandRing.execute(world, builder, Action.MOVE_BLOCK, 0,
+                "east"));
+    }
+}
@@ -0,0 +1,95 @@
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * DeltaSaverTest
+ */
+public class DeltaSaverTest {
+
+    /**
+     * Helper method to delete a directory and the files in it.
+     */
+    private static void delete(Path directory) throws Exception {
+        for (Path file : Files.newDirectoryStream(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    /** Deltas must hold only changed tiles and load on top of the base. */
+    @Test
+    public void testDeltas() throws Exception {
+        World world = new WorldGenerator(8, 40, 40).generate();
+        List<Builder> none = new ArrayList<Builder>();
+        Path directory = Files.createTempDirectory("saves");
+        DeltaSaver saver = new DeltaSaver(world, directory, 2, 2);
+        try {
+            assertTrue("First save not full.", saver.checkpoint());
+            long baseSize = Files.size(DeltaSaver.basePath(directory, 1));
+
+            world.getTile(10).placeBlock(new WoodBlock());
+            world.getTile(1500).removeExit(WorldGenerator.NORTH);
+            world.getTile(1500).addExit("portal", world.getTile(3));
+            world.add(new Tile());
+            world.getTile(world.size() - 1).addExit("back",
+                world.getTile(0));
+            assertEquals("Wrong dirty count.", 3, saver.getDirtyCount());
+            assertFalse("Delta not written.", saver.checkpoint());
+            Path delta = DeltaSaver.deltaPath(directory, 1, 1);
+            assertTrue("Delta too big.", Files.size(delta) < baseSize / 20);
+            assertEquals("Delta not loaded.", Action.stateHash(world, none),
+                Action.stateHash(DeltaSaver.load(directory), none));
+
+            world.getTile(20).placeBlock(new WoodBlock());
+            assertFalse("Delta not written.", saver.checkpoint());
+            world.getTile(30).placeBlock(new WoodBlock());
+            assertTrue("Deltas not compacted.", saver.checkpoint());
+            assertFalse("Delta not deleted.", Files.exists(delta));
+            assertFalse("Old base not deleted.",
+                Files.exists(DeltaSaver.basePath(directory, 1)));
+            assertEquals("Base not loaded.", Action.stateHash(world, none),
+                Action.stateHash(DeltaSaver.load(directory), none));
+        } finally {
+            saver.close();
+            delete(directory);
+        }
+    }
+
+    /** Deltas left over from an older base must not be applied. */
+    @Test
+    public void testLeftoverDelta() throws Exception {
+        World world = new WorldGenerator(9, 20, 20).generate();
+        List<Builder> none = new ArrayList<Builder>();
+        Path directory = Files.createTempDirectory("saves");
+        Path kept = Files.createTempFile("delta", ".map.gz");
+        DeltaSaver saver = new DeltaSaver(world, directory, 1, 1);
+        try {
+            saver.checkpoint();
+            Tile tile = world.getTile(10);
+            tile.setColumn(Column.EMPTY);
+            tile.placeBlock(new WoodBlock());
+            assertFalse("Delta not written.", saver.checkpoint());
+            Path delta = DeltaSaver.deltaPath(directory, 1, 1);
+            Files.copy(delta, kept, StandardCopyOption.REPLACE_EXISTING);
+
+            tile.dig();
+            assertTrue("Deltas not compacted.", saver.checkpoint());
+            // As if the saver stopped before deleting the old delta.
+            Files.copy(kept, delta);
+            assertEquals("Old delta applied.", Action.stateHash(world, none),
+                Action.stateHash(DeltaSaver.load(directory), none));
+            assertTrue("Old delta applied.",
+                DeltaSaver.load(directory).getTile(10).getBlocks().isEmpty());
+        } finally {
+            saver.close();
+            Files.delete(kept);
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import org.junit.Test;
+
+/**
+ * ExitGraphTest
+ */
+public class ExitGraphTest {
+
+    /** The snapshot must hold every exit, and threads must not matter. */
+    @Test
+    public void testExits() throws Exception {
+        World world = new WorldGenerator(2, 512, 256).generate();
+        world.getTile(7).addExit("portal", world.getTile(70000));
+        world.getTile(8).addExit("lost", new Tile());
+        ExitGraph graph = ExitGraph.of(world, 4);
+        for (int id = 0; id < world.size(); id += 97) {
+            Tile tile = world.getTile(id);
+            Map<String, Integer> exits = new HashMap<String, Integer>();
+            for (int i = graph.getExitStart(id); i < graph.getExitEnd(id);
+                    i++) {
+                exits.put(graph.getName(graph.getNameIdAt(i)),
+                    graph.getTarget(i));
+            }
+            assertEquals("Wrong exit count.", tile.getExits().size(),
+                exits.size());
+            for (Map.Entry<String, Tile> exit : tile.getExits().entrySet()) {
+                assertEquals("Wrong target.", world.getId(exit.getValue()),
+                    (int) exits.get(exit.getKey()));
+            }
+            assertEquals("Wrong height.", tile.getBlocks().size(),
+                graph.getHeight(id));
+        }
+        assertEquals("Portal missing.", 70000,
+            graph.follow(7, graph.getNameId("portal")));
+        assertEquals("Exit out of the world kept.", -1,
+            graph.getNameId("lost"));
+
+        ExitGraph serial = ExitGraph.of(world, 1);
+        assertArrayEquals("Offsets differ.", serial.offsets, graph.offsets);
+        assertArrayEquals("Targets differ.", serial.targets, graph.targets);
+        assertArrayEquals("Names differ.", serial.names, graph.names);
+    }
+
+    /** Heights of tall worlds must not wrap around. */
+    @Test
+    public void testTallWorld() throws Exception {
+        World world = new World(16, 3, 1000, 3);
+        Block wood = new WoodBlock();
+        int[] heights = {254, 255, 256};
+        for (int height : heights) {
+            Tile tile = new Tile(new ArrayList<Block>());
+            world.add(tile);
+            for (int i = 0; i < height; i++) {
+                tile.placeBlock(wood);
+            }
+        }
+        world.getTile(0).addExit("up", world.getTile(1));
+        world.getTile(1).addExit("up", world.getTile(2));
+        ExitGraph graph = ExitGraph.of(world, 1);
+        for (int id = 0; id < heights.length; id++) {
+            assertEquals("Wrong height.", heights[id], graph.getHeight(id));
+        }
+        assertArrayEquals("Wrong distances.", new int[] {0, 1, 2},
+            graph.distances(0));
+    }
+
+    /** Distances must match a search over canEnter. */
+    @Test
+    public void testDistances() throws Exception {
+        World world = new WorldGenerator(3, 40, 40).generate();
+        int[] distances = ExitGraph.of(world, 1).distances(0);
+
+        int[] expected = new int[world.size()];
+        Arrays.fill(expected, -1);
+        expected[0] = 0;
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int id = queue.remove();
+            Builder builder = new Builder("walker", world.getTile(id));
+            for (Tile next : world.getTile(id).getExits().values()) {
+                int target = world.getId(next);
+                if (expected[target] < 0 && builder.canEnter(next)) {
+                    expected[target] = expected[id] + 1;
+                    queue.add(target);
+                }
+            }
+        }
+        assertArrayEquals("Wrong distances.", expected, distances);
+    }
+}
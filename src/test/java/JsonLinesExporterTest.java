@@ -0,0 +1,76 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import org.junit.Test;
+
+/**
+ * JsonLinesExporterTest
+ */
+public class JsonLinesExporterTest {
+
+    /** Tests the exact output for a small world, through a tiny buffer. */
+    @Test
+    public void testExport() throws Exception {
+        World world = new World();
+        Tile first = new Tile();
+        Tile second = new Tile(new ArrayList<Block>());
+        Tile outside = new Tile();
+        world.add(first);
+        world.add(second);
+        first.placeBlock(new WoodBlock());
+        first.addExit("say \"hi\"\n", second);
+        second.addExit("é", outside);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new JsonLinesExporter(Channels.newChannel(bytes), 16).write(world);
+        assertEquals("Wrong output.",
+                "{\"id\":0,\"blocks\":[\"soil\",\"soil\",\"grass\",\"wood\"],"
+                + "\"exits\":{\"say \\\"hi\\\"\\u000a\":1}}\n"
+                + "{\"id\":1,\"blocks\":[],\"exits\":{\"é\":null}}\n",
+                bytes.toString("UTF-8"));
+    }
+
+    /** Tests one line is written per generated tile. */
+    @Test
+    public void testGeneratedWorld() throws Exception {
+        World world = new WorldGenerator(1, 12, 9, 10, 2).generate();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new JsonLinesExporter(Channels.newChannel(bytes)).write(world);
+        String[] lines = bytes.toString("UTF-8").split("\n");
+        assertEquals("Wrong line count.", world.size(), lines.length);
+        assertTrue("Wrong last line.", lines[lines.length - 1]
+                .startsWith("{\"id\":" + (world.size() - 1) + ","));
+    }
+
+    /** Tests lone surrogates are escaped rather than encoded. */
+    @Test
+    public void testLoneSurrogates() throws Exception {
+        World world = new World();
+        Tile tile = new Tile(new ArrayList<Block>());
+        world.add(tile);
+        tile.addExit("a\ud800b\udc00", new Tile());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new JsonLinesExporter(Channels.newChannel(bytes)).write(world);
+        assertEquals("Wrong output.",
+                "{\"id\":0,\"blocks\":[],"
+                + "\"exits\":{\"a\\ud800b\\udc00\":null}}\n",
+                bytes.toString("UTF-8"));
+    }
+
+    /** Tests a tile outside the world is rejected before any output. */
+    @Test
+    public void testTileOutsideWorld() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonLinesExporter exporter =
+            new JsonLinesExporter(Channels.newChannel(bytes));
+        try {
+            exporter.write(new Tile(), new World());
+            fail("Tile outside the world written.");
+        } catch (IllegalArgumentException e) {}
+        exporter.flush();
+        assertEquals("Partial line written.", 0, bytes.size());
+    }
+}
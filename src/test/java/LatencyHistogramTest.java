@@ -0,0 +1,65 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * LatencyHistogramTest
+ */
+public class LatencyHistogramTest {
+
+    /** Every value must land in a bucket covering it, of bounded width. */
+    @Test
+    public void testBuckets() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 123456789,
+            Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestIn(bucket);
+            assertTrue("Bucket below value " + value, highest >= value);
+            assertTrue("Bucket too wide for " + value,
+                highest - value <= value / 64);
+            if (bucket > 0) {
+                assertTrue("Buckets overlap at " + value,
+                    LatencyHistogram.highestIn(bucket - 1) < value);
+            }
+        }
+    }
+
+    /** Percentiles must be within a bucket of the exact values. */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Empty percentile.", 0, histogram.getValueAt(99));
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals("Wrong count.", 10000, histogram.getCount());
+        assertEquals("Wrong max.", 10000000, histogram.getMax());
+        assertEquals("Wrong mean.", 5000500.0, histogram.getMean(), 1e-6);
+        long p50 = histogram.getValueAt(50);
+        assertTrue("Wrong p50 " + p50, p50 >= 5000000 && p50 < 5080000);
+        long p999 = histogram.getValueAt(99.9);
+        assertTrue("Wrong p99.9 " + p999, p999 >= 9990000 && p999 < 10000001);
+        assertEquals("Wrong p100.", 10000000, histogram.getValueAt(100));
+    }
+
+    /** Merged histograms must count as if recorded together. */
+    @Test
+    public void testMerge() {
+        LatencyHistogram low = new LatencyHistogram();
+        LatencyHistogram high = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            low.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            high.record(1000000);
+        }
+        low.merge(high);
+        assertEquals("Wrong count.", 100, low.getCount());
+        assertEquals("Wrong p90.", 100, low.getValueAt(90));
+        assertTrue("Wrong p91.", low.getValueAt(91) >= 1000000);
+        assertEquals("Merged histogram changed.", 10, high.getCount());
+        low.reset();
+        assertEquals("Not reset.", 0, low.getCount());
+    }
+}
@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * LoadTestTest
+ */
+public class LoadTestTest {
+
+    /**
+     * Helper method to run a load test and get its report.
+     */
+    private static String run(int status, String... args) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        assertEquals("Wrong exit status.", status, LoadTest.run(args, out));
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Every action must be counted, and written out as CSV. */
+    @Test
+    public void testCsv() throws Exception {
+        Path csv = Files.createTempFile("load", ".csv");
+        try {
+            String report = run(0, "--generate", "32", "32", "--region",
+                "256", "--builders", "3", "--threads", "2", "--ops", "500",
+                "--warmup", "50", "--csv", csv.toString());
+            assertTrue("No action count.",
+                report.contains("actions        1500"));
+            List<String> lines = Files.readAllLines(csv,
+                StandardCharsets.UTF_8);
+            assertEquals("Wrong row count.", 6, lines.size());
+            assertTrue("Wrong header.", lines.get(0).startsWith(
+                "action,count,ok,too_low,too_high,invalid_block,no_exit,"));
+            assertTrue("Wrong total.", lines.get(5).startsWith("all,1500,"));
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    /** A p99 over budget must fail the run. */
+    @Test
+    public void testBudget() throws Exception {
+        String report = run(1, "--generate", "16", "16", "--builders", "2",
+            "--ops", "100", "--max-p99", "0");
+        assertTrue("No failure.", report.contains("FAILED"));
+    }
+
+    /** Bad arguments must be rejected. */
+    @Test
+    public void testBadArguments() throws Exception {
+        run(2, "--mix", "1,2,3");
+        run(2, "--mix", "0,0,0,0");
+        run(2, "--builders", "0");
+    }
+}
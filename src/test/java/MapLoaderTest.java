@@ -0,0 +1,180 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import org.junit.Test;
+
+/**
+ * MapLoaderTest
+ */
+public class MapLoaderTest {
+
+    /**
+     * Helper method to read a string as a channel.
+     */
+    private static ReadableByteChannel channelOf(String text)
+            throws Exception {
+        return Channels.newChannel(
+                new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+    /** Tests a small map with a forward reference. */
+    @Test
+    public void testForwardReference() throws Exception {
+        World world = MapLoader.load(channelOf(
+                "# comment\n0 ssgw east=1\r\n\n1 - west=0"));
+        assertEquals("Wrong tile count.", 2, world.size());
+        Tile first = world.getTile(0);
+        Tile second = world.getTile(1);
+        assertEquals("Wrong height.", 4, first.getBlocks().size());
+        assertTrue("Wrong top block.",
+                first.getTopBlock() instanceof WoodBlock);
+        assertSame("Wrong exit.", second, first.getExits().get("east"));
+        assertSame("Wrong exit.", first, second.getExits().get("west"));
+        assertTrue("Tile not empty.", second.getBlocks().isEmpty());
+    }
+
+    /** Tests a referenced tile which never gets a line. */
+    @Test(expected = MapFormatException.class)
+    public void testMissingTarget() throws Exception {
+        MapLoader.load(channelOf("0 g east=5\n"));
+    }
+
+    /** Tests errors are reported. */
+    @Test
+    public void testMalformed() throws Exception {
+        String[] bad = {"0 x\n", "0 ssss\n", "a g\n", "0\n", "0 g east\n",
+            "0 g east=\n", "0 g %zz=0\n", "99999999999 g\n"};
+        for (String text : bad) {
+            try {
+                MapLoader.load(channelOf(text));
+                fail("Malformed map loaded: " + text);
+            } catch (MapFormatException e) {}
+        }
+    }
+
+    /** Tests exit names survive escaping, with lines split across reads. */
+    @Test
+    public void testEscapedNames() throws Exception {
+        World original = new World();
+        Tile a = new Tile();
+        Tile b = new Tile();
+        original.add(a);
+        original.add(b);
+        a.addExit("test exit", b);
+        a.addExit("100%=é中😀", a);
+
+        MapWriter writer = new MapWriter(16);
+        writer.tile(a, original);
+        writer.tile(b, original);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(Channels.newChannel(bytes));
+
+        World loaded = new World();
+        MapLoader loader = new MapLoader(loaded, 16);
+        loader.read(Channels.newChannel(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        loader.finish();
+        assertEquals("Names changed.", a.getExits().keySet(),
+                loaded.getTile(0).getExits().keySet());
+    }
+
+    /** Tests a generated map loads back into the generated world. */
+    @Test
+    public void testGeneratedRoundTrip() throws Exception {
+        WorldGenerator generator = new WorldGenerator(3, 30, 20, 64, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        generator.writeMap(Channels.newChannel(bytes));
+        World loaded = MapLoader.load(Channels.newChannel(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        World generated = generator.generate();
+
+        assertEquals("Wrong tile count.", generated.size(), loaded.size());
+        for (int id = 0; id < generated.size(); id++) {
+            Tile expected = generated.getTile(id);
+            Tile actual = loaded.getTile(id);
+            assertEquals("Wrong height.", expected.getBlocks().size(),
+                    actual.getBlocks().size());
+            for (String exit : expected.getExits().keySet()) {
+                assertEquals("Wrong exit.",
+                        generated.getId(expected.getExits().get(exit)),
+                        loaded.getId(actual.getExits().get(exit)));
+            }
+        }
+    }
+
+    /** A later line for the same id replaces the tile's contents. */
+    @Test
+    public void testReplace() throws Exception {
+        World world = new World();
+        MapLoader loader = new MapLoader(world);
+        loader.read(channelOf("0 ssg a=1\n1 w\n"));
+        Tile first = world.getTile(0);
+        loader.read(channelOf("0 t\n"));
+        loader.finish();
+        assertSame("Tile replaced.", first, world.getTile(0));
+        assertEquals("Blocks not replaced.", 1, first.getBlocks().size());
+        assertTrue("Exits not replaced.", first.getExits().isEmpty());
+    }
+
+    /**
+     * Custom blocks which describe a coded type round-trip as that type;
+     * ones without a code fail when written, not when loaded.
+     */
+    @Test
+    public void testCustomBlockRoundTrip() throws Exception {
+        World original = new World();
+        Tile tile = new Tile();
+        original.add(tile);
+        tile.clear();
+        tile.placeBlock(new CustomBlock("soil", "black", true));
+        tile.placeBlock(new CustomBlock("soil", "black", true));
+
+        MapWriter writer = new MapWriter(16);
+        writer.tile(tile, original);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(Channels.newChannel(bytes));
+        World loaded = MapLoader.load(Channels.newChannel(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("Wrong height.", 2,
+                loaded.getTile(0).getBlocks().size());
+        assertTrue("Wrong block.",
+                loaded.getTile(0).getTopBlock() instanceof SoilBlock);
+
+        tile.placeBlock(new CustomBlock("test ore", "gold", false));
+        try {
+            writer.tile(tile, original);
+            fail("Block without a code written.");
+        } catch (MapFormatException e) {
+            assertTrue("Type not named.", e.getMessage().contains("test ore"));
+        }
+        assertEquals("Partial tile written.", 0, writer.length());
+    }
+
+    /** Block implemented outside the registry. */
+    private static class CustomBlock extends GroundBlock {
+        private final String name;
+        private final String colour;
+        private final boolean carryable;
+
+        CustomBlock(String name, String colour, boolean carryable) {
+            this.name = name;
+            this.colour = colour;
+            this.carryable = carryable;
+        }
+
+        public String getColour() {
+            return this.colour;
+        }
+
+        public String getBlockType() {
+            return this.name;
+        }
+
+        public boolean isCarryable() {
+            return this.carryable;
+        }
+    }
+}
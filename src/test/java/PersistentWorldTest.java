@@ -0,0 +1,143 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * PersistentWorldTest
+ */
+public class PersistentWorldTest {
+    PersistentWorld world;
+
+    /**
+     * Setup a world with two default tiles, 0 and 1, joined by exits.
+     */
+    @Before
+    public void setupWorld() throws Exception {
+        Tile first = new Tile();
+        Tile second = new Tile();
+        first.addExit("east", second);
+        second.addExit("west", first);
+        world = PersistentWorld.fromTile(first);
+    }
+
+    /** Tests the snapshot copies blocks and exits. */
+    @Test
+    public void testFromTile() throws Exception {
+        assertEquals("Wrong tile count.", 2, world.size());
+        assertEquals("Wrong height.", 3, world.getHeight(0));
+        assertEquals("Wrong exit target.",
+                Integer.valueOf(1), world.getExits(0).get("east"));
+        assertEquals("Wrong exit target.",
+                Integer.valueOf(0), world.getExits(1).get("west"));
+    }
+
+    /** Edits must not change the version they were made on. */
+    @Test
+    public void testEditsLeaveOldVersion() throws Exception {
+        Block wood = new WoodBlock();
+        PersistentWorld placed = world.placeBlock(0, wood);
+        assertEquals("Old version changed.", 3, world.getHeight(0));
+        assertEquals("New version wrong.", 4, placed.getHeight(0));
+        assertEquals("Wrong top block.", wood, placed.getTopBlock(0));
+
+        PersistentWorld moved = placed.moveBlock(0, "east");
+        assertEquals("Block not removed.", 3, moved.getHeight(0));
+        assertEquals("Block not placed.", wood, moved.getTopBlock(1));
+        assertEquals("Old version changed.", 3, placed.getHeight(1));
+
+        PersistentWorld dug = moved.dig(1);
+        assertEquals("Block not dug.", 3, dug.getHeight(1));
+        assertEquals("Old version changed.", 4, moved.getHeight(1));
+    }
+
+    /** Tests the same rules as Tile are applied. */
+    @Test
+    public void testRules() throws Exception {
+        try {
+            world.placeBlock(0, new SoilBlock());
+            fail("Ground block above 3 didn't throw.");
+        } catch (TooHighException e) {}
+        try {
+            world.moveBlock(0, "east");
+            fail("Moving to same height didn't throw.");
+        } catch (TooHighException e) {}
+        try {
+            world.placeBlock(0, new StoneBlock()).dig(0);
+            fail("Digging stone didn't throw.");
+        } catch (InvalidBlockException e) {}
+        try {
+            world.removeExit(0, "north");
+            fail("Removing missing exit didn't throw.");
+        } catch (NoExitException e) {}
+        try {
+            world.getHeight(2);
+            fail("Missing tile didn't throw.");
+        } catch (NoExitException e) {}
+    }
+
+    /** Tests ids which need several trie levels. */
+    @Test
+    public void testLargeIds() throws Exception {
+        PersistentWorld big = PersistentWorld.empty();
+        for (int id = 0; id < 5000; id += 7) {
+            big = big.withTile(id, Arrays.<Block>asList(new WoodBlock()));
+        }
+        big = big.withTile(1 << 30, new ArrayList<Block>());
+        assertEquals("Wrong tile count.", 716, big.size());
+        assertTrue("Tile missing.", big.contains(4998));
+        assertFalse("Unexpected tile.", big.contains(4999));
+        assertEquals("Wrong height.", 0, big.getHeight(1 << 30));
+    }
+
+    /** Tests materialising tiles and undo/redo. */
+    @Test
+    public void testToTilesAndHistory() throws Exception {
+        WorldHistory history = new WorldHistory(world);
+        history.commit(world.removeExit(0, "east"));
+        history.commit(history.getCurrent().dig(1));
+
+        Tile[] tiles = history.getCurrent().toTiles(2);
+        assertEquals("Wrong height.", 2, tiles[1].getBlocks().size());
+        assertTrue("Exit not removed.", tiles[0].getExits().isEmpty());
+        assertEquals("Wrong exit.", tiles[0], tiles[1].getExits().get("west"));
+
+        history.undo();
+        assertEquals("Undo failed.", 3, history.getCurrent().getHeight(1));
+        history.undo();
+        assertSame("Undo failed.", world, history.getCurrent());
+        assertFalse("Can undo past start.", history.canUndo());
+        history.redo();
+        assertTrue("Redo failed.",
+                history.getCurrent().getExits(0).isEmpty());
+    }
+
+    /** Tests snapshots keep the height limits of their world. */
+    @Test
+    public void testWorldLimits() throws Exception {
+        World tall = new World(4, 1, 20, 10);
+        Tile tile = new Tile();
+        tall.add(tile);
+        PersistentWorld version = PersistentWorld.fromTile(tile);
+        for (int i = 0; i < 7; i++) {
+            version = version.placeBlock(0, new SoilBlock());
+        }
+        assertEquals("Ground limited to the default.", 10,
+                version.getHeight(0));
+        try {
+            version.placeBlock(0, new SoilBlock());
+            fail("Ground block above the world's limit didn't throw.");
+        } catch (TooHighException e) {}
+        version = version.withTile(1, Collections.<Block>nCopies(20,
+            new WoodBlock()));
+        assertEquals("Wrong height.", 20, version.getHeight(1));
+        try {
+            PersistentWorld.empty().withTile(0,
+                Collections.<Block>nCopies(9, new WoodBlock()));
+            fail("Default limits not kept.");
+        } catch (TooHighException e) {}
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * ReachabilityIndexTest
+ */
+public class ReachabilityIndexTest {
+
+    /**
+     * Helper method to check reachability by walking with canEnter, over
+     * steps which can be taken both ways.
+     */
+    private static boolean[] walk(World world, int from) throws Exception {
+        boolean[] seen = new boolean[world.size()];
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        seen[from] = true;
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            Tile tile = world.getTile(queue.remove());
+            Builder builder = new Builder("Bob", tile);
+            for (int id = 0; id < world.size(); id++) {
+                Tile other = world.getTile(id);
+                boolean joined = builder.canEnter(other)
+                    && new Builder("Bob", other).canEnter(tile);
+                if (!seen[id] && joined) {
+                    seen[id] = true;
+                    queue.add(id);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Tests reachability in a small hand-made world. */
+    @Test
+    public void testSimple() throws Exception {
+        World world = new World();
+        Tile a = new Tile();
+        Tile b = new Tile();
+        Tile c = new Tile();
+        world.add(a);
+        world.add(b);
+        ReachabilityIndex index = new ReachabilityIndex(world);
+        assertFalse("Unjoined tiles reachable.", index.canReach(a, b));
+        a.addExit("east", b);
+        assertFalse("One-way exit joins.", index.canReach(a, b));
+        assertFalse("One-way exit joins back.", index.canReach(b, a));
+        b.addExit("west", a);
+        assertTrue("Joined tiles unreachable.", index.canReach(a, b));
+        assertTrue("Joined tiles unreachable back.", index.canReach(b, a));
+        b.placeBlock(new WoodBlock());
+        b.placeBlock(new WoodBlock());
+        assertFalse("Too high tile reachable.", index.canReach(a, b));
+        assertEquals("Wrong components.", 2, index.componentCount());
+        b.dig();
+        assertTrue("Lowered tile unreachable.", index.canReach(a, b));
+        world.add(c);
+        b.addExit("east", c);
+        c.addExit("west", b);
+        assertTrue("New tile unreachable.", index.canReach(a, c));
+        assertEquals("Wrong size.", 3, index.componentSize(0));
+        c.removeExit("west");
+        assertFalse("Exit left one-way still joins.", index.canReach(a, c));
+        assertEquals("Wrong components.", 2, index.componentCount());
+        c.addExit("west", b);
+        b.removeExit("east");
+        assertFalse("Removed exit still joins.", index.canReach(a, c));
+        assertFalse("Tile outside world reachable.",
+                index.canReach(a, new Tile()));
+    }
+
+    /** Random edits must keep the index equal to walking the world. */
+    @Test
+    public void testRandomEdits() throws Exception {
+        int width = 6;
+        World world = new WorldGenerator(3, width, width, 8, 1).generate();
+        ReachabilityIndex index = new ReachabilityIndex(world);
+        Random random = new Random(1);
+        String[] names = {WorldGenerator.NORTH, WorldGenerator.EAST,
+            WorldGenerator.SOUTH, WorldGenerator.WEST, "portal"};
+        for (int step = 0; step < 400; step++) {
+            Tile tile = world.getTile(random.nextInt(world.size()));
+            String name = names[random.nextInt(names.length)];
+            try {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        tile.placeBlock(new WoodBlock());
+                        break;
+                    case 1:
+                        tile.removeTopBlock();
+                        break;
+                    case 2:
+                        tile.moveBlock(name);
+                        break;
+                    case 3:
+                        tile.addExit(name,
+                            world.getTile(random.nextInt(world.size())));
+                        break;
+                    default:
+                        tile.removeExit(name);
+                        break;
+                }
+            } catch (BlockWorldException e) {
+                // Edits which break the rules do nothing.
+            }
+            if (step % 10 == 0) {
+                for (int from = 0; from < world.size(); from++) {
+                    boolean[] seen = walk(world, from);
+                    for (int to = 0; to < world.size(); to++) {
+                        assertEquals("Wrong reachability at step " + step,
+                                seen[to], index.canReach(from, to));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * RegionActorsTest
+ */
+public class RegionActorsTest {
+
+    /** Tile in region 1 whose south exit leads into region 2. */
+    private static final int EDGE = 95;
+    /** Tile south of EDGE, in region 2. */
+    private static final int BELOW = 115;
+    /** Tile north of EDGE, in region 1. */
+    private static final int ABOVE = 75;
+
+    private World world;
+    private RegionActors actors;
+
+    @Before
+    public void setUp() throws Exception {
+        this.world = new WorldGenerator(4, 20, 10, 50, 1).generate();
+        this.actors = new RegionActors(this.world, 2, 4);
+    }
+
+    @After
+    public void tearDown() {
+        this.actors.close();
+    }
+
+    /**
+     * Helper method to set the blocks of a tile.
+     */
+    private void setBlocks(int id, Block... blocks) throws Exception {
+        Tile tile = this.world.getTile(id);
+        tile.setColumn(Column.EMPTY);
+        for (Block block : blocks) {
+            tile.placeBlock(block);
+        }
+    }
+
+    /** Blocks must move across regions only when allowed. */
+    @Test
+    public void testMoveBlock() throws Exception {
+        assertNotEquals("Tiles in one region.", this.world.regionOf(EDGE),
+            this.world.regionOf(BELOW));
+        Block wood = new WoodBlock();
+        this.setBlocks(EDGE, new SoilBlock(), wood);
+        this.setBlocks(BELOW, new SoilBlock());
+
+        assertEquals("Move refused.", Action.OK, (int) this.actors.moveBlock(
+            EDGE, WorldGenerator.SOUTH).get());
+        assertEquals("Block not removed.", 1,
+            this.world.getTile(EDGE).height());
+        assertSame("Block not placed.", wood,
+            this.world.getTile(BELOW).getBlocks().get(1));
+
+        assertEquals("Move to higher tile allowed.", Action.TOO_HIGH,
+            (int) this.actors.moveBlock(EDGE, WorldGenerator.SOUTH).get());
+        assertEquals("Missing exit allowed.", Action.NO_EXIT,
+            (int) this.actors.moveBlock(EDGE, "up").get());
+        this.setBlocks(EDGE, new StoneBlock());
+        assertEquals("Stone dug.", Action.INVALID_BLOCK,
+            (int) this.actors.dig(EDGE).get());
+        assertEquals("Placing refused.", Action.OK,
+            (int) this.actors.placeBlock(EDGE, new WoodBlock()).get());
+        assertEquals("Wood not dug.", Action.OK,
+            (int) this.actors.dig(EDGE).get());
+    }
+
+    /** Builders must be handed between regions as they move. */
+    @Test
+    public void testMoveBuilder() throws Exception {
+        this.setBlocks(EDGE, new SoilBlock());
+        this.setBlocks(BELOW, new SoilBlock(), new SoilBlock(),
+            new SoilBlock());
+        Builder builder = new Builder("Bob", this.world.getTile(EDGE));
+        this.actors.enter(builder).get();
+
+        assertEquals("Climb allowed.", Action.NO_EXIT,
+            (int) this.actors.moveTo(builder, WorldGenerator.SOUTH).get());
+        this.setBlocks(BELOW, new SoilBlock(), new SoilBlock());
+        assertEquals("Move refused.", Action.OK,
+            (int) this.actors.moveTo(builder, WorldGenerator.SOUTH).get());
+        assertSame("Builder not moved.", this.world.getTile(BELOW),
+            builder.getCurrentTile());
+
+        // Sent to the old region, these must follow the builder.
+        assertEquals("Dig refused.", Action.OK,
+            (int) this.actors.digOnCurrentTile(builder).get());
+        assertEquals("Drop refused.", Action.OK,
+            (int) this.actors.dropFromInventory(builder, 0).get());
+        assertEquals("Wrong height.", 2, this.world.getTile(BELOW).height());
+        assertEquals("Move back refused.", Action.OK,
+            (int) this.actors.moveTo(builder, WorldGenerator.NORTH).get());
+
+        // Within one region the builder must stay with the same actor.
+        this.setBlocks(EDGE - 1, new SoilBlock());
+        assertEquals("Move within region refused.", Action.OK,
+            (int) this.actors.moveTo(builder, WorldGenerator.WEST).get());
+        assertEquals("Builder lost.", Action.OK, (int) this.actors
+            .digOnCurrentTile(builder).get(5, TimeUnit.SECONDS));
+
+        this.actors.leave(builder).get();
+        try {
+            this.actors.digOnCurrentTile(builder);
+            fail("Left builder accepted.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /** A move onto a tile frozen by a cross-region move must wait. */
+    @Test
+    public void testMoveOntoFrozenTile() throws Exception {
+        // One thread, so the two moves are handled in a known order.
+        this.actors.close();
+        this.actors = new RegionActors(this.world, 1, 4);
+        assertSame("Tiles not adjacent.", this.world.getTile(EDGE),
+            this.world.getTile(ABOVE).getExits().get(WorldGenerator.SOUTH));
+        assertEquals("Tiles in two regions.", this.world.regionOf(EDGE),
+            this.world.regionOf(ABOVE));
+        Block first = new WoodBlock();
+        Block second = new WoodBlock();
+        this.setBlocks(EDGE, new SoilBlock(), new SoilBlock(),
+            new SoilBlock(), first);
+        this.setBlocks(BELOW, new SoilBlock(), new SoilBlock(),
+            new SoilBlock());
+        this.setBlocks(ABOVE, new SoilBlock(), new SoilBlock(),
+            new SoilBlock(), new WoodBlock(), second);
+
+        // Hold the only thread until both moves are queued.
+        this.setBlocks(0);
+        final Tile gate = this.world.getTile(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.world.addListener(new TileListener() {
+            public void blocksChanged(Tile tile) {
+                try {
+                    if (tile == gate) {
+                        release.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void exitChanged(Tile tile, String name, Tile old) {
+            }
+
+            public void tileChanged(int id, Tile old) {
+            }
+        });
+        this.actors.placeBlock(0, new WoodBlock());
+        Future<Integer> across = this.actors.moveBlock(EDGE,
+            WorldGenerator.SOUTH);
+        Future<Integer> onto = this.actors.moveBlock(ABOVE,
+            WorldGenerator.SOUTH);
+        release.countDown();
+
+        assertEquals("Move across refused.", Action.OK,
+            (int) across.get(5, TimeUnit.SECONDS));
+        assertEquals("Move onto frozen tile refused.", Action.OK,
+            (int) onto.get(5, TimeUnit.SECONDS));
+        assertSame("Frozen tile changed under the move.", first,
+            this.world.getTile(BELOW).getTopBlock());
+        assertSame("Block not moved after thawing.", second,
+            this.world.getTile(EDGE).getTopBlock());
+    }
+
+    /** Builder operations sent without waiting must follow the builder. */
+    @Test
+    public void testPipelinedBuilderOps() throws Exception {
+        this.setBlocks(EDGE, new SoilBlock());
+        this.setBlocks(BELOW, new SoilBlock(), new SoilBlock());
+        Builder builder = new Builder("Bob", this.world.getTile(EDGE));
+        this.actors.enter(builder).get();
+
+        Future<Integer> move = this.actors.moveTo(builder,
+            WorldGenerator.SOUTH);
+        Future<Integer> dig = this.actors.digOnCurrentTile(builder);
+        Future<Integer> drop = this.actors.dropFromInventory(builder, 0);
+        assertEquals("Move refused.", Action.OK,
+            (int) move.get(5, TimeUnit.SECONDS));
+        assertEquals("Dig refused.", Action.OK,
+            (int) dig.get(5, TimeUnit.SECONDS));
+        assertEquals("Drop refused.", Action.OK,
+            (int) drop.get(5, TimeUnit.SECONDS));
+        assertEquals("Dug on the old tile.", 1,
+            this.world.getTile(EDGE).height());
+        assertEquals("Wrong height.", 2, this.world.getTile(BELOW).height());
+    }
+
+    /** A builder's operations must keep their order across regions. */
+    @Test
+    public void testBuilderOpsInOrder() throws Exception {
+        this.setBlocks(EDGE, new SoilBlock());
+        this.setBlocks(BELOW, new SoilBlock(), new SoilBlock());
+        this.setBlocks(ABOVE);
+        this.setBlocks(EDGE - 1);
+        Builder builder = new Builder("Bob", this.world.getTile(EDGE));
+        this.actors.enter(builder).get();
+
+        // Gates holding the source region's actor before and after it
+        // sends the move across.
+        final Tile first = this.world.getTile(ABOVE);
+        final Tile second = this.world.getTile(EDGE - 1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch reachedSecond = new CountDownLatch(1);
+        final CountDownLatch releaseSecond = new CountDownLatch(1);
+        this.world.addListener(new TileListener() {
+            public void blocksChanged(Tile tile) {
+                try {
+                    if (tile == first) {
+                        releaseFirst.await();
+                    } else if (tile == second) {
+                        reachedSecond.countDown();
+                        releaseSecond.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void exitChanged(Tile tile, String name, Tile old) {
+            }
+
+            public void tileChanged(int id, Tile old) {
+            }
+        });
+        this.actors.placeBlock(ABOVE, new WoodBlock());
+        Future<Integer> move = this.actors.moveTo(builder,
+            WorldGenerator.SOUTH);
+        Future<Integer> dig = this.actors.digOnCurrentTile(builder);
+        this.actors.placeBlock(EDGE - 1, new WoodBlock());
+        releaseFirst.countDown();
+        assertTrue("Gate not reached.",
+            reachedSecond.await(5, TimeUnit.SECONDS));
+        // Once the target region's actor has taken the builder over, with
+        // the dig still queued behind the move in the source region.
+        assertEquals("Missing exit allowed.", Action.NO_EXIT,
+            (int) this.actors.moveBlock(BELOW, "up").get(5,
+                TimeUnit.SECONDS));
+        Future<Integer> drop = this.actors.dropFromInventory(builder, 0);
+        releaseSecond.countDown();
+
+        assertEquals("Move refused.", Action.OK,
+            (int) move.get(5, TimeUnit.SECONDS));
+        assertEquals("Dig refused.", Action.OK,
+            (int) dig.get(5, TimeUnit.SECONDS));
+        assertEquals("Drop refused.", Action.OK,
+            (int) drop.get(5, TimeUnit.SECONDS));
+        assertEquals("Wrong height.", 2, this.world.getTile(BELOW).height());
+    }
+
+    /** Closing must cancel operations not yet done. */
+    @Test
+    public void testCloseCancels() throws Exception {
+        this.actors.close();
+        this.actors = new RegionActors(this.world, 1, 4);
+        this.setBlocks(0);
+        final Tile gate = this.world.getTile(0);
+        final CountDownLatch reached = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.world.addListener(new TileListener() {
+            public void blocksChanged(Tile tile) {
+                if (tile == gate) {
+                    reached.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            public void exitChanged(Tile tile, String name, Tile old) {
+            }
+
+            public void tileChanged(int id, Tile old) {
+            }
+        });
+        this.actors.placeBlock(0, new WoodBlock());
+        assertTrue("Gate not reached.", reached.await(5, TimeUnit.SECONDS));
+        Future<Integer> queued = this.actors.dig(EDGE);
+        this.actors.close();
+        release.countDown();
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            fail("Dropped operation completed.");
+        } catch (CancellationException e) {
+            // Expected.
+        }
+        assertTrue("Not cancelled.", queued.isCancelled());
+    }
+
+    /** Concurrent moves across every region must conserve blocks. */
+    @Test
+    public void testConcurrentMoves() throws Exception {
+        final String[] exits = {WorldGenerator.NORTH, WorldGenerator.EAST,
+            WorldGenerator.SOUTH, WorldGenerator.WEST};
+        Random heights = new Random(7);
+        int before = 0;
+        for (int id = 0; id < this.world.size(); id++) {
+            this.setBlocks(id);
+            for (int i = heights.nextInt(6); i > 0; i--) {
+                this.world.getTile(id).placeBlock(new WoodBlock());
+                before++;
+            }
+        }
+        final List<Future<Integer>> results =
+            new ArrayList<Future<Integer>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            Future<Integer> result = actors.moveBlock(
+                                random.nextInt(world.size()),
+                                exits[random.nextInt(exits.length)]);
+                            synchronized (results) {
+                                results.add(result);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int moved = 0;
+        for (Future<Integer> result : results) {
+            if (result.get() == Action.OK) {
+                moved++;
+            }
+        }
+        assertTrue("Nothing moved.", moved > 0);
+        int after = 0;
+        for (int id = 0; id < this.world.size(); id++) {
+            after += this.world.getTile(id).height();
+        }
+        assertEquals("Blocks lost or made.", before, after);
+    }
+}
@@ -0,0 +1,122 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import org.junit.Test;
+
+/**
+ * TasksTest
+ */
+public class TasksTest {
+
+    /**
+     * Helper method to run a task which throws e.
+     */
+    private static FutureTask<String> failing(final Exception e) {
+        FutureTask<String> task = new FutureTask<String>(
+                new Callable<String>() {
+                    public String call() throws Exception {
+                        throw e;
+                    }
+                });
+        task.run();
+        return task;
+    }
+
+    /** Results and exceptions come back as the task gave them. */
+    @Test
+    public void testGetResult() throws Exception {
+        FutureTask<String> done = new FutureTask<String>(
+                new Callable<String>() {
+                    public String call() {
+                        return "done";
+                    }
+                });
+        done.run();
+        assertEquals("Wrong result.", "done", Tasks.getResult(done));
+
+        IOException io = new IOException();
+        try {
+            Tasks.getResult(failing(io), IOException.class);
+            fail("Checked exception not thrown.");
+        } catch (IOException e) {
+            assertSame("Wrong exception.", io, e);
+        }
+        IllegalStateException state = new IllegalStateException();
+        try {
+            Tasks.getResult(failing(state), IOException.class);
+            fail("Unchecked exception not thrown.");
+        } catch (IllegalStateException e) {
+            assertSame("Wrong exception.", state, e);
+        }
+        try {
+            Tasks.getResult(failing(io));
+            fail("Unexpected checked exception not thrown.");
+        } catch (AssertionError e) {
+            assertSame("Wrong cause.", io, e.getCause());
+        }
+    }
+
+    /** Chunks must cover every id once, in order. */
+    @Test
+    public void testRunChunks() throws Exception {
+        Tasks.Chunk<int[]> range = new Tasks.Chunk<int[]>() {
+            int[] run(int from, int to) {
+                return new int[] {from, to};
+            }
+        };
+        int size = (1 << 18) + 3;
+        List<int[]> chunks = Tasks.runChunks(size, 3, range);
+        assertTrue("Not split.", chunks.size() > 1);
+        int next = 0;
+        for (int[] chunk : chunks) {
+            assertEquals("Gap or overlap.", next, chunk[0]);
+            next = chunk[1];
+        }
+        assertEquals("Ids missed.", size, next);
+        assertEquals("Small range split.", 1,
+            Tasks.runChunks(100, 3, range).size());
+    }
+
+    /** Pipeline results must be consumed in order, and failures thrown. */
+    @Test
+    public void testRunPipeline() throws Exception {
+        final List<Integer> consumed = new ArrayList<Integer>();
+        Tasks.runPipeline(50, 3, IOException.class,
+                new Tasks.Pipeline<Integer, IOException>() {
+            Integer produce(int index) {
+                return index * index;
+            }
+
+            void consume(Integer result) {
+                consumed.add(result);
+            }
+        });
+        assertEquals("Wrong count.", 50, consumed.size());
+        for (int i = 0; i < consumed.size(); i++) {
+            assertEquals("Out of order.", i * i, (int) consumed.get(i));
+        }
+
+        final IOException io = new IOException();
+        try {
+            Tasks.runPipeline(50, 3, IOException.class,
+                    new Tasks.Pipeline<Integer, IOException>() {
+                Integer produce(int index) throws IOException {
+                    if (index == 7) {
+                        throw io;
+                    }
+                    return index;
+                }
+
+                void consume(Integer result) {
+                }
+            });
+            fail("Failure not thrown.");
+        } catch (IOException e) {
+            assertSame("Wrong exception.", io, e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * TerraformerTest
+ */
+public class TerraformerTest {
+
+    /** Tests digging stops at the layer and at undiggable blocks. */
+    @Test
+    public void testDigDown() throws Exception {
+        World world = new World(2, 4);
+        world.add(new Tile());
+        world.add(new Tile(Arrays.<Block>asList(new SoilBlock(),
+            new StoneBlock(), new WoodBlock())));
+        world.add(new Tile(Arrays.<Block>asList(new SoilBlock())));
+        world.set(4, new Tile());
+
+        Terraformer terraformer = new Terraformer(2);
+        try {
+            TerraformResult result = terraformer.digDown(world, 0, 5, 1);
+            assertEquals("Wrong outcome.",
+                    TerraformResult.CHANGED, result.getOutcome(0));
+            assertEquals("Wrong height.",
+                    1, world.getTile(0).getBlocks().size());
+            assertEquals("Wrong outcome.",
+                    TerraformResult.NOT_DIGGABLE, result.getOutcome(1));
+            assertTrue("Stone dug.",
+                    world.getTile(1).getTopBlock() instanceof StoneBlock);
+            assertEquals("Wrong outcome.",
+                    TerraformResult.UNCHANGED, result.getOutcome(2));
+            assertEquals("Wrong outcome.",
+                    TerraformResult.MISSING, result.getOutcome(3));
+            assertEquals("Wrong changed count.",
+                    2, result.count(TerraformResult.CHANGED));
+            assertEquals("Wrong block count.", 5, result.getBlocksChanged());
+        } finally {
+            terraformer.shutdown();
+        }
+    }
+
+    /** Tests filling respects the limits for ground and other blocks. */
+    @Test
+    public void testFill() throws Exception {
+        World world = new WorldGenerator(8, 100, 100, 64, 1).generate();
+        Terraformer terraformer = new Terraformer(3);
+        try {
+            TerraformResult soil = terraformer.fill(world, 0, world.size(),
+                5, BlockTypes.SOIL);
+            TerraformResult wood = terraformer.fill(world, 0, world.size(),
+                5, BlockTypes.WOOD);
+            assertEquals("Wrong size.", world.size(), soil.size());
+            for (int id = 0; id < world.size(); id++) {
+                List<Block> blocks = world.getTile(id).getBlocks();
+                assertTrue("Not filled.", blocks.size() >= 5);
+                // Soil stops at 3, so only tiles already 5 high are done.
+                assertNotEquals("Soil passed its limit.",
+                        TerraformResult.CHANGED, soil.getOutcome(id));
+                assertNotEquals("Wood did not fill.",
+                        TerraformResult.TOO_HIGH, wood.getOutcome(id));
+                for (int i = Tile.MAX_GROUND_HEIGHT; i < blocks.size(); i++) {
+                    assertFalse("Ground block too high.",
+                            blocks.get(i) instanceof GroundBlock);
+                }
+            }
+        } finally {
+            terraformer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * TileQueryTest
+ */
+public class TileQueryTest {
+
+    /** Queries must agree with walking the tiles one by one. */
+    @Test
+    public void testMatchesTiles() throws Exception {
+        World world = new WorldGenerator(5, 60, 50, 256, 1).generate();
+        world.add(new Tile(new ArrayList<Block>()));
+        TileColumns columns = TileColumns.of(world);
+
+        List<Integer> tall = new ArrayList<Integer>();
+        int diggable = 0;
+        int empty = 0;
+        long[][] histogram = new long[Tile.MAX_BLOCK_HEIGHT][4];
+        for (int id = 0; id < world.size(); id++) {
+            List<Block> blocks = world.getTile(id).getBlocks();
+            if (blocks.size() >= 6
+                    && blocks.get(blocks.size() - 1) instanceof WoodBlock) {
+                tall.add(id);
+            }
+            if (blocks.isEmpty()) {
+                empty++;
+            } else if (blocks.get(blocks.size() - 1).isDiggable()) {
+                diggable++;
+            }
+            for (int layer = 0; layer < blocks.size(); layer++) {
+                histogram[layer][BlockTypes.of(blocks.get(layer)).getId()]++;
+            }
+        }
+        assertFalse("World too small to test.", tall.isEmpty());
+
+        int[] ids = columns.query().minHeight(6)
+            .topType(BlockTypes.WOOD).ids();
+        assertEquals("Wrong tall ids.", tall.size(), ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Wrong tall id.", (int) tall.get(i), ids[i]);
+        }
+        assertEquals("Wrong diggable count.", diggable,
+                columns.query().topFlags(BlockType.DIGGABLE).count());
+        assertEquals("Wrong empty count.", empty,
+                columns.query().maxHeight(0).count());
+        long[][] counted = columns.query().layerHistogram();
+        for (int layer = 0; layer < histogram.length; layer++) {
+            assertArrayEquals("Wrong histogram.", histogram[layer],
+                    Arrays.copyOf(counted[layer], 4));
+        }
+    }
+
+    /** Parallel scans must give the same results as sequential ones. */
+    @Test
+    public void testParallel() throws Exception {
+        World world = new WorldGenerator(11, 400, 500, 4096, 2).generate();
+        world.set(world.size() + 10, new Tile());
+        TileColumns columns = TileColumns.of(world);
+        assertEquals("Missing tile has a height.",
+                -1, columns.getHeight(world.size() - 2));
+        assertEquals("Missing tiles matched.", world.size() - 10,
+                columns.query().parallel(2).count());
+
+        TileQuery sequential = columns.query().minHeight(4)
+            .topFlags(BlockType.MOVEABLE);
+        TileQuery parallel = columns.query().minHeight(4)
+            .topFlags(BlockType.MOVEABLE).parallel(3);
+        assertEquals("Counts differ.",
+                sequential.count(), parallel.count());
+        assertArrayEquals("Ids differ.", sequential.ids(), parallel.ids());
+        long[][] expected = sequential.layerHistogram();
+        long[][] actual = parallel.layerHistogram();
+        for (int layer = 0; layer < expected.length; layer++) {
+            assertArrayEquals("Histograms differ.",
+                    expected[layer], actual[layer]);
+        }
+    }
+
+    /** Layers above the rows are counted from the tall tiles. */
+    @Test
+    public void testTallTiles() throws Exception {
+        World world = new World(4, 4, 200, 3);
+        Tile wood = new Tile(new ArrayList<Block>());
+        Tile stone = new Tile(new ArrayList<Block>());
+        world.add(new Tile());
+        world.add(wood);
+        world.add(new Tile());
+        world.add(stone);
+        for (int i = 0; i < 150; i++) {
+            wood.placeBlock(new WoodBlock());
+        }
+        for (int i = 0; i < 70; i++) {
+            stone.placeBlock(new StoneBlock());
+        }
+        TileColumns columns = TileColumns.of(world);
+        assertEquals("Rows not capped.", TileColumns.MAX_ROWS,
+                columns.layers.length);
+
+        int woodId = BlockTypes.WOOD.getId();
+        int stoneId = BlockTypes.STONE.getId();
+        long[][] all = columns.query().layerHistogram();
+        assertEquals("Wrong layer count.", 150, all.length);
+        assertEquals("Wrong wood below rows.", 1, all[10][woodId]);
+        assertEquals("Wrong wood above rows.", 1, all[149][woodId]);
+        assertEquals("Wrong stone above rows.", 1, all[69][stoneId]);
+        assertEquals("Stone too high.", 0, all[70][stoneId]);
+
+        long[][] tall = columns.query().minHeight(100).parallel(2)
+            .layerHistogram();
+        assertEquals("Unmatched tile counted.", 0, tall[65][stoneId]);
+        assertEquals("Matched tile not counted.", 1, tall[65][woodId]);
+    }
+}
@@ -278,6 +278,56 @@ public class TileTest {
         tile.placeBlock(new WoodBlock());
     }
 
+    /** Tiles in a world must use its height limits instead. */
+    @Test
+    public void testWorldHeightLimits() throws Exception {
+        World world = new World(16, 1, 2000, 1000);
+        Tile tall = new Tile(new ArrayList<Block>());
+        world.add(tall);
+        Block soil = new SoilBlock();
+        for (int i = 0; i < 1000; i++) {
+            tall.placeBlock(soil);
+        }
+        try {
+            tall.placeBlock(soil);
+            fail("Ground placed above the world's limit.");
+        } catch (TooHighException e) {}
+        Block wood = new WoodBlock();
+        for (int i = 1000; i < 2000; i++) {
+            tall.placeBlock(wood);
+        }
+        try {
+            tall.placeBlock(wood);
+            fail("Block placed above the world's limit.");
+        } catch (TooHighException e) {}
+        assertEquals("Wrong height.", 2000, tall.getBlocks().size());
+        assertSame("Wrong layer.", soil, tall.getBlocks().get(999));
+        assertSame("Wrong layer.", wood, tall.getBlocks().get(1000));
+    }
+
+    /** Moving onto a tile with lower limits must check its limits. */
+    @Test
+    public void testMoveBlockLowerLimit() throws Exception {
+        World world = new World(16, 1, 20, 3);
+        Tile tall = new Tile(new ArrayList<Block>());
+        world.add(tall);
+        for (int i = 0; i < 20; i++) {
+            tall.placeBlock(new WoodBlock());
+        }
+        Tile outside = new Tile(new ArrayList<Block>());
+        for (int i = 0; i < Tile.MAX_BLOCK_HEIGHT; i++) {
+            outside.placeBlock(new WoodBlock());
+        }
+        tall.addExit("down", outside);
+        try {
+            tall.moveBlock("down");
+            fail("Block moved above the target's limit.");
+        } catch (TooHighException e) {}
+        assertEquals("Block lost.", 20, tall.getBlocks().size());
+        assertEquals("Target changed.", Tile.MAX_BLOCK_HEIGHT,
+                outside.getBlocks().size());
+    }
+
     /** Moving via non-existent exit should throw. */
     @Test(expected = NoExitException.class)
     public void testMoveBlockNoExit() throws Exception {
@@ -323,6 +373,38 @@ public class TileTest {
                 blockToMove, otherTile.getTopBlock());
     }
 
+    /** Type counts must follow every change to the blocks. */
+    @Test
+    public void testTypeCounts() throws Exception {
+        // tile starts with soil, soil, grass.
+        assertEquals("Wrong soil count.", 2, tile.countOf(BlockTypes.SOIL));
+        assertEquals("Wrong ground count.", 3, tile.groundCount());
+        assertFalse("Wood counted.", tile.contains(BlockTypes.WOOD));
+
+        tile.placeBlock(new WoodBlock());
+        tile.placeBlock(new StoneBlock());
+        assertTrue("Wood not counted.", tile.contains(BlockTypes.WOOD));
+        assertEquals("Wrong stone count.", 1,
+                tile.countOf(BlockTypes.STONE));
+        assertEquals("Wrong ground count.", 3, tile.groundCount());
+
+        tile.removeTopBlock();
+        assertFalse("Stone still counted.", tile.contains(BlockTypes.STONE));
+
+        Tile otherTile = new Tile();
+        tile.addExit("test exit", otherTile);
+        tile.moveBlock("test exit");
+        assertFalse("Moved wood still counted.",
+                tile.contains(BlockTypes.WOOD));
+        assertEquals("Moved wood not counted.", 1,
+                otherTile.countOf(BlockTypes.WOOD));
+
+        tile.dig();
+        assertEquals("Wrong grass count.", 0,
+                tile.countOf(BlockTypes.GRASS));
+        assertEquals("Wrong ground count.", 2, tile.groundCount());
+    }
+
     /** Moving from empty to empty tile should throw TooHigh. */
     @Test(expected = TooHighException.class)
     public void testMoveBlockEmptyTiles() throws Exception {
@@ -330,4 +412,48 @@ public class TileTest {
         emptyTile.addExit("test 2", otherEmptyTile);
         emptyTile.moveBlock("test 2");
     }
-}
\ No newline at end of file
+
+    /** Primitive accessors must agree with the collection views. */
+    @Test
+    public void testPrimitiveAccessors() throws Exception {
+        tile.placeBlock(new StoneBlock());
+        tile.addExit("a", emptyTile);
+        assertEquals("Wrong height.", 4, tile.height());
+        assertSame("Wrong type.", BlockTypes.STONE, tile.typeAt(3));
+        assertSame("Wrong type.", BlockTypes.SOIL, tile.typeAt(0));
+        assertEquals("Wrong exit count.", 1, tile.exitCount());
+        assertTrue("Exit not found.", tile.hasExitTo(emptyTile));
+        assertFalse("Exit found.", emptyTile.hasExitTo(tile));
+        try {
+            tile.typeAt(4);
+            fail("Type above the top.");
+        } catch (IndexOutOfBoundsException e) {}
+        try {
+            tile.getExits().put("b", tile);
+            fail("Exits changed through the view.");
+        } catch (UnsupportedOperationException e) {}
+        assertSame("View not reused.", tile.getBlocks(), tile.getBlocks());
+    }
+
+    /** Optimistic reads must fail validation only if the tile changed. */
+    @Test
+    public void testValidate() throws Exception {
+        Tile tile = new Tile();
+        Tile other = new Tile();
+        Map<String, Tile> exits = tile.getExits();
+        long stamp = tile.getEpoch();
+        assertTrue("Unchanged tile invalid.", tile.validate(stamp));
+        assertTrue("Exits present.", tile.getExits().isEmpty());
+
+        tile.addExit("a", other);
+        assertFalse("Changed exits valid.", tile.validate(stamp));
+        assertSame("Exit view not live.", other, exits.get("a"));
+        stamp = tile.getEpoch();
+        other.dig();
+        assertTrue("Other tile changed this one.", tile.validate(stamp));
+        tile.dig();
+        assertFalse("Changed blocks valid.", tile.validate(stamp));
+        assertFalse("Stamp taken mid-change valid.",
+            tile.validate(tile.getEpoch() + 1));
+    }
+}
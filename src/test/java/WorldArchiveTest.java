@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+/**
+ * WorldArchiveTest
+ */
+public class WorldArchiveTest {
+
+    /** A saved and loaded world must be the same, one entry per region. */
+    @Test
+    public void testRoundTrip() throws Exception {
+        World world = new WorldGenerator(6, 30, 20, 64, 3).generate();
+        Path path = Files.createTempFile("world", ".zip");
+        try {
+            WorldArchive.save(world, path, 3);
+            World loaded = WorldArchive.load(path);
+            List<Builder> none = new ArrayList<Builder>();
+            assertEquals("Worlds differ.", Action.stateHash(world, none),
+                Action.stateHash(loaded, none));
+
+            int regions = 0;
+            try (InputStream file = Files.newInputStream(path);
+                    ZipInputStream zip = new ZipInputStream(file)) {
+                for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+                    if (entry.getName().startsWith(
+                            WorldArchive.REGION_PREFIX)) {
+                        regions++;
+                    }
+                }
+            }
+            assertEquals("Wrong entry count.", world.getRegionCount(),
+                regions);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /** Height limits must be saved with the world. */
+    @Test
+    public void testHeightLimits() throws Exception {
+        World world = new World(4, 1, 1000, 10);
+        Path path = Files.createTempFile("world", ".zip");
+        try {
+            WorldArchive.save(world, path, 1);
+            World loaded = WorldArchive.load(path);
+            assertEquals("Wrong block limit.", 1000,
+                loaded.getMaxBlockHeight());
+            assertEquals("Wrong ground limit.", 10,
+                loaded.getMaxGroundHeight());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /** Regions must load only when asked for, filling placeholders. */
+    @Test
+    public void testLazyLoad() throws Exception {
+        World world = new WorldGenerator(6, 10, 10, 10, 2).generate();
+        Path path = Files.createTempFile("world", ".zip");
+        try {
+            WorldArchive.save(world, path, 2);
+            try (WorldArchive archive = new WorldArchive(path)) {
+                Tile first = archive.getTile(5);
+                assertTrue("Region not loaded.", archive.isLoaded(0));
+                assertFalse("Region loaded early.", archive.isLoaded(1));
+                Tile below = first.getExits().get(WorldGenerator.SOUTH);
+                assertTrue("Placeholder not empty.",
+                    below.getBlocks().isEmpty());
+                assertSame("Placeholder replaced.", below,
+                    archive.getTile(15));
+                assertEquals("Placeholder not filled.",
+                    world.getTile(15).getBlocks().size(),
+                    below.getBlocks().size());
+                assertEquals("Exits not loaded.", 4,
+                    below.getExits().size());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
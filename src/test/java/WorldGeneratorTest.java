@@ -0,0 +1,117 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * WorldGeneratorTest
+ */
+public class WorldGeneratorTest {
+
+    /**
+     * Helper method to stream a generator's map into a string.
+     */
+    private static String mapOf(WorldGenerator generator) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        generator.writeMap(Channels.newChannel(bytes));
+        return bytes.toString("UTF-8");
+    }
+
+    /** Tests every column respects the height limits. */
+    @Test
+    public void testHeightLimits() throws Exception {
+        World world = new WorldGenerator(42, 50, 40, 128, 4).generate();
+        assertEquals("Wrong tile count.", 2000, world.size());
+        for (int id = 0; id < world.size(); id++) {
+            List<Block> blocks = world.getTile(id).getBlocks();
+            assertTrue("Too many blocks.",
+                    blocks.size() <= Tile.MAX_BLOCK_HEIGHT);
+            for (int i = Tile.MAX_GROUND_HEIGHT; i < blocks.size(); i++) {
+                assertFalse("Ground block too high.",
+                        blocks.get(i) instanceof GroundBlock);
+            }
+        }
+    }
+
+    /** Tests exits join grid neighbours. */
+    @Test
+    public void testExits() throws Exception {
+        World world = new WorldGenerator(7, 3, 2, 2, 2).generate();
+        Tile corner = world.getTile(0);
+        assertEquals("Wrong exit count.", 2, corner.getExits().size());
+        assertSame("Wrong east exit.",
+                world.getTile(1), corner.getExits().get(WorldGenerator.EAST));
+        assertSame("Wrong south exit.", world.getTile(3),
+                corner.getExits().get(WorldGenerator.SOUTH));
+        Tile middle = world.getTile(4);
+        assertEquals("Wrong exit count.", 3, middle.getExits().size());
+        assertSame("Wrong north exit.", world.getTile(1),
+                middle.getExits().get(WorldGenerator.NORTH));
+        assertSame("Wrong west exit.", world.getTile(3),
+                middle.getExits().get(WorldGenerator.WEST));
+    }
+
+    /** The same seed must give the same world on any number of threads. */
+    @Test
+    public void testDeterministic() throws Exception {
+        String single = mapOf(new WorldGenerator(99, 37, 29, 64, 1));
+        String parallel = mapOf(new WorldGenerator(99, 37, 29, 5, 8));
+        assertEquals("Thread count changed the world.", single, parallel);
+        assertNotEquals("Seed ignored.", single,
+                mapOf(new WorldGenerator(100, 37, 29, 64, 1)));
+    }
+
+    /** Streaming and in-memory generation must agree. */
+    @Test
+    public void testStreamMatchesMemory() throws Exception {
+        WorldGenerator generator = new WorldGenerator(5, 20, 10, 16, 3);
+        World world = generator.generate();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(bytes);
+        MapWriter writer = new MapWriter(64);
+        for (int id = 0; id < world.size(); id++) {
+            writer.startTile(id);
+            writer.blocks(world.getTile(id).getBlocks());
+            Tile tile = world.getTile(id);
+            // Same exit order as the generator.
+            String[] order = {WorldGenerator.NORTH, WorldGenerator.EAST,
+                WorldGenerator.SOUTH, WorldGenerator.WEST};
+            for (String name : order) {
+                if (tile.getExits().containsKey(name)) {
+                    writer.exit(name,
+                            world.getId(tile.getExits().get(name)));
+                }
+            }
+            writer.endTile();
+        }
+        writer.writeTo(channel);
+        assertEquals("Streamed map differs.",
+                bytes.toString("UTF-8"), mapOf(generator));
+    }
+
+    /** Tests generated worlds get and use the given height limits. */
+    @Test
+    public void testGivenLimits() throws Exception {
+        World world = new WorldGenerator(42, 50, 40, 128, 4, 12, 6)
+            .generate();
+        assertEquals("Wrong block limit.", 12, world.getMaxBlockHeight());
+        assertEquals("Wrong ground limit.", 6, world.getMaxGroundHeight());
+        int deepest = 0;
+        for (int id = 0; id < world.size(); id++) {
+            List<Block> blocks = world.getTile(id).getBlocks();
+            int ground = 0;
+            while (ground < blocks.size()
+                    && blocks.get(ground) instanceof GroundBlock) {
+                ground++;
+            }
+            assertTrue("Too much ground.", ground <= 6);
+            deepest = Math.max(deepest, ground);
+        }
+        assertTrue("Ground limited to the default.",
+                deepest > Tile.MAX_GROUND_HEIGHT);
+    }
+}
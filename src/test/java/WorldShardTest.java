@@ -0,0 +1,257 @@
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * WorldShardTest
+ */
+public class WorldShardTest {
+
+    /** Tile in shard 0 whose south exit leads into shard 1. */
+    private static final int EDGE = 95;
+    /** Tile south of EDGE, in shard 1. */
+    private static final int BELOW = 115;
+
+    /** Each shard's own copy of the world. */
+    private World[] worlds = new World[2];
+    private WorldShard[] shards = new WorldShard[2];
+
+    @Before
+    public void setUp() throws Exception {
+        InetSocketAddress any =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        for (int i = 0; i < 2; i++) {
+            this.worlds[i] = new WorldGenerator(4, 20, 10, 50, 1).generate();
+            this.shards[i] = new WorldShard(this.worlds[i], i,
+                new InetSocketAddress[] {any, any});
+        }
+        for (int i = 0; i < 2; i++) {
+            this.shards[1 - i].setPeer(i, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), this.shards[i].getPort()));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (WorldShard shard : this.shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Helper method to set the blocks of a tile in one shard's world.
+     */
+    private void setBlocks(int shard, int id, Block... blocks)
+            throws Exception {
+        Tile tile = this.worlds[shard].getTile(id);
+        tile.setColumn(Column.EMPTY);
+        for (Block block : blocks) {
+            tile.placeBlock(block);
+        }
+    }
+
+    /**
+     * Helper method to stand in for shard 1, voting OK to one handoff and
+     * hanging up instead of acknowledging its commit.
+     */
+    private Thread hangUpOnCommit(final ServerSocket server) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try (Socket socket = server.accept()) {
+                    DataInputStream in =
+                        new DataInputStream(socket.getInputStream());
+                    DataOutputStream out =
+                        new DataOutputStream(socket.getOutputStream());
+                    int message = in.readByte();
+                    in.readInt(); // Target.
+                    in.readInt(); // Height.
+                    if (message == 1) { // PREPARE_BLOCK.
+                        in.readInt(); // Block type.
+                    } else {
+                        in.readUTF();
+                        for (int i = in.readInt(); i > 0; i--) {
+                            in.readInt();
+                        }
+                    }
+                    out.writeByte(Action.OK);
+                    out.flush();
+                    in.readByte(); // Commit, never acknowledged.
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /** A connection lost during a commit must lose nothing. */
+    @Test
+    public void testCommitLost() throws Exception {
+        Block wood = new WoodBlock();
+        this.setBlocks(0, EDGE, new SoilBlock(), wood);
+        this.shards[0].addBuilder("Bob", EDGE, new ArrayList<Block>());
+        try (ServerSocket server = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress())) {
+            this.shards[0].setPeer(1, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), server.getLocalPort()));
+
+            Thread peer = this.hangUpOnCommit(server);
+            try {
+                this.shards[0].moveBlock(EDGE, WorldGenerator.SOUTH);
+                fail("Lost commit not reported.");
+            } catch (IOException e) {
+                // Expected.
+            }
+            peer.join();
+            assertSame("Block lost.", wood,
+                this.worlds[0].getTile(EDGE).getTopBlock());
+
+            peer = this.hangUpOnCommit(server);
+            try {
+                this.shards[0].moveBuilder("Bob", WorldGenerator.SOUTH);
+                fail("Lost commit not reported.");
+            } catch (IOException e) {
+                // Expected.
+            }
+            peer.join();
+            assertNotNull("Builder lost.", this.shards[0].getBuilder("Bob"));
+            assertEquals("Tile left reserved.", Action.OK,
+                this.shards[0].dig("Bob"));
+        }
+    }
+
+    /** A peer refusing connections must leave no tile reserved. */
+    @Test
+    public void testPeerRefuses() throws Exception {
+        this.setBlocks(0, EDGE, new SoilBlock(), new WoodBlock());
+        this.shards[0].addBuilder("Bob", EDGE, new ArrayList<Block>());
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        this.shards[0].setPeer(1, new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port));
+
+        try {
+            this.shards[0].moveBlock(EDGE, WorldGenerator.SOUTH);
+            fail("Refused connection not reported.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            this.shards[0].moveBuilder("Bob", WorldGenerator.SOUTH);
+            fail("Refused connection not reported.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals("Tile left reserved.", Action.OK,
+            this.shards[0].dig("Bob"));
+    }
+
+    /** Blocks must move across the boundary only when allowed. */
+    @Test
+    public void testMoveBlock() throws Exception {
+        assertTrue("Wrong owner.", this.shards[0].owns(EDGE));
+        assertEquals("Wrong owner.", 1, this.shards[0].ownerOf(BELOW));
+        Block wood = new WoodBlock();
+        this.setBlocks(0, EDGE, new SoilBlock(), wood);
+        this.setBlocks(1, BELOW, new SoilBlock());
+
+        assertEquals("Move refused.", Action.OK,
+            this.shards[0].moveBlock(EDGE, WorldGenerator.SOUTH));
+        assertEquals("Block not removed.", 1,
+            this.worlds[0].getTile(EDGE).height());
+        assertSame("Block not placed.", BlockTypes.WOOD,
+            this.worlds[1].getTile(BELOW).typeAt(1));
+
+        assertEquals("Move to higher tile allowed.", Action.TOO_HIGH,
+            this.shards[0].moveBlock(EDGE, WorldGenerator.SOUTH));
+        this.setBlocks(0, EDGE, new SoilBlock(), new SoilBlock(),
+            new StoneBlock());
+        assertEquals("Stone moved.", Action.INVALID_BLOCK,
+            this.shards[0].moveBlock(EDGE, WorldGenerator.SOUTH));
+        assertEquals("Missing exit used.", Action.NO_EXIT,
+            this.shards[0].moveBlock(EDGE, "nowhere"));
+        this.setBlocks(0, EDGE, new SoilBlock());
+        assertEquals("Move back refused.", Action.OK,
+            this.shards[1].moveBlock(BELOW, WorldGenerator.NORTH));
+    }
+
+    /** Builders must be handed over with their inventory. */
+    @Test
+    public void testMoveBuilder() throws Exception {
+        this.setBlocks(0, EDGE, new SoilBlock());
+        this.setBlocks(1, BELOW, new SoilBlock(), new SoilBlock(),
+            new SoilBlock());
+        this.shards[0].addBuilder("bob", EDGE,
+            Arrays.<Block>asList(new WoodBlock()));
+        assertEquals("Climb too high allowed.", Action.NO_EXIT,
+            this.shards[0].moveBuilder("bob", WorldGenerator.SOUTH));
+        assertNotNull("Builder lost.", this.shards[0].getBuilder("bob"));
+
+        this.setBlocks(1, BELOW, new SoilBlock(), new SoilBlock());
+        assertEquals("Move refused.", Action.OK,
+            this.shards[0].moveBuilder("bob", WorldGenerator.SOUTH));
+        assertNull("Builder not removed.", this.shards[0].getBuilder("bob"));
+        Builder bob = this.shards[1].getBuilder("bob");
+        assertSame("Wrong tile.", this.worlds[1].getTile(BELOW),
+            bob.getCurrentTile());
+        assertEquals("Inventory lost.", 1, bob.getInventory().size());
+        assertEquals("Drop refused.", Action.OK, this.shards[1].drop("bob", 0));
+    }
+
+    /** Handoffs in both directions at once must neither hang nor lose. */
+    @Test
+    public void testConcurrentHandoffs() throws Exception {
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            final WorldShard shard = this.shards[i];
+            final int from = i == 0 ? EDGE : BELOW;
+            final String exit = i == 0
+                ? WorldGenerator.SOUTH : WorldGenerator.NORTH;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int step = 0; step < 300; step++) {
+                            shard.moveBlock(from, exit);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        this.setBlocks(0, EDGE, new SoilBlock(), new WoodBlock(),
+            new WoodBlock(), new WoodBlock());
+        this.setBlocks(1, BELOW, new SoilBlock(), new WoodBlock());
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse("Handoffs hung.", thread.isAlive());
+        }
+        assertEquals("Errors: " + errors, 0, errors.size());
+        assertEquals("Blocks lost.", 6, this.worlds[0].getTile(EDGE).height()
+            + this.worlds[1].getTile(BELOW).height());
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * _MainTest
+ */
+public class _MainTest {
+
+    /**
+     * Helper method to run the driver and get its report.
+     */
+    private static String run(int status, String... args) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        assertEquals("Wrong exit status.", status, _Main.run(args, out));
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Random actions must all be counted. */
+    @Test
+    public void testRandom() throws Exception {
+        String report = run(0, "--generate", "16", "16", "--random", "5000",
+            "--builders", "3", "--warmup", "100");
+        assertTrue("No action count.", report.contains("actions        5000"));
+        assertTrue("No percentiles.", report.contains("latency p99.9"));
+    }
+
+    /** Script outcomes must be counted by exception. */
+    @Test
+    public void testScript() throws Exception {
+        Path script = Files.createTempFile("script", ".txt");
+        try {
+            Files.write(script, Arrays.asList("# comment", "",
+                "goto 1000", "builder 5", "move nowhere", "dig", "dig",
+                "drop 0", "moveblock east"), StandardCharsets.UTF_8);
+            String report = run(0, "--generate", "4", "4", "--script",
+                script.toString());
+            assertTrue("Wrong action count.",
+                report.contains("actions        6"));
+            assertTrue("Rejected moves not counted.",
+                report.contains("no_exit        2"));
+
+            Files.write(script, Arrays.asList("dig", "jump"),
+                StandardCharsets.UTF_8);
+            assertTrue("Bad line not reported.", run(2, "--script",
+                script.toString()).contains("line 2"));
+        } finally {
+            Files.delete(script);
+        }
+        run(2, "--random");
+    }
+
+    /** Sizes the generator rejects are bad arguments. */
+    @Test
+    public void testBadSize() throws Exception {
+        String[][] sizes = {{"0", "5"}, {"5", "-1"}, {"65536", "65536"}};
+        for (String[] size : sizes) {
+            assertTrue("No usage for " + Arrays.toString(size),
+                run(2, "--generate", size[0], size[1]).startsWith("Usage"));
+        }
+    }
+}